@@ -0,0 +1,30 @@
+package edu.ucla.astro.irlab.io;
+
+
+import java.util.concurrent.CompletableFuture;
+/**
+ *	CommandInterface able to send commands without blocking the calling thread.
+ *	Responses complete the returned futures from the I/O thread of the interface,
+ *	so whatever is chained on them should be handed to another Executor if it takes time.
+ */
+public interface AsyncCommandInterface extends CommandInterface {
+	/**
+	 * Returns true if the asynchronous methods can be used. Otherwise only the blocking ones are available.
+	 * @return true if connected in asynchronous mode
+	 */
+	public boolean isAsync();
+	/**
+	 * Sends a validated Command and completes the future with its trimmed response.
+	 * @param Command to be sent
+	 * @param Parameters to fill in the command
+	 * @return future of the response
+	 */
+	public CompletableFuture<Object> sendRequestAsync(Command command, Parameter[] arguments);
+	/**
+	 * Sends a validated Command expecting no response, and completes the future once it's acknowledged.
+	 * @param Command to be sent
+	 * @param Parameters to fill in the command
+	 * @return future completed with null
+	 */
+	public CompletableFuture<Object> sendCommandAsync(Command command, Parameter[] arguments);
+}
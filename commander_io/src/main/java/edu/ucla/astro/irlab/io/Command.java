@@ -28,10 +28,36 @@ public class Command {
 	 * Or, if none exist, it will stay null
 	*/
 	private String sadRegex;	
+	/** Priority class of the command (urgent, normal, low). Normal if not set in JSON configuration */
+	private String priority;
+	/** true for commands keeping the device busy for long (homing, long listings). Pooled connections send them on a dedicated session */
+	private boolean longRunning;
+	/** Milliseconds between polls of the command by the TelemetryPoller of the Commander. Not polled if not set */
+	private long pollInterval;
+	/** String arguments of each poll, one list per poll [ex: [["A"], ["B"]] polls both axes]. A single poll without arguments if not set */
+	private ArrayList<ArrayList<String>> pollArguments;
+	/** Milliseconds responses of the query are cached by the Commander. Not cached if not set */
+	private long cacheTtlMs;
+	/** Names of the queries whose cached responses are dropped once this command is sent [ex: setMotorSpeed invalidates getMotorSpeed] */
+	private ArrayList<String> invalidates;
+	/** true for queries without side effect, so identical requests in flight at once are sent only once. Implied by cacheTtlMs */
+	private boolean idempotent;
+	/** true for setters where only the latest value matters, so a queued write is replaced by a newer one to the same target */
+	private boolean coalesce;
+	/** Parameters naming the target of a coalesced write [ex: ["axis"]]. Every parameter but the last if not set */
+	private ArrayList<String> coalesceKeys;
 	/** List of argument parameters that is auto-generated upon the first query*/
 	private transient ArrayList<String> paramList;
 	/** List of response parameters that is auto-generated upon the first query*/
 	private transient ArrayList<String> responseList;
+	/** Precompiled happy/sad Patterns of the response. It will be set by Commander during validation.*/
+	private transient ResponseMatcher responseMatcher;
+	/** Pre-parsed command structure that transports render directly into bytes. Generated upon validation */
+	private transient CompiledCommandTemplate commandTemplate;
+	/** Priority class resolved from priority. Generated upon validation */
+	private transient CommandPriority priorityClass;
+	/** Latency histograms and error counters of the command. It will be set by Commander during validation.*/
+	private transient CommandMetrics metrics;
 	
 	/**
 	 * Returns the name(key) of the Command in String
@@ -48,6 +74,16 @@ public class Command {
 	public String getCommand() {
 		return command;
 	}
+	/**
+	 * Returns compiled form of the command structure. If it's not compiled yet, it compiles before returning.
+	 * @return compiled command template
+	 */
+	public CompiledCommandTemplate getCommandTemplate() {
+		if (commandTemplate == null) {
+			commandTemplate = new CompiledCommandTemplate(command);
+		}
+		return commandTemplate;
+	}
 	/**
 	 * Returns successful response structure expected from the hardware.
 	 * @return repsone structure
@@ -86,6 +122,111 @@ public class Command {
 	public String getSadRegex() {
 		return sadRegex;
 	}
+	/**
+	 * Allows commander to set precompiled ResponseMatcher once happy and sad regular expressions are known.
+	 * @param ResponseMatcher of the command
+	 */
+	public void setResponseMatcher(ResponseMatcher matcher) {
+		responseMatcher = matcher;
+	}
+	/**
+	 * Returns precompiled ResponseMatcher of the command, null if the command expects no response at all
+	 * @return response matcher
+	 */
+	public ResponseMatcher getResponseMatcher() {
+		return responseMatcher;
+	}
+	/**
+	 * Allows commander to set the metrics of the command, and times rendering of its template into them.
+	 * @param CommandMetrics of the command
+	 */
+	public void setMetrics(CommandMetrics m) {
+		metrics = m;
+		getCommandTemplate().setRenderHistogram(m.getRender());
+	}
+	/**
+	 * Returns latency histograms and error counters of the command
+	 * @return command metrics
+	 */
+	public CommandMetrics getMetrics() {
+		return metrics;
+	}
+	/**
+	 * Returns priority class of the command, NORMAL if none is configured
+	 * @return priority class
+	 */
+	public CommandPriority getPriority() {
+		if (priorityClass == null) {
+			CommandPriority p = CommandPriority.fromName(priority);
+			priorityClass = (p == null) ? CommandPriority.NORMAL : p;
+		}
+		return priorityClass;
+	}
+	/**
+	 * Returns true if the command is declared long-running in JSON configuration
+	 * @return long-running indicator
+	 */
+	public boolean isLongRunning() {
+		return longRunning;
+	}
+	/**
+	 * Returns milliseconds between polls of the command configured in JSON, 0 if it's not polled
+	 * @return poll interval
+	 */
+	public long getPollInterval() {
+		return pollInterval;
+	}
+	/**
+	 * Returns String arguments of each poll configured in JSON, a single empty list if none is configured
+	 * @return arguments of each poll
+	 */
+	public ArrayList<ArrayList<String>> getPollArguments() {
+		if (pollArguments == null) {
+			ArrayList<ArrayList<String>> single = new ArrayList<ArrayList<String>>();
+			single.add(new ArrayList<String>());
+			return single;
+		}
+		return pollArguments;
+	}
+	/**
+	 * Returns milliseconds responses of the command are cached, 0 if they are not
+	 * @return time-to-live of cached responses
+	 */
+	public long getCacheTtlMs() {
+		return cacheTtlMs;
+	}
+	/**
+	 * Returns names of the queries whose cached responses this command invalidates, null if none is configured
+	 * @return invalidated queries
+	 */
+	public ArrayList<String> getInvalidates() {
+		return invalidates;
+	}
+	/**
+	 * Returns true if the command is declared idempotent in JSON configuration, or its responses are cached
+	 * @return idempotent indicator
+	 */
+	public boolean isIdempotent() {
+		return idempotent || cacheTtlMs > 0;
+	}
+	/**
+	 * Returns true if queued writes of the command are replaced by newer ones to the same target
+	 * @return coalescing indicator
+	 */
+	public boolean isCoalesced() {
+		return coalesce;
+	}
+	/**
+	 * Returns names of the parameters naming the target of a coalesced write, every parameter but the last if not configured
+	 * @return key parameters
+	 */
+	public ArrayList<String> getCoalesceKeys() {
+		if (coalesceKeys == null) {
+			ArrayList<String> params = getParamKeyList();
+			return new ArrayList<String>(params.subList(0, Math.max(0, params.size() - 1)));
+		}
+		return coalesceKeys;
+	}
 	/**
 	 * Returns boolean indicating if this command is request type or not by existence of responseFormat
 	 * @return request indicator
@@ -159,6 +300,35 @@ public class Command {
 		//TODO complete method
 		makeParamKeyList();
 		makeResponseList();
+		commandTemplate = new CompiledCommandTemplate(command);
+		if (priority == null) {
+			priorityClass = CommandPriority.NORMAL;
+		} else {
+			priorityClass = CommandPriority.fromName(priority);
+			if (priorityClass == null) {
+				throw new InvalidConfigurationException("Invalid Configuration : unknown priority \"" + priority + "\" in command \"" + name + "\".");
+			}
+		}
+		
+		if (cacheTtlMs < 0) {
+			throw new InvalidConfigurationException("Invalid Configuration : negative cacheTtlMs in command \"" + name + "\".");
+		}
+		if (cacheTtlMs > 0 && !isRequest()) {
+			throw new InvalidConfigurationException("Invalid Configuration : command \"" + name + "\" has no responseFormat to cache.");
+		}
+		if (coalesceKeys != null) {
+			for (String s : coalesceKeys) {
+				if (!paramList.contains(s)) {
+					throw new InvalidConfigurationException("Invalid Configuration : coalesceKeys parameter \"" + s + "\" is not a parameter of command \"" + name + "\".");
+				}
+			}
+		}
+		if (pollInterval < 0) {
+			throw new InvalidConfigurationException("Invalid Configuration : negative pollInterval in command \"" + name + "\".");
+		}
+		if (pollInterval > 0 && !isRequest()) {
+			throw new InvalidConfigurationException("Invalid Configuration : command \"" + name + "\" has no responseFormat to poll.");
+		}
 		
 		for (String s : paramList) {
 			if (!pMap.containsKey(s) && !Commander.defaultParamDefMap.containsKey(s)) {
@@ -0,0 +1,62 @@
+package edu.ucla.astro.irlab.io;
+
+
+import java.util.Arrays;
+/**
+ *	CommandCall is one entry of Commander.submitBatch: name of a Command with its arguments,
+ *	either as Objects (Integer, Double, etc.) or as Strings, as the submit methods take them.
+ */
+public class CommandCall {
+	/** Name(key) of the Command */
+	private final String commandKey;
+	/** Arguments of the Command, Objects or Strings */
+	private final Object[] parameters;
+	/** true if parameters are Strings to be parsed */
+	private final boolean strings;
+
+	/**
+	 * @param Name of the command
+	 * @param Object arguments that is required for Command
+	 */
+	public CommandCall(String commandKey, Object... parameters) {
+		this.commandKey = commandKey;
+		this.parameters = parameters;
+		this.strings = false;
+	}
+	/**
+	 * @param Name of the command
+	 * @param String arguments that is required for Command
+	 */
+	public CommandCall(String commandKey, String... parameters) {
+		this.commandKey = commandKey;
+		this.parameters = parameters;
+		this.strings = true;
+	}
+	/**
+	 * Returns name(key) of the Command
+	 * @return name of the command
+	 */
+	public String getCommandKey() {
+		return commandKey;
+	}
+	/**
+	 * Returns arguments of the call
+	 * @return arguments, String[] if the call was made with Strings
+	 */
+	public Object[] getParameters() {
+		return parameters;
+	}
+	/**
+	 * Returns true if the arguments are Strings to be parsed
+	 * @return String arguments indicator
+	 */
+	public boolean hasStringParameters() {
+		return strings;
+	}
+	/**
+	 * Returns String description of the call
+	 */
+	public String toString() {
+		return commandKey + " " + Arrays.toString(parameters);
+	}
+}
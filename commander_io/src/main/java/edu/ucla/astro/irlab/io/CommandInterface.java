@@ -9,4 +9,27 @@ public interface CommandInterface {
 	public void disconnect() throws IOException;
 	public void sendCommand(String command, Parameter[] arguments) throws InvalidCommandException, InvalidParameterException, IOException;
 	public Object sendRequest(String command, Parameter[] arguments) throws InvalidCommandException, InvalidParameterException, IOException;
+	/**
+	 * Sends a validated Command. Interfaces writing bytes override this to use the compiled template of the Command.
+	 */
+	public default void sendCommand(Command command, Parameter[] arguments) throws InvalidCommandException, InvalidParameterException, IOException {
+		sendCommand(command.getCommand(), arguments);
+	}
+	/**
+	 * Sends a validated Command and returns its response. Interfaces writing bytes override this to use the compiled template of the Command.
+	 */
+	public default Object sendRequest(Command command, Parameter[] arguments) throws InvalidCommandException, InvalidParameterException, IOException {
+		return sendRequest(command.getCommand(), arguments);
+	}
+	/**
+	 * Sends several commands already rendered and joined into one, and returns what the device replied to all of them.
+	 * By default the combined reply is read as a single response String.
+	 * Interfaces framing replies with a terminator override this to read one reply per command, returned as a List of String.
+	 * @param Rendered commands joined with the device separator
+	 * @param Number of commands joined
+	 * @return combined response String, or List of response Strings, one per command
+	 */
+	public default Object sendBatch(String commands, int count) throws InvalidCommandException, InvalidParameterException, IOException {
+		return sendRequest(commands, new Parameter[0]);
+	}
 }
@@ -0,0 +1,98 @@
+package edu.ucla.astro.irlab.io;
+
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+/**
+ *	CommandMetrics holds where the time of a command goes, one LatencyHistogram per stage of submit:
+ *	queue (waiting for the turn given by the CommandScheduler), render (writing the command into bytes, done by the CommandInterface),
+ *	round trip (from handing the command to the CommandInterface until its response, rendering included), 
+ *	parse (matching the response), and total (from submit until the parsed response).
+ *	Calls answered by the response cache, by an identical request in flight, or packed in a batch are not recorded.
+ *	Failed calls are counted as errors, and those failing on a timeout as timeouts too.
+ */
+public final class CommandMetrics {
+	/** Name(key) of the command */
+	private final String name;
+	private final LatencyHistogram queue = new LatencyHistogram();
+	private final LatencyHistogram render = new LatencyHistogram();
+	private final LatencyHistogram roundTrip = new LatencyHistogram();
+	private final LatencyHistogram parse = new LatencyHistogram();
+	private final LatencyHistogram total = new LatencyHistogram();
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+
+	/**
+	 * @param Name(key) of the command
+	 */
+	CommandMetrics(String name) {
+		this.name = name;
+	}
+	/**
+	 * Counts a failed call, and a timeout if it failed on one
+	 * @param Exception the call failed with
+	 */
+	void countError(Throwable error) {
+		if (error instanceof CompletionException && error.getCause() != null) {
+			error = error.getCause();
+		}
+		errors.incrementAndGet();
+		//. transports report timeouts as SocketTimeoutException, asyncTimeout as TimeoutException. Interrupts are not timeouts
+		if (error instanceof SocketTimeoutException || error instanceof TimeoutException) {
+			timeouts.incrementAndGet();
+		}
+	}
+	public String getName() {
+		return name;
+	}
+	public LatencyHistogram getQueueWait() {
+		return queue;
+	}
+	public LatencyHistogram getRender() {
+		return render;
+	}
+	public LatencyHistogram getRoundTrip() {
+		return roundTrip;
+	}
+	public LatencyHistogram getParse() {
+		return parse;
+	}
+	public LatencyHistogram getTotal() {
+		return total;
+	}
+	public long getErrorCount() {
+		return errors.get();
+	}
+	public long getTimeoutCount() {
+		return timeouts.get();
+	}
+	/**
+	 * Returns number of calls recorded, failed ones included
+	 * @return number of calls
+	 */
+	public long getCallCount() {
+		return total.getCount();
+	}
+	/**
+	 * Clears every histogram and counter
+	 */
+	public void reset() {
+		queue.reset();
+		render.reset();
+		roundTrip.reset();
+		parse.reset();
+		total.reset();
+		errors.set(0);
+		timeouts.set(0);
+	}
+	/**
+	 * Returns one line per stage, after a line with the name and counters
+	 */
+	@Override
+	public String toString() {
+		return String.format("%s: calls %d, errors %d, timeouts %d%n  queue      %s%n  render     %s%n  round trip %s%n  parse      %s%n  total      %s", 
+				name, getCallCount(), getErrorCount(), getTimeoutCount(), queue, render, roundTrip, parse, total);
+	}
+}
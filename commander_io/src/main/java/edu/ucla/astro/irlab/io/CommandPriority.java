@@ -0,0 +1,33 @@
+package edu.ucla.astro.irlab.io;
+
+
+/**
+ *	CommandPriority enumerates the priority classes a Command can be declared with in JSON [ex: "priority": "urgent"].
+ *	CommandScheduler lets waiting commands of a higher class go to the device before any of a lower class.
+ *	Commands without priority are NORMAL.
+ */
+public enum CommandPriority {
+	/** Safety commands such as stop, abort or motor off */
+	URGENT,
+	/** Regular commands */
+	NORMAL,
+	/** Status polling and telemetry, which can wait behind everything else */
+	LOW;
+
+	/**
+	 * Looks up priority class using its name in configuration, ignoring case.
+	 * @param Priority name (urgent, normal, low)
+	 * @return CommandPriority, or null if name is unknown
+	 */
+	public static CommandPriority fromName(String name) {
+		if (name == null) {
+			return null;
+		}
+		for (CommandPriority p : values()) {
+			if (p.name().equalsIgnoreCase(name)) {
+				return p;
+			}
+		}
+		return null;
+	}
+}
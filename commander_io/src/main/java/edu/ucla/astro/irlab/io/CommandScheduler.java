@@ -0,0 +1,321 @@
+package edu.ucla.astro.irlab.io;
+
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+/**
+ *	CommandScheduler decides which command goes to the CommandInterface next.
+ *	Every submit takes a Ticket in the queue of its CommandPriority class, then waits until the ticket is granted.
+ *	Tickets are granted to the oldest waiting ticket of the highest class, so an urgent command jumps ahead of queued polls,
+ *	and at most as many tickets as the interface can have commands in flight are granted at once.
+ *	A command already on the wire is never interrupted.
+ *	Tickets are acquired either by a blocked thread, or asynchronously with a future completed when the ticket is granted.
+ *	Each class queue is bounded, and the time tickets waited before being granted is recorded per class.
+ *	Threads wait on a ReentrantLock condition rather than a monitor, so virtual threads waiting for their turn release their carrier.
+ */
+public final class CommandScheduler {
+	/** Guards every field below, and signals threads waiting for their turn */
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition turn = lock.newCondition();
+	/** Number of tickets that can be granted at once */
+	private final int permits;
+	/** Maximum number of tickets queued per class */
+	private final int capacity;
+	/** Number of granted tickets not released yet */
+	private int inUse = 0;
+	/** Tickets waiting to be granted, per class in CommandPriority order */
+	private final ArrayDeque<Ticket>[] waiting;
+	/** Tickets taken and not granted yet, per class. Includes tickets of async calls not started yet */
+	private final int[] queued;
+	/** Statistics per class */
+	private final long[] granted;
+	private final long[] totalWaitNanos;
+	private final long[] maxWaitNanos;
+
+	/**
+	 * Place of a command in the queue of its class
+	 */
+	public static final class Ticket {
+		private final CommandPriority priority;
+		private final long queuedAt;
+		private boolean done = false;
+		/** Completed when granted, for tickets acquired asynchronously */
+		private CompletableFuture<Void> grant;
+		private Ticket(CommandPriority priority) {
+			this.priority = priority;
+			this.queuedAt = System.nanoTime();
+		}
+		public CommandPriority getPriority() {
+			return priority;
+		}
+		/**
+		 * Returns System.nanoTime() when the ticket was taken
+		 * @return queuing time in nanoseconds
+		 */
+		public long getQueuedAt() {
+			return queuedAt;
+		}
+	}
+
+	/**
+	 * @param Number of commands the interface can have in flight
+	 * @param Maximum number of queued commands per priority class
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public CommandScheduler(int permits, int capacity) {
+		this.permits = Math.max(1, permits);
+		this.capacity = Math.max(1, capacity);
+		int classes = CommandPriority.values().length;
+		this.waiting = new ArrayDeque[classes];
+		for (int ii = 0; ii < classes; ii++) {
+			waiting[ii] = new ArrayDeque<Ticket>();
+		}
+		this.queued = new int[classes];
+		this.granted = new long[classes];
+		this.totalWaitNanos = new long[classes];
+		this.maxWaitNanos = new long[classes];
+	}
+	/**
+	 * Takes a place in the queue of the priority class. Wait time is measured from here.
+	 * @param Priority class of the command
+	 * @return Ticket to be acquired, or cancelled if the command is dropped
+	 * @throws IOException if the queue of the class is full
+	 */
+	public Ticket enqueue(CommandPriority priority) throws IOException {
+		lock.lock();
+		try {
+			int cls = priority.ordinal();
+			if (queued[cls] >= capacity) {
+				throw new IOException(String.format("Queue of %s commands is full (%d)", priority.name().toLowerCase(), capacity));
+			}
+			queued[cls]++;
+			return new Ticket(priority);
+		} finally {
+			lock.unlock();
+		}
+	}
+	/**
+	 * Waits until the ticket is granted. Release must be called once the command is done.
+	 * @param Ticket from enqueue
+	 * @throws InterruptedIOException
+	 */
+	public void acquire(Ticket ticket) throws InterruptedIOException {
+		lock.lock();
+		try {
+			ArrayDeque<Ticket> queue = waiting[ticket.priority.ordinal()];
+			queue.addLast(ticket);
+			try {
+				while (inUse >= permits || !isNext(ticket)) {
+					turn.await();
+				}
+			} catch (InterruptedException e) {
+				queue.remove(ticket);
+				cancel(ticket);
+				turn.signalAll();
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for " + ticket.priority.name().toLowerCase() + " command turn");
+			}
+			queue.removeFirst();
+			grant(ticket);
+			if (inUse < permits) {
+				//. next ticket in line may be granted as well
+				turn.signalAll();
+			}
+		} finally {
+			lock.unlock();
+		}
+		grantAsync();
+	}
+	/**
+	 * Queues the ticket without blocking. Release must be called once the command is done.
+	 * @param Ticket from enqueue
+	 * @return future completed when the ticket is granted. It may complete on the thread releasing another ticket
+	 */
+	public CompletableFuture<Void> acquireAsync(Ticket ticket) {
+		lock.lock();
+		try {
+			ticket.grant = new CompletableFuture<Void>();
+			waiting[ticket.priority.ordinal()].addLast(ticket);
+		} finally {
+			lock.unlock();
+		}
+		grantAsync();
+		return ticket.grant;
+	}
+	/**
+	 * Releases a granted ticket, letting the next one go.
+	 */
+	public void release() {
+		lock.lock();
+		try {
+			inUse--;
+			turn.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		grantAsync();
+	}
+	/**
+	 * Grants asynchronous tickets next in line while permits are left. 
+	 * A blocked thread next in line takes its turn itself, after being signalled.
+	 * Futures are completed outside the lock, since they run the command.
+	 */
+	private void grantAsync() {
+		ArrayList<Ticket> granted = null;
+		lock.lock();
+		try {
+			while (inUse < permits) {
+				Ticket next = null;
+				for (ArrayDeque<Ticket> queue : waiting) {
+					if (!queue.isEmpty()) {
+						next = queue.peekFirst();
+						break;
+					}
+				}
+				if (next == null || next.grant == null) {
+					break;
+				}
+				waiting[next.priority.ordinal()].removeFirst();
+				grant(next);
+				if (granted == null) {
+					granted = new ArrayList<Ticket>();
+				}
+				granted.add(next);
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (granted != null) {
+			for (Ticket t : granted) {
+				t.grant.complete(null);
+			}
+		}
+	}
+	
+	private void grant(Ticket ticket) {
+		inUse++;
+		int cls = ticket.priority.ordinal();
+		long wait = System.nanoTime() - ticket.queuedAt;
+		ticket.done = true;
+		queued[cls]--;
+		granted[cls]++;
+		totalWaitNanos[cls] += wait;
+		if (wait > maxWaitNanos[cls]) {
+			maxWaitNanos[cls] = wait;
+		}
+	}
+	/**
+	 * Gives back the place of a ticket that will never be acquired.
+	 * @param Ticket from enqueue
+	 */
+	public void cancel(Ticket ticket) {
+		lock.lock();
+		try {
+			if (!ticket.done) {
+				ticket.done = true;
+				queued[ticket.priority.ordinal()]--;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private boolean isNext(Ticket ticket) {
+		for (ArrayDeque<Ticket> queue : waiting) {
+			if (!queue.isEmpty()) {
+				return queue.peekFirst() == ticket;
+			}
+		}
+		return false;
+	}
+	/**
+	 * Returns number of commands of the class waiting for their turn
+	 * @param Priority class
+	 * @return queue length
+	 */
+	public int getQueued(CommandPriority priority) {
+		lock.lock();
+		try {
+			return queued[priority.ordinal()];
+		} finally {
+			lock.unlock();
+		}
+	}
+	/**
+	 * Returns number of commands of the class that got their turn
+	 * @param Priority class
+	 * @return count
+	 */
+	public long getGranted(CommandPriority priority) {
+		lock.lock();
+		try {
+			return granted[priority.ordinal()];
+		} finally {
+			lock.unlock();
+		}
+	}
+	/**
+	 * Returns average time commands of the class waited for their turn
+	 * @param Priority class
+	 * @return mean wait in microseconds
+	 */
+	public double getMeanWaitMicros(CommandPriority priority) {
+		lock.lock();
+		try {
+			int cls = priority.ordinal();
+			return (granted[cls] == 0) ? 0 : totalWaitNanos[cls] / 1000.0 / granted[cls];
+		} finally {
+			lock.unlock();
+		}
+	}
+	/**
+	 * Returns longest time a command of the class waited for its turn
+	 * @param Priority class
+	 * @return max wait in microseconds
+	 */
+	public double getMaxWaitMicros(CommandPriority priority) {
+		lock.lock();
+		try {
+			return maxWaitNanos[priority.ordinal()] / 1000.0;
+		} finally {
+			lock.unlock();
+		}
+	}
+	/**
+	 * Clears wait time statistics
+	 */
+	public void resetStatistics() {
+		lock.lock();
+		try {
+			for (int ii = 0; ii < granted.length; ii++) {
+				granted[ii] = 0;
+				totalWaitNanos[ii] = 0;
+				maxWaitNanos[ii] = 0;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+	/**
+	 * Returns one line of queue length and wait times per priority class
+	 */
+	@Override
+	public String toString() {
+		lock.lock();
+		try {
+			StringBuilder sb = new StringBuilder();
+			for (CommandPriority p : CommandPriority.values()) {
+				sb.append(String.format("%-6s queued %d, granted %d, mean wait %.1f us, max wait %.1f us%n", 
+						p.name().toLowerCase(), getQueued(p), getGranted(p), getMeanWaitMicros(p), getMaxWaitMicros(p)));
+			}
+			return sb.toString();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -4,12 +4,33 @@ package edu.ucla.astro.irlab.io;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map.Entry;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
@@ -23,7 +44,10 @@ import com.google.gson.GsonBuilder;
 
 import edu.ucla.astro.irlab.io.ice.ICECommandInterface;
 import edu.ucla.astro.irlab.io.serial.SerialCommandInterface;
+import edu.ucla.astro.irlab.io.socket.SelectorLoop;
+import edu.ucla.astro.irlab.io.socket.TCPChannelCommandInterface;
 import edu.ucla.astro.irlab.io.socket.TCPCommandInterface;
+import edu.ucla.astro.irlab.io.socket.TCPPoolCommandInterface;
 import edu.ucla.astro.irlab.io.socket.UDPCommandInterface;
 /**
  *	@author Ji Man Sohn @ UCLA Infrared Laboratory
@@ -48,6 +72,42 @@ public class Commander {
 	public transient Logger logger;
 	/** CommandInterface augo-generated using connectionProperties */
 	private transient CommandInterface interfaceConnection;
+	/** 
+	 * Threads running submitAsync calls of blocking connections. Either owned by this Commander from connect to disconnect, 
+	 * or shared by a CommanderRegistry. null while the connection is read by a selector loop
+	 */
+	private transient Executor executor;
+	/** Threads parsing responses of connections read by a selector loop, shared by every Commander of the process or of the registry */
+	private transient Executor parser;
+	/** SelectorLoop shared by a CommanderRegistry, null if none was attached */
+	private transient SelectorLoop sharedLoop;
+	/** Executors shared by a CommanderRegistry, parsing responses and running calls of blocking connections. null if none was attached */
+	private transient Executor sharedParser;
+	private transient Executor sharedBlocking;
+	/** Executor created by this Commander, null if a shared one is used */
+	private transient ThreadPoolExecutor ownExecutor;
+	/** submitAsync calls waiting for an executor thread, in priority and submission order */
+	private transient PriorityBlockingQueue<AsyncCall> asyncQueue;
+	/** Number of executor tasks draining asyncQueue, at most as many as commands the connection can have in flight */
+	private transient AtomicInteger activeDrains;
+	/** Orders commands of every caller by priority class before they reach the CommandInterface */
+	private transient CommandScheduler scheduler;
+	/** Sequence number of submitAsync calls, to keep calls of the same priority in order */
+	private transient AtomicLong asyncSequence;
+	/** Milliseconds after which a submitAsync call fails with TimeoutException. 0 leaves it to the interface timeouts */
+	private transient long asyncTimeout;
+	/** Polls status commands while connected, at the pollInterval of each command */
+	private transient TelemetryPoller poller;
+	/** Responses of queries declaring cacheTtlMs, dropped by the setters invalidating them */
+	private transient ResponseCache responseCache;
+	/** Calls of idempotent requests in flight, with the rendered command string as keys */
+	private transient ConcurrentHashMap<String, AsyncCall> inFlight;
+	/** Number of submit calls that joined an identical request in flight instead of sending */
+	private transient AtomicLong joinedCount;
+	/** Queued writes of coalesced commands not sent yet, with the command structure and its key parameters as keys (see coalesceKey) */
+	private transient ConcurrentHashMap<String, AsyncCall> pendingWrites;
+	/** Number of writes of coalesced commands replaced by a newer one before being sent, per command */
+	private transient ConcurrentHashMap<Command, AtomicLong> coalescedCounts;
 	/** 
 	 * HashMap of ParameterDefinition class objects with their name as keys. 
 	 * Primitive data types of JAVA are predefined as default ParameterDefinitions
@@ -57,6 +117,12 @@ public class Commander {
 	 * Map of regular expressions for each data type. Will be used setting each Commands' happyRegex.
 	 */
 	public static final transient HashMap<String, String> happyRegularExpressions;
+	/** Number of commands each priority class can queue, unless queueCapacity is configured */
+	public static final int DEFAULT_QUEUE_CAPACITY = 256;
+	/** Default maximum number of characters packed into a single write by submitBatch */
+	public static final int DEFAULT_BATCH_SIZE = 512;
+	/** Default separator of commands packed by submitBatch */
+	public static final String DEFAULT_BATCH_SEPARATOR = ";";
 	// Initializing default HashMaps
 	static
 	{
@@ -118,8 +184,137 @@ public class Commander {
 		//. TODO set connected to false on certain errors (e.g. timeouts)
 		logger.debug("Connecting to {}", name);
 		if (!connected) {
+			if (interfaceConnection instanceof TCPChannelCommandInterface) {
+				//. ignored without response terminator, the connection then stays blocking
+				((TCPChannelCommandInterface) interfaceConnection).setSelectorLoop((sharedLoop != null) ? sharedLoop : SharedIO.selectorLoop());
+			}
 			interfaceConnection.connect();
+			startIOLoop();
 			connected = true;
+			poller.start();
+		}
+	}
+	/**
+	 * Returns number of commands the connection can have in flight at once:
+	 * pipelineDepth per session, and number of sessions for pooled connections.
+	 * @return number of commands in flight
+	 */
+	private int getConcurrency() {
+		String depth = connectionProperties.get("pipelineDepth");
+		String sessions = connectionProperties.get("sessions");
+		int concurrency = (depth == null) ? 1 : Integer.parseInt(depth);
+		if (connectionProperties.get("type").equalsIgnoreCase("tcppool")) {
+			concurrency *= (sessions == null) ? 2 : Math.max(1, Integer.parseInt(sessions));
+		}
+		return concurrency;
+	}
+	/**
+	 * Switches every Commander of the process connecting afterwards to virtual thread mode: 
+	 * submitAsync calls on blocking connections (serial, ice, tcp, ...) run on virtual threads instead of platform threads.
+	 * Each Commander still runs at most as many calls at once as its connection can have in flight.
+	 * Needs Java 21 at runtime. Older runtimes fall back to platform threads created on demand.
+	 * @param true to use virtual threads
+	 */
+	public static void setVirtualThreads(boolean enabled) {
+		VirtualThreads.setEnabled(enabled);
+	}
+	/**
+	 * Returns true if the runtime has virtual threads
+	 * @return availability of virtual threads
+	 */
+	public static boolean isVirtualThreadsAvailable() {
+		return VirtualThreads.isAvailable();
+	}
+	/**
+	 * Prepares running submitAsync calls. Connections read by a selector loop need no thread of their own,
+	 * responses being parsed by the attached workers, or by the parser threads shared by the process.
+	 * Blocking connections run their calls on virtual threads in virtual thread mode, else on the attached blocking executor. 
+	 * Without either, as many threads as the connection can have commands in flight are started.
+	 */
+	private void startIOLoop() {
+		String timeout = connectionProperties.get("asyncTimeout");
+		asyncTimeout = (timeout == null) ? 0 : Long.parseLong(timeout);
+		asyncSequence = new AtomicLong();
+		asyncQueue = new PriorityBlockingQueue<AsyncCall>();
+		activeDrains = new AtomicInteger();
+		parser = (sharedParser != null) ? sharedParser : SharedIO.PARSER;
+		if (interfaceConnection instanceof AsyncCommandInterface && ((AsyncCommandInterface) interfaceConnection).isAsync()) {
+			executor = null;
+		} else if (VirtualThreads.isEnabled()) {
+			executor = VirtualThreads.executor();
+		} else if (sharedBlocking != null) {
+			executor = sharedBlocking;
+		} else {
+			int threads = getConcurrency();
+			ownExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+					new NamedDaemonThreadFactory(name + "-io"));
+			executor = ownExecutor;
+		}
+	}
+	/**
+	 * Stops running submitAsync calls. Calls still queued fail with IOException.
+	 * Threads are stopped only if this Commander created them.
+	 */
+	private void stopIOLoop() {
+		if (asyncQueue != null) {
+			AsyncCall call;
+			while ((call = asyncQueue.poll()) != null) {
+				scheduler.cancel(call.ticket);
+				call.future.completeExceptionally(new IOException("Disconnected from " + name + "."));
+			}
+		}
+		if (ownExecutor != null) {
+			ownExecutor.shutdownNow();
+			ownExecutor = null;
+		}
+		executor = null;
+		parser = null;
+	}
+	/**
+	 * Makes this Commander parse responses and run its blocking submitAsync calls on shared executors, and, 
+	 * for tcpchannel connections, read its device from a shared selector loop instead of the one of the process. 
+	 * Used by CommanderRegistry before connecting.
+	 * @param Executor parsing responses for several Commanders
+	 * @param Executor running calls of blocking connections for several Commanders
+	 * @param SelectorLoop shared by several Commanders, or null
+	 */
+	void attach(Executor parser, Executor blocking, SelectorLoop loop) {
+		if (connected) {
+			throw new IllegalStateException(name + " is already connected");
+		}
+		this.sharedParser = parser;
+		this.sharedBlocking = blocking;
+		this.sharedLoop = loop;
+	}
+	/**
+	 * Builds the ResponseMatcher of the Command passed in, precompiling its happy and sad regular expressions
+	 * and binding each response group to its ParameterDefinition. 
+	 * Commands expecting no response and having no sad regular expression are left without matcher.
+	 * @param Command to be compiled
+	 * @throws InvalidConfigurationException
+	 */
+	private void compileResponseMatcher(Command cmd) throws InvalidConfigurationException {
+		String happy = null;
+		String sad;
+		ArrayList<String> rlist = cmd.getResponseList();
+		ParameterDefinition[] bindings = new ParameterDefinition[rlist.size()];
+		try {
+			if (cmd.isRequest()) {
+				happy = getHappyRegex(cmd);
+			}
+			for (int ii = 0; ii<rlist.size(); ii++) {
+				bindings[ii] = getParamDef(rlist.get(ii));
+			}
+			sad = getSadRegex(cmd);
+		} catch (InvalidCommandException e) {
+			throw new InvalidConfigurationException(e.getMessage());
+		} catch (InvalidParameterException e) {
+			throw new InvalidConfigurationException(e.getMessage());
+		}
+		if (happy == null && sad == null) {
+			cmd.setResponseMatcher(null);
+		} else {
+			cmd.setResponseMatcher(new ResponseMatcher(cmd.getName(), happy, sad, bindings, errorNotifier));
 		}
 	}
 	/**
@@ -131,8 +326,11 @@ public class Commander {
 		//. but the interface needs to be set up with param/command maps, etc.
 		String connectiontype = connectionProperties.get("type");
 		logger.debug("Creating {} type command interface for {}", connectiontype, name);
+		String capacity = connectionProperties.get("queueCapacity");
+		scheduler = new CommandScheduler(getConcurrency(), (capacity == null) ? DEFAULT_QUEUE_CAPACITY : Integer.parseInt(capacity));
 		if (connectiontype.equalsIgnoreCase("Ice")) {
 			ICECommandInterface iceCI = new ICECommandInterface(connectionProperties);
+			iceCI.setCommandMap(commandMap);
 			iceCI.constructFromConfigurationFile("");  //. TODO
 			setCommandInterface(iceCI);
 		} else if (connectiontype.equalsIgnoreCase("tcp")) {
@@ -142,6 +340,12 @@ public class Commander {
 			TCPCommandInterface tcpCI = new TCPCommandInterface(connectionProperties);
 //			socketCI.constructFromConfigurationFile(socketConfigJsonFilePath);
 			setCommandInterface(tcpCI);
+		} else if (connectiontype.equalsIgnoreCase("tcpchannel")) {
+			TCPChannelCommandInterface channelCI = new TCPChannelCommandInterface(connectionProperties);
+			setCommandInterface(channelCI);
+		} else if (connectiontype.equalsIgnoreCase("tcppool")) {
+			TCPPoolCommandInterface poolCI = new TCPPoolCommandInterface(connectionProperties);
+			setCommandInterface(poolCI);
 		} else if (connectiontype.equalsIgnoreCase("udp")) {
 			UDPCommandInterface udpCI = new UDPCommandInterface(connectionProperties);
 			setCommandInterface(udpCI);
@@ -154,28 +358,10 @@ public class Commander {
 	 * Internal method to convert Java Formatter format for Date/Calendar to regular expression  
 	 * @param Java formatter style String for Date/Calendar
 	 * @return Regular expression style String for Date/Calendar
+	 * @throws InvalidConfigurationException
 	 */
-	private String dateformat2regex(String format) {
-		String dateformat = format;
-		dateformat = dateformat.replaceAll("%tY","\\\\d{4}");	// 4-digit year
-		dateformat = dateformat.replaceAll("%ty","\\\\d{2}");		// 2-digit year
-		dateformat = dateformat.replaceAll("%tB", "\\\\S+");	// Month in Full String
-		dateformat = dateformat.replaceAll("%tb","\\\\S+");	// Month in abbreviated String
-		dateformat = dateformat.replaceAll("%tm","\\\\d{2}");		// 2-digit Month
-		dateformat = dateformat.replaceAll("%td","\\\\d{2}");		// 2-digit day with leading zero
-		dateformat = dateformat.replaceAll("%te","\\\\d{1,2}");		// 1 or 2-digit day
-		dateformat = dateformat.replaceAll("%tH","\\\\d{2}");		// 2-digit hour with leading zero 00-23
-		dateformat = dateformat.replaceAll("%tk","\\\\d{1,2}");		// 1 or 2-digit hour 0-23
-		dateformat = dateformat.replaceAll("%tI","\\\\d{2}");		// 2-digit hour with leading zero 01-12
-		dateformat = dateformat.replaceAll("%tl","\\\\d{1,2}");		// 1 or 2 digit hour 1-12
-		dateformat = dateformat.replaceAll("%tM","\\\\d{2}");		// 2-digit minutes
-		dateformat = dateformat.replaceAll("%tS","\\\\d{2}");		// 2-digit seconds
-		dateformat = dateformat.replaceAll("%tL","\\\\d{3}");	// 3-digit milliseconds
-		dateformat = dateformat.replaceAll("%tZ","\\\\S+");		// TimeZoneName
-		dateformat = dateformat.replaceAll("%tz","\\\\S+");		// TimeZone Offset
-		dateformat = dateformat.replaceAll("%tp", "\\\\S+");     // am/pm indicator
-		System.out.println("dateformat" + dateformat);
-		return "(" + dateformat + ")";
+	private String dateformat2regex(String format) throws InvalidConfigurationException {
+		return DateFormatCodec.forFormat(format).getRegex();
 	}
 	/**
 	 * Disconnect from the device
@@ -184,6 +370,8 @@ public class Commander {
 	public void disconnect() throws IOException {
 		if (connected) {
 			logger.debug("Disconnecting from {}", name);
+			poller.stop();
+			stopIOLoop();
 			interfaceConnection.disconnect();
 			connected = false;
 		}
@@ -200,100 +388,14 @@ public class Commander {
 	 * @throws InvalidCommandException
 	 * @throws InvalidConfigurationException
 	 */
-	private Object formatOutputObject(Command cmd, String response) throws InvalidParameterException, InvalidCommandException, InvalidConfigurationException{
+	Object formatOutputObject(Command cmd, String response) throws InvalidParameterException, InvalidCommandException, InvalidConfigurationException{
 		logger.debug("Parsing output");
-		ArrayList<Object> outArray = new ArrayList<Object>();
-		ArrayList<ArrayList<Object>> multiArray = new ArrayList<ArrayList<Object>>();
-		
-		ArrayList<String> rList = cmd.getResponseList();
-		
-		String happyformat = getHappyRegex(cmd);
-		String sadformat = getSadRegex(cmd);
-//		System.out.println("happy : " + happyformat);
-//		System.out.println("sad : " + sadformat);
-		Pattern pat;
-		Matcher mat;
-		int numItem;
-		int caseNum;
-		// different cases 0:both format configured	1:happyformat only	2:sadformat only
-		if (happyformat!=null && sadformat!=null) {
-			caseNum = 0;
-		} else if (happyformat!=null) {
-			caseNum = 1;
-		} else if (sadformat!=null) {
-			caseNum = 2;
-		} else {
+		ResponseMatcher matcher = cmd.getResponseMatcher();
+		if (matcher == null) {
 			throw new InvalidConfigurationException(String.format("Command \"%s\" does not have any response configured", cmd.getName()));
 		}
-
-		if (caseNum == 0 || caseNum ==1) {
-			pat = Pattern.compile(happyformat,Pattern.DOTALL);
-			mat = pat.matcher(response);
-			numItem = mat.groupCount();
-			while (mat.find()) {
-//				System.out.println(mat.group(0));
-				outArray = new ArrayList<Object>();
-				for (int ii = 0; ii<numItem; ii++) {
-					String s = mat.group(ii+1);
-//					System.out.println(s);
-					// convert the string into object, and add to Array
-					if (caseNum == 0 || caseNum ==1) {
-						ParameterDefinition pDef = getParamDef(rList.get(ii));
-						Object out = pDef.getParameterFromString(s).getValue();
-						outArray.add(out);
-					} else {
-						outArray.add(s);
-					}
-				}
-				multiArray.add(outArray);
-			}
-			if (multiArray.size() < 1 && sadformat != null){
-				pat = Pattern.compile(sadformat,Pattern.DOTALL);
-				mat = pat.matcher(response);
-				numItem = mat.groupCount();
-				while (mat.find()) {
-//					System.out.println(mat.group(0));
-					outArray = new ArrayList<Object>();
-					outArray.add(errorNotifier);
-					// going through the match
-					for (int ii = 0; ii<numItem; ii++) {
-						String s = mat.group(ii+1);
-						// convert the string into object, and add to Array
-						if (caseNum == 0 || caseNum ==1) {
-							ParameterDefinition pDef = getParamDef(rList.get(ii));
-							Object out = pDef.getParameterFromString(s).getValue();
-							outArray.add(out);
-						} else {
-							outArray.add(s);
-						}
-					}
-					multiArray.add(outArray);
-				}
-			}
-			
-		} else {
-			pat = Pattern.compile(sadformat,Pattern.DOTALL);
-			mat = pat.matcher(response);
-			numItem = mat.groupCount();
-			while (mat.find()) {
-//				System.out.println(mat.group(0));
-				outArray = new ArrayList<Object>();
-				outArray.add(errorNotifier);
-				// going through the match
-				for (int ii = 0; ii<numItem; ii++) {
-					String s = mat.group(ii+1);
-					// convert the string into object, and add to Array
-					if (caseNum == 0 || caseNum ==1) {
-						ParameterDefinition pDef = getParamDef(rList.get(ii));
-						Object out = pDef.getParameterFromString(s).getValue();
-						outArray.add(out);
-					} else {
-						outArray.add(s);
-					}
-				}
-				multiArray.add(outArray);
-			}
-		}
+		ArrayList<ArrayList<Object>> multiArray = matcher.match(response);
+		
 		if (multiArray.size()==0) {
 			throw new InvalidConfigurationException("Was not able to parse output for " + cmd.getName() + ".");
 		}if (multiArray.size()==1) {
@@ -314,6 +416,75 @@ public class Commander {
 	public CommandInterface getCommandInterface() {
 		return interfaceConnection;
 	}
+	/**
+	 * Returns CommandScheduler of the Commander, holding queue lengths and wait times per priority class
+	 * @return CommandScheduler of the Commander
+	 */
+	public CommandScheduler getScheduler() {
+		return scheduler;
+	}
+	/**
+	 * Returns TelemetryPoller of the Commander, holding the latest values of polled commands
+	 * @return TelemetryPoller of the Commander
+	 */
+	public TelemetryPoller getTelemetryPoller() {
+		return poller;
+	}
+	/**
+	 * Returns ResponseCache of the Commander, holding responses of queries declaring cacheTtlMs
+	 * @return ResponseCache of the Commander
+	 */
+	public ResponseCache getResponseCache() {
+		return responseCache;
+	}
+	/**
+	 * Returns number of submit calls of idempotent commands that got the result of an identical request already in flight
+	 * @return number of joined calls
+	 */
+	public long getJoinedCount() {
+		return joinedCount.get();
+	}
+	/**
+	 * Returns number of writes of a coalesced command replaced by a newer one before being sent
+	 * @param Name of the command
+	 * @return number of dropped writes, 0 if the command is not coalesced
+	 */
+	public long getCoalescedCount(String commandKey) {
+		Command cmd = commandMap.get(commandKey);
+		AtomicLong count = (cmd == null) ? null : coalescedCounts.get(cmd);
+		return (count == null) ? 0 : count.get();
+	}
+	/**
+	 * Returns number of writes of every coalesced command replaced by a newer one before being sent
+	 * @return number of dropped writes
+	 */
+	public long getCoalescedCount() {
+		long total = 0;
+		for (AtomicLong count : coalescedCounts.values()) {
+			total += count.get();
+		}
+		return total;
+	}
+	/**
+	 * Returns latency histograms and error counters of a command
+	 * @param Name(key) of the command
+	 * @return metrics of the command
+	 * @throws InvalidCommandException
+	 */
+	public CommandMetrics getMetrics(String commandKey) throws InvalidCommandException {
+		return getCommandObject(commandKey).getMetrics();
+	}
+	/**
+	 * Returns latency histograms and error counters of every command, sorted by name
+	 * @return metrics of the commands
+	 */
+	public ArrayList<CommandMetrics> getMetrics() {
+		TreeMap<String, CommandMetrics> sorted = new TreeMap<String, CommandMetrics>();
+		for (Entry<String, Command> entry : commandMap.entrySet()) {
+			sorted.put(entry.getKey(), entry.getValue().getMetrics());
+		}
+		return new ArrayList<CommandMetrics>(sorted.values());
+	}
 	/**
 	 * Returns HashMap of Commands with their name as the key
 	 * @return HashMap of Commands
@@ -342,8 +513,9 @@ public class Commander {
 	 * @return Regular expression of successful response.
 	 * @throws InvalidCommandException
 	 * @throws InvalidParameterException
+	 * @throws InvalidConfigurationException
 	 */
-	private String getHappyRegex(Command cmd) throws InvalidCommandException, InvalidParameterException{
+	private String getHappyRegex(Command cmd) throws InvalidCommandException, InvalidParameterException, InvalidConfigurationException{
 		if(cmd.getHappyRegex()== null || cmd.getHappyRegex().equals("")) {
 			String happy = cmd.getResponseFormat();
 			ArrayList<String> rlist = cmd.getResponseList();
@@ -488,6 +660,17 @@ public class Commander {
 		}
 			
 		Command cmd = getCommandObject(commandKey);
+		return submit(commandKey, toParameters(cmd, parameters));
+	}
+	/**
+	 * Converts Object arguments into Parameters using parameter list of the Command.
+	 * @param Command the arguments are for
+	 * @param Array of Object arguments that is required for Command
+	 * @return Array of Parameters
+	 * @throws InvalidParameterException
+	 * @throws InvalidConfigurationException
+	 */
+	private Parameter[] toParameters(Command cmd, Object[] parameters) throws InvalidParameterException, InvalidConfigurationException {
 		Parameter[] paramObjects = new Parameter[0];
 		ArrayList<String> pkeylist = cmd.getParamKeyList();
 		
@@ -507,8 +690,7 @@ public class Commander {
 				paramObjects[ii] = pdef.getParameterFromObject(o);				
 			}		
 		}
-		
-		return submit(commandKey,paramObjects);
+		return paramObjects;
 	}
 	
 	/**
@@ -526,24 +708,142 @@ public class Commander {
 	 * @throws InvalidConfigurationException
 	 */
 	private Object submit(String commandKey, Parameter[] parameters) throws InvalidCommandException, InvalidParameterException, IOException, InvalidConfigurationException{
-		Object response;
-		logger.debug("Submitting command {}", commandKey);
 		Command cmd = getCommandObject(commandKey);
-					
-		if (cmd.isRequest()|| getSadRegex(cmd)!= null) {
-			response = interfaceConnection.sendRequest(cmd.getCommand(), parameters);
-			if (response instanceof String) {
-				//logger.debug("Response to " + cmdString + "\n" + response.toString());
-				//. TODO: use formatOutputObject regardless of return type.  parse into multiple objects if necessary
-				return formatOutputObject(cmd, response.toString());
-			} else {
-				ArrayList<Object> ret = new ArrayList<Object>();
-				ret.add(response);
-				return ret;
+		Object cached = responseCache.get(cmd, parameters);
+		if (cached != null) {
+			logger.debug("Cached response to {}", cmd.getName());
+			return cached;
+		}
+		if (cmd.isCoalesced()) {
+			return join(submitCoalesced(cmd, parameters));
+		}
+		if (!cmd.isIdempotent()) {
+			return submit(cmd, parameters, scheduler.enqueue(cmd.getPriority()));
+		}
+		String key = cmd.getCommandTemplate().renderString(parameters);
+		//. this thread is the first caller of its own call, and never gives up on it
+		AsyncCall own = new AsyncCall(cmd, parameters);
+		while (true) {
+			AsyncCall pending = inFlight.get(key);
+			if (pending != null) {
+				CompletableFuture<Object> joined = pending.join();
+				if (joined != null) {
+					logger.debug("Joining {} already in flight", cmd.getName());
+					joinedCount.incrementAndGet();
+					return join(joined);
+				}
+			}
+			if ((pending == null) ? inFlight.putIfAbsent(key, own) == null : inFlight.replace(key, pending, own)) {
+				break;
 			}
+		}
+		try {
+			Object result = submit(cmd, parameters, scheduler.enqueue(cmd.getPriority()));
+			own.future.complete(result);
+			return result;
+		} catch (InvalidCommandException | InvalidParameterException | IOException | InvalidConfigurationException | RuntimeException | Error e) {
+			own.future.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, own);
+		}
+	}
+	/**
+	 * Waits for the result of an identical request sent by another caller, and throws what its submit threw.
+	 * When interrupted, the future is cancelled, so the request is dropped if no other caller waits for it.
+	 * @param Pending result of the request
+	 * @return parsed response
+	 * @throws InvalidCommandException
+	 * @throws InvalidParameterException
+	 * @throws IOException
+	 * @throws InvalidConfigurationException
+	 */
+	private static Object join(CompletableFuture<Object> pending) throws InvalidCommandException, InvalidParameterException, IOException, InvalidConfigurationException {
+		try {
+			return pending.get();
+		} catch (InterruptedException e) {
+			pending.cancel(false);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a request in flight");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof InvalidCommandException) { throw (InvalidCommandException) cause; }
+			if (cause instanceof InvalidParameterException) { throw (InvalidParameterException) cause; }
+			if (cause instanceof IOException) { throw (IOException) cause; }
+			if (cause instanceof InvalidConfigurationException) { throw (InvalidConfigurationException) cause; }
+			if (cause instanceof RuntimeException) { throw (RuntimeException) cause; }
+			if (cause instanceof Error) { throw (Error) cause; }
+			throw new IOException(cause);
+		} catch (CancellationException e) {
+			throw new IOException("Request in flight was cancelled", e);
+		}
+	}
+	/**
+	 * Waits for the turn of the ticket, then sends the Command and parses its response.
+	 * @param Command that will be submitted
+	 * @param Array of Parameter arguments that is required for Command
+	 * @param Ticket taken from the scheduler for this Command
+	 * @return Object, ArrayList of Object, or ArrayList of ArrayList of Object(for multiple line response)
+	 * @throws InvalidCommandException
+	 * @throws InvalidParameterException
+	 * @throws IOException
+	 * @throws InvalidConfigurationException
+	 */
+	private Object submit(Command cmd, Parameter[] parameters, CommandScheduler.Ticket ticket) throws InvalidCommandException, InvalidParameterException, IOException, InvalidConfigurationException{
+		CommandMetrics metrics = cmd.getMetrics();
+		Object response;
+		logger.debug("Submitting command {}", cmd.getName());
+		try {
+			scheduler.acquire(ticket);
+			long sent = System.nanoTime();
+			metrics.getQueueWait().record(sent - ticket.getQueuedAt());
+			long stamp = responseCache.stamp();
+			try {
+				if (cmd.getResponseMatcher() != null) {
+					response = interfaceConnection.sendRequest(cmd, parameters);
+				} else {
+					interfaceConnection.sendCommand(cmd, parameters);
+					response = null;
+				}
+				metrics.getRoundTrip().record(System.nanoTime() - sent);
+			} finally {
+				scheduler.release();
+				//. the device may have taken the setting even if its reply failed
+				responseCache.invalidate(cmd, parameters);
+			}
+			if (cmd.getResponseMatcher() == null) {
+				return null;
+			}
+			long received = System.nanoTime();
+			Object result = parseResponse(cmd, response);
+			metrics.getParse().record(System.nanoTime() - received);
+			responseCache.put(cmd, parameters, result, stamp);
+			return result;
+		} catch (InvalidCommandException | InvalidParameterException | IOException | InvalidConfigurationException | RuntimeException e) {
+			metrics.countError(e);
+			throw e;
+		} finally {
+			metrics.getTotal().record(System.nanoTime() - ticket.getQueuedAt());
+		}
+	}
+	/**
+	 * Parses response of a Command returned by the CommandInterface
+	 * @param Command the response is for
+	 * @param Response returned by the CommandInterface
+	 * @return Object, ArrayList of Object, or ArrayList of ArrayList of Object(for multiple line response)
+	 * @throws InvalidParameterException
+	 * @throws InvalidCommandException
+	 * @throws InvalidConfigurationException
+	 */
+	private Object parseResponse(Command cmd, Object response) throws InvalidParameterException, InvalidCommandException, InvalidConfigurationException {
+		if (response instanceof String) {
+			//logger.debug("Response to " + cmdString + "\n" + response.toString());
+			//. TODO: use formatOutputObject regardless of return type.  parse into multiple objects if necessary
+			return formatOutputObject(cmd, response.toString());
 		} else {
-			interfaceConnection.sendCommand(cmd.getCommand(), parameters);
-			return null;
+			ArrayList<Object> ret = new ArrayList<Object>();
+			ret.add(response);
+			return ret;
 		}
 	}
 	/**
@@ -586,6 +886,17 @@ public class Commander {
 		}
 			
 		Command cmd = getCommandObject(commandKey);
+		return submit(commandKey, toParameters(cmd, parameters));
+	}
+	/**
+	 * Converts String arguments into Parameters using parameter list of the Command.
+	 * @param Command the arguments are for
+	 * @param Array of String arguments that is required for Command
+	 * @return Array of Parameters
+	 * @throws InvalidParameterException
+	 * @throws InvalidConfigurationException
+	 */
+	Parameter[] toParameters(Command cmd, String[] parameters) throws InvalidParameterException, InvalidConfigurationException {
 		Parameter[] paramObjects = new Parameter[0];
 		ArrayList<String> pkeylist = cmd.getParamKeyList();
 		
@@ -605,8 +916,633 @@ public class Commander {
 				paramObjects[ii] = pdef.getParameterFromString(s);				
 			}		
 		}
-		
-		return submit(commandKey,paramObjects);
+		return paramObjects;
+	}
+	/**
+	 * Submits several commands, packing consecutive ones into as few writes as "batchSize" (characters) allows.
+	 * Commands are rendered and joined with "batchSeparator" (";" by default), and each write takes a single turn
+	 * of the scheduler, at the most urgent priority of its commands.
+	 * Replies framed by a response terminator are read one per command, acknowledges included, as Galil controllers reply.
+	 * Commands without response are thus only packed for a device configured as "acknowledged", and submitted alone otherwise.
+	 * A combined reply without framing, like a UDP datagram, is split in order using the response format of each command.
+	 * Long-running commands and commands containing the separator are submitted alone, 
+	 * as is every command on connections other than tcp, tcpchannel, tcppool and udp.
+	 * Every call is converted before anything is sent, so invalid arguments fail the batch as a whole.
+	 * @param Calls to submit, in order
+	 * @return responses in the order of the calls, null for commands without response
+	 * @throws InvalidParameterException
+	 * @throws InvalidCommandException
+	 * @throws IOException
+	 * @throws InvalidConfigurationException
+	 */
+	public ArrayList<Object> submitBatch(List<CommandCall> calls) throws InvalidParameterException, InvalidCommandException, IOException, InvalidConfigurationException {
+		if (!connected) {
+			throw new IOException("Not connected to " + name +".");
+		}
+		String type = connectionProperties.get("type");
+		boolean packable = type.equalsIgnoreCase("tcp") || type.equalsIgnoreCase("tcpchannel") || type.equalsIgnoreCase("tcppool") || type.equalsIgnoreCase("udp");
+		String separator = (connectionProperties.get("batchSeparator") == null) ? DEFAULT_BATCH_SEPARATOR : connectionProperties.get("batchSeparator");
+		int limit = (connectionProperties.get("batchSize") == null) ? DEFAULT_BATCH_SIZE : Integer.parseInt(connectionProperties.get("batchSize"));
+		String terminator = connectionProperties.get("responseTerminator");
+		//. one reply is read per packed command, which commands without response only get from an acknowledging device
+		boolean unanswered = terminator != null && !terminator.equals("") && !Boolean.parseBoolean(connectionProperties.get("acknowledged"));
+
+		ArrayList<Command> commands = new ArrayList<Command>(calls.size());
+		ArrayList<Parameter[]> arguments = new ArrayList<Parameter[]>(calls.size());
+		ArrayList<String> texts = new ArrayList<String>(calls.size());
+		for (CommandCall call : calls) {
+			Command cmd = getCommandObject(call.getCommandKey());
+			Parameter[] parameters = call.hasStringParameters() ? toParameters(cmd, (String[]) call.getParameters()) : toParameters(cmd, call.getParameters());
+			commands.add(cmd);
+			arguments.add(parameters);
+			texts.add(cmd.getCommandTemplate().renderString(parameters));
+		}
+
+		ArrayList<Object> results = new ArrayList<Object>(calls.size());
+		int start = 0;
+		int length = 0;
+		for (int ii = 0; ii<commands.size(); ii++) {
+			String text = texts.get(ii);
+			if (!packable || commands.get(ii).isLongRunning() || text.contains(separator) || text.length() > limit
+					|| (unanswered && commands.get(ii).getResponseMatcher() == null)) {
+				submitPacked(commands, arguments, texts, start, ii, separator, results);
+				results.add(submit(commands.get(ii), arguments.get(ii), scheduler.enqueue(commands.get(ii).getPriority())));
+				start = ii + 1;
+				length = 0;
+				continue;
+			}
+			if (ii > start && length + separator.length() + text.length() > limit) {
+				submitPacked(commands, arguments, texts, start, ii, separator, results);
+				start = ii;
+				length = 0;
+			}
+			length += (ii > start) ? separator.length() + text.length() : text.length();
+		}
+		submitPacked(commands, arguments, texts, start, commands.size(), separator, results);
+		return results;
+	}
+	/**
+	 * Sends commands of a batch from start (inclusive) to end (exclusive) in a single write, and adds their parsed responses to results.
+	 * @param Commands of the batch
+	 * @param Parameters of the commands
+	 * @param Rendered commands
+	 * @param Index of the first command to send
+	 * @param Index after the last command to send
+	 * @param Separator of the commands
+	 * @param List the responses are added to
+	 * @throws InvalidParameterException
+	 * @throws InvalidCommandException
+	 * @throws IOException
+	 * @throws InvalidConfigurationException
+	 */
+	private void submitPacked(ArrayList<Command> commands, ArrayList<Parameter[]> arguments, ArrayList<String> texts, int start, int end, String separator, ArrayList<Object> results) throws InvalidParameterException, InvalidCommandException, IOException, InvalidConfigurationException {
+		if (end - start < 1) {
+			return;
+		}
+		if (end - start == 1) {
+			results.add(submit(commands.get(start), arguments.get(start), scheduler.enqueue(commands.get(start).getPriority())));
+			return;
+		}
+		StringBuilder packed = new StringBuilder();
+		CommandPriority priority = CommandPriority.LOW;
+		for (int ii = start; ii<end; ii++) {
+			if (ii > start) {
+				packed.append(separator);
+			}
+			packed.append(texts.get(ii));
+			if (commands.get(ii).getPriority().ordinal() < priority.ordinal()) {
+				priority = commands.get(ii).getPriority();
+			}
+		}
+		logger.debug("Submitting batch of {} commands", end - start);
+		Object response;
+		CommandScheduler.Ticket ticket = scheduler.enqueue(priority);
+		scheduler.acquire(ticket);
+		try {
+			response = interfaceConnection.sendBatch(packed.toString(), end - start);
+		} finally {
+			scheduler.release();
+			for (int ii = start; ii<end; ii++) {
+				responseCache.invalidate(commands.get(ii), arguments.get(ii));
+			}
+		}
+		if (response instanceof List) {
+			List<?> replies = (List<?>) response;
+			for (int ii = start; ii<end; ii++) {
+				Command cmd = commands.get(ii);
+				results.add((cmd.getResponseMatcher() == null) ? null : parseResponse(cmd, replies.get(ii - start)));
+			}
+		} else {
+			splitResponse(String.valueOf(response), commands.subList(start, end), results);
+		}
+	}
+	/**
+	 * Splits a combined reply to packed commands, matching the response format of each command in order.
+	 * Commands without response are expected to add nothing to the reply.
+	 * @param Combined reply
+	 * @param Commands packed, in order
+	 * @param List the responses are added to
+	 * @throws InvalidParameterException
+	 * @throws InvalidCommandException
+	 * @throws InvalidConfigurationException
+	 */
+	private void splitResponse(String response, List<Command> commands, ArrayList<Object> results) throws InvalidParameterException, InvalidCommandException, InvalidConfigurationException {
+		int position = 0;
+		for (Command cmd : commands) {
+			ResponseMatcher matcher = cmd.getResponseMatcher();
+			if (matcher == null) {
+				results.add(null);
+				continue;
+			}
+			int end = matcher.findEnd(response, position);
+			if (end < 0) {
+				throw new InvalidConfigurationException("Was not able to parse output for " + cmd.getName() + " in batch.");
+			}
+			results.add(formatOutputObject(cmd, response.substring(position, end)));
+			position = end;
+		}
+	}
+	/**
+	 * Asynchronous version of submit with Object arguments. The response is parsed the same way submit does.
+	 * tcpchannel connections with a response terminator are read by a selector loop shared by the process (or the registry):
+	 * the call is sent as soon as the scheduler gives its turn, without holding any thread while waiting for the device.
+	 * Other connections are blocking, and queue the call to the executor of this Commander as a fallback.
+	 * The future completes exceptionally with the exception submit would have thrown, 
+	 * or with TimeoutException if asyncTimeout is configured and passed.
+	 * Cancelling the future before the call is sent drops the call. Once sent, cancelling does not stop it:
+	 * the command still reaches the device and its turn on the connection is used up until the reply arrives or times out,
+	 * only the response is dropped. A call shared by several callers is dropped only once every one of them cancelled.
+	 * @param Name of the command that will be submitted
+	 * @param Object arguments that is required for Command
+	 * @return future of Object, ArrayList of Object, or ArrayList of ArrayList of Object(for multiple line response)
+	 */
+	public CompletableFuture<Object> submitAsync(String commandKey, Object... parameters) {
+		try {
+			Command cmd = getCommandObject(commandKey);
+			Parameter[] arguments = toParameters(cmd, parameters);
+			Object cached = responseCache.get(cmd, arguments);
+			if (cached != null) {
+				return CompletableFuture.completedFuture(cached);
+			}
+			return submitShared(cmd, arguments);
+		} catch (InvalidCommandException | InvalidParameterException | InvalidConfigurationException e) {
+			return failedFuture(e);
+		}
+	}
+	/**
+	 * Asynchronous version of submit with String arguments. See submitAsync with Object arguments.
+	 * @param Name of the command that will be submitted
+	 * @param String arguments that is required for Command
+	 * @return future of Object, ArrayList of Object, or ArrayList of ArrayList of Object(for multiple line response)
+	 */
+	public CompletableFuture<Object> submitAsync(String commandKey, String... parameters) {
+		try {
+			Command cmd = getCommandObject(commandKey);
+			Parameter[] arguments = toParameters(cmd, parameters);
+			Object cached = responseCache.get(cmd, arguments);
+			if (cached != null) {
+				return CompletableFuture.completedFuture(cached);
+			}
+			return submitShared(cmd, arguments);
+		} catch (InvalidCommandException | InvalidParameterException | InvalidConfigurationException e) {
+			return failedFuture(e);
+		}
+	}
+	
+	/**
+	 * Asynchronous submit of a Command with arguments already converted, used by TelemetryPoller.
+	 * Always goes to the device, the response refreshing the cache.
+	 * @param Command that will be submitted
+	 * @param Array of Parameter arguments that is required for Command
+	 * @return future of Object, ArrayList of Object, or ArrayList of ArrayList of Object(for multiple line response)
+	 */
+	CompletableFuture<Object> submitAsync(Command cmd, Parameter[] parameters) {
+		return submitShared(cmd, parameters);
+	}
+	/**
+	 * Submits an asynchronous call, unless the command is idempotent and an identical request is already in flight,
+	 * in which case the caller gets a future of its own, completed with a copy of the result.
+	 * Cancelling one of the futures drops the call only if no other caller waits for it.
+	 * @param Command that will be submitted
+	 * @param Array of Parameter arguments that is required for Command
+	 * @return future of Object, ArrayList of Object, or ArrayList of ArrayList of Object(for multiple line response)
+	 */
+	private CompletableFuture<Object> submitShared(Command cmd, Parameter[] parameters) {
+		if (cmd.isCoalesced()) {
+			return submitCoalesced(cmd, parameters);
+		}
+		if (!cmd.isIdempotent()) {
+			return submitAsync(new AsyncCall(cmd, parameters));
+		}
+		final String key = cmd.getCommandTemplate().renderString(parameters);
+		while (true) {
+			AsyncCall pending = inFlight.get(key);
+			if (pending != null) {
+				CompletableFuture<Object> joined = pending.join();
+				if (joined != null) {
+					logger.debug("Joining {} already in flight", cmd.getName());
+					joinedCount.incrementAndGet();
+					return withTimeout(cmd, joined);
+				}
+			}
+			final AsyncCall call = new AsyncCall(cmd, parameters);
+			if ((pending == null) ? inFlight.putIfAbsent(key, call) == null : inFlight.replace(key, pending, call)) {
+				call.future.whenComplete(new BiConsumer<Object, Throwable>() {
+					@Override
+					public void accept(Object result, Throwable error) {
+						inFlight.remove(key, call);
+					}
+				});
+				return submitAsync(call);
+			}
+		}
+	}
+	
+	/**
+	 * Submits a write of a coalesced command. If a write of the same command to the same target is still queued,
+	 * its arguments are replaced by these ones, and both callers get the result of the single write sent, 
+	 * each with a future of its own. The queued write is dropped only once every one of its callers cancelled.
+	 * Sync submit calls of coalesced commands go through here as well, and wait for the result.
+	 * @param Coalesced command
+	 * @param Array of Parameter arguments that is required for Command
+	 * @return future of the response
+	 */
+	private CompletableFuture<Object> submitCoalesced(Command cmd, Parameter[] parameters) {
+		final String key = coalesceKey(cmd, parameters);
+		while (true) {
+			AsyncCall pending = pendingWrites.get(key);
+			if (pending != null) {
+				CompletableFuture<Object> merged = pending.supersede(parameters);
+				if (merged != null) {
+					logger.debug("Coalescing write of {} into the queued one", cmd.getName());
+					coalescedCounts.get(cmd).incrementAndGet();
+					return withTimeout(cmd, merged);
+				}
+			}
+			final AsyncCall call = new AsyncCall(cmd, parameters);
+			call.coalesceKey = key;
+			boolean queued = (pending == null) ? pendingWrites.putIfAbsent(key, call) == null : pendingWrites.replace(key, pending, call);
+			if (queued) {
+				call.future.whenComplete(new BiConsumer<Object, Throwable>() {
+					@Override
+					public void accept(Object result, Throwable error) {
+						//. dropped while queued
+						pendingWrites.remove(key, call);
+					}
+				});
+				return submitAsync(call);
+			}
+		}
+	}
+	/**
+	 * Returns key of a coalesced write: command structure and values of its key parameters
+	 * @param Coalesced command
+	 * @param Array of Parameter arguments of the write
+	 * @return key of the write
+	 */
+	private static String coalesceKey(Command cmd, Parameter[] parameters) {
+		StringBuilder key = new StringBuilder(cmd.getCommand());
+		ArrayList<String> params = cmd.getParamKeyList();
+		for (String k : cmd.getCoalesceKeys()) {
+			key.append('\u0000').append(parameters[params.indexOf(k)].getString());
+		}
+		return key.toString();
+	}
+	
+	private static CompletableFuture<Object> failedFuture(Exception e) {
+		CompletableFuture<Object> future = new CompletableFuture<Object>();
+		future.completeExceptionally(e);
+		return future;
+	}
+	
+	/**
+	 * Queues a new call, and returns the future of its first caller
+	 * @param Call not submitted yet
+	 * @return future of the first caller
+	 */
+	private CompletableFuture<Object> submitAsync(final AsyncCall call) {
+		CompletableFuture<Object> caller = withTimeout(call.command, call.follow(false));
+		if (!connected || parser == null) {
+			call.future.completeExceptionally(new IOException("Not connected to " + name +"."));
+			return caller;
+		}
+		try {
+			//. the place in the priority queue is taken now, so wait time includes time spent waiting for a thread
+			call.ticket = scheduler.enqueue(call.command.getPriority());
+		} catch (IOException e) {
+			call.future.completeExceptionally(e);
+			return caller;
+		}
+		if (interfaceConnection instanceof AsyncCommandInterface && ((AsyncCommandInterface) interfaceConnection).isAsync()) {
+			sendAsync(call, (AsyncCommandInterface) interfaceConnection);
+		} else {
+			call.sequence = asyncSequence.getAndIncrement();
+			asyncQueue.add(call);
+			drain();
+		}
+		return caller;
+	}
+	/**
+	 * Fails the future of a caller with TimeoutException once asyncTimeout is passed, if configured.
+	 * The caller stops waiting, the call itself goes on for the other callers.
+	 * @param Command of the call
+	 * @param Future of the caller
+	 * @return the future passed in
+	 */
+	private CompletableFuture<Object> withTimeout(final Command cmd, final CompletableFuture<Object> caller) {
+		if (asyncTimeout > 0 && !caller.isDone()) {
+			final ScheduledFuture<?> timer = AsyncTimer.TIMER.schedule(new Runnable() {
+				@Override
+				public void run() {
+					TimeoutException e = new TimeoutException(String.format("%s did not complete %s in %d milliseconds", name, cmd.getName(), asyncTimeout));
+					if (caller.completeExceptionally(e)) {
+						cmd.getMetrics().countError(e);
+					}
+				}
+			}, asyncTimeout, TimeUnit.MILLISECONDS);
+			caller.whenComplete(new BiConsumer<Object, Throwable>() {
+				@Override
+				public void accept(Object result, Throwable error) {
+					timer.cancel(false);
+				}
+			});
+		}
+		return caller;
+	}
+	/**
+	 * Sends the call once the scheduler grants its turn, and parses the response on the parser threads.
+	 * @param Call to be sent
+	 * @param Connection in asynchronous mode
+	 */
+	private void sendAsync(final AsyncCall call, final AsyncCommandInterface aci) {
+		final Executor parser = this.parser;
+		scheduler.acquireAsync(call.ticket).thenAccept(new Consumer<Void>() {
+			@Override
+			public void accept(Void granted) {
+				if (call.future.isDone()) {
+					//. cancelled or timed out while queued, don't send it
+					scheduler.release();
+					return;
+				}
+				logger.debug("Submitting command {}", call.command.getName());
+				final CommandMetrics metrics = call.command.getMetrics();
+				final long sentAt = System.nanoTime();
+				metrics.getQueueWait().record(sentAt - call.ticket.getQueuedAt());
+				final long stamp = responseCache.stamp();
+				final Parameter[] arguments = call.start();
+				CompletableFuture<Object> sent = (call.command.getResponseMatcher() != null) ? aci.sendRequestAsync(call.command, arguments)
+						: aci.sendCommandAsync(call.command, arguments);
+				sent.whenComplete(new BiConsumer<Object, Throwable>() {
+					@Override
+					public void accept(final Object response, Throwable error) {
+						scheduler.release();
+						responseCache.invalidate(call.command, arguments);
+						if (error != null) {
+							fail(call, error);
+						} else {
+							metrics.getRoundTrip().record(System.nanoTime() - sentAt);
+						}
+						if (error != null || response == null) {
+							if (error == null) {
+								call.future.complete(null);
+							}
+							metrics.getTotal().record(System.nanoTime() - call.ticket.getQueuedAt());
+							return;
+						}
+						//. responses complete on the I/O thread, parsing is left to the parser threads
+						try {
+							parser.execute(new Runnable() {
+								@Override
+								public void run() {
+									try {
+										long received = System.nanoTime();
+										Object result = parseResponse(call.command, response);
+										metrics.getParse().record(System.nanoTime() - received);
+										responseCache.put(call.command, arguments, result, stamp);
+										call.future.complete(result);
+									} catch (Throwable e) {
+										fail(call, e);
+									}
+									metrics.getTotal().record(System.nanoTime() - call.ticket.getQueuedAt());
+								}
+							});
+						} catch (RejectedExecutionException e) {
+							fail(call, new IOException("Disconnected from " + name + "."));
+							metrics.getTotal().record(System.nanoTime() - call.ticket.getQueuedAt());
+						}
+					}
+				});
+			}
+		});
+	}
+	/**
+	 * Completes the future of an asynchronous call with an error, and counts it unless the call was already complete
+	 * @param Call failing
+	 * @param Error of the call
+	 */
+	private static void fail(AsyncCall call, Throwable error) {
+		if (call.future.completeExceptionally(error)) {
+			call.command.getMetrics().countError(error);
+		}
+	}
+	/**
+	 * Starts a task running the first call of asyncQueue, unless as many tasks as commands the connection can have in flight are running.
+	 * Each task runs a single call and hands the rest of the queue to a new task, 
+	 * so Commanders sharing the executor take turns instead of one of them holding a thread until its queue is empty.
+	 */
+	private void drain() {
+		int limit = getConcurrency();
+		while (true) {
+			int running = activeDrains.get();
+			if (running >= limit) {
+				return;
+			}
+			if (activeDrains.compareAndSet(running, running + 1)) {
+				break;
+			}
+		}
+		Executor drainer = executor;
+		try {
+			if (drainer == null) {
+				throw new RejectedExecutionException();
+			}
+			drainer.execute(new Runnable() {
+				@Override
+				public void run() {
+					AsyncCall call = asyncQueue.poll();
+					if (call != null) {
+						call.run();
+					}
+					activeDrains.decrementAndGet();
+					if (!asyncQueue.isEmpty()) {
+						drain();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			activeDrains.decrementAndGet();
+			AsyncCall call;
+			while ((call = asyncQueue.poll()) != null) {
+				scheduler.cancel(call.ticket);
+				call.future.completeExceptionally(new IOException("Disconnected from " + name + "."));
+			}
+		}
+	}
+	/**
+	 * Submit call with its converted arguments and the future of its result.
+	 * Callers sharing the call each get a future of their own, and the call is dropped once every one of them gave up.
+	 * Queued calls run by priority class of their Command, then in submission order.
+	 */
+	private class AsyncCall implements Comparable<AsyncCall> {
+		final Command command;
+		/** Result of the call, completed once for every caller */
+		final CompletableFuture<Object> future = new CompletableFuture<Object>();
+		/** Callers still waiting for the result, starting with the one creating the call */
+		private int waiters = 1;
+		CommandScheduler.Ticket ticket;
+		long sequence;
+		/** Arguments, replaced by newer ones until the call is sent if the command is coalesced */
+		private Parameter[] parameters;
+		private boolean started = false;
+		/** Key in pendingWrites, null if the command is not coalesced */
+		String coalesceKey;
+		AsyncCall(Command command, Parameter[] parameters) {
+			this.command = command;
+			this.parameters = parameters;
+		}
+		/**
+		 * Adds a caller sharing the result of the call
+		 * @return future of the caller, completed with a copy of the result, or null if the call is already complete
+		 */
+		synchronized CompletableFuture<Object> join() {
+			if (future.isDone()) {
+				return null;
+			}
+			waiters++;
+			return follow(true);
+		}
+		/**
+		 * Returns the future of a caller already counted in waiters.
+		 * Completing it before the call, by cancel or timeout, makes the caller stop waiting.
+		 * @param true to complete it with a copy of the result, for callers sharing the result of another one
+		 * @return future of the caller
+		 */
+		CompletableFuture<Object> follow(final boolean copy) {
+			final CompletableFuture<Object> caller = new CompletableFuture<Object>();
+			future.whenComplete(new BiConsumer<Object, Throwable>() {
+				@Override
+				public void accept(Object result, Throwable error) {
+					if (error != null) {
+						caller.completeExceptionally(error);
+					} else {
+						caller.complete(copy ? ResponseCache.copy(result) : result);
+					}
+				}
+			});
+			caller.whenComplete(new BiConsumer<Object, Throwable>() {
+				@Override
+				public void accept(Object result, Throwable error) {
+					if (!future.isDone()) {
+						leave();
+					}
+				}
+			});
+			return caller;
+		}
+		/**
+		 * Drops the call once no caller waits for it anymore
+		 */
+		private synchronized void leave() {
+			if (--waiters == 0) {
+				future.cancel(false);
+			}
+		}
+		/**
+		 * Replaces the arguments of a call not sent yet, and adds the caller of the newer write
+		 * @param Newer arguments
+		 * @return future of the caller, completed with a copy of the result, or null if the call was already sent or dropped
+		 */
+		synchronized CompletableFuture<Object> supersede(Parameter[] newer) {
+			if (started || future.isDone()) {
+				return null;
+			}
+			parameters = newer;
+			waiters++;
+			return follow(true);
+		}
+		/**
+		 * Marks the call as sent, so newer writes queue a call of their own
+		 * @return arguments to send
+		 */
+		synchronized Parameter[] start() {
+			started = true;
+			if (coalesceKey != null) {
+				pendingWrites.remove(coalesceKey, this);
+			}
+			return parameters;
+		}
+		/**
+		 * Runs the call on the current thread, blocking until the response is parsed
+		 */
+		void run() {
+			if (future.isDone()) {
+				//. cancelled or timed out while queued, don't send it
+				scheduler.cancel(ticket);
+				return;
+			}
+			try {
+				future.complete(submit(command, start(), ticket));
+			} catch (Throwable e) {
+				scheduler.cancel(ticket);
+				future.completeExceptionally(e);
+			}
+		}
+		@Override
+		public int compareTo(AsyncCall o) {
+			int c = command.getPriority().compareTo(o.command.getPriority());
+			return (c != 0) ? c : Long.compare(sequence, o.sequence);
+		}
+	}
+	/**
+	 * Selector loop and parser threads shared by every Commander not attached to a CommanderRegistry,
+	 * created when the first one connects
+	 */
+	private static class SharedIO {
+		static final ExecutorService PARSER = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new NamedDaemonThreadFactory("commander-parser"));
+		private static SelectorLoop loop;
+		/**
+		 * Returns the selector loop of the process, opening it on first use
+		 * @return SelectorLoop
+		 * @throws IOException if the selector can't be opened
+		 */
+		static synchronized SelectorLoop selectorLoop() throws IOException {
+			if (loop == null) {
+				loop = new SelectorLoop("commander-selector");
+			}
+			return loop;
+		}
+	}
+	/**
+	 * Timer shared by every Commander, created on first asynchronous call with timeout
+	 */
+	private static class AsyncTimer {
+		static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(new NamedDaemonThreadFactory("commander-async-timer"));
+	}
+	/**
+	 * Creates daemon threads, so an open Commander does not keep the application alive
+	 */
+	private static class NamedDaemonThreadFactory implements ThreadFactory {
+		private final String prefix;
+		private int count = 0;
+		NamedDaemonThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+		@Override
+		public synchronized Thread newThread(Runnable r) {
+			Thread t = new Thread(r, prefix + "-" + (count++));
+			t.setDaemon(true);
+			return t;
+		}
 	}
 	/**
 	 * Validates the configuration files by validating each HashMaps(connectionProperties, commandMap, paramDefMap).
@@ -616,9 +1552,79 @@ public class Commander {
 		//Commander field validate
 		logger.debug("Validating JSON config");
 		String connection = connectionProperties.get("type");
-		if (!connection.equalsIgnoreCase("ice")&&!connection.equalsIgnoreCase("tcp")&&!connection.equalsIgnoreCase("udp")&&!connection.equalsIgnoreCase("serial")) {
+		if (!connection.equalsIgnoreCase("ice")&&!connection.equalsIgnoreCase("tcp")&&!connection.equalsIgnoreCase("tcpchannel")&&!connection.equalsIgnoreCase("tcppool")&&!connection.equalsIgnoreCase("udp")&&!connection.equalsIgnoreCase("serial")) {
 			throw new InvalidConfigurationException("Invalid connection type : " + connection);
 		}
+		String capacity = connectionProperties.get("queueCapacity");
+		if (capacity != null) {
+			try {
+				if (Integer.parseInt(capacity) < 1) {
+					throw new InvalidConfigurationException("queueCapacity must be at least 1 : " + capacity);
+				}
+			} catch (NumberFormatException e) {
+				throw new InvalidConfigurationException("Invalid queueCapacity : " + capacity);
+			}
+		}
+		String sessions = connectionProperties.get("sessions");
+		if (sessions != null) {
+			try {
+				if (Integer.parseInt(sessions) < 1) {
+					throw new InvalidConfigurationException("sessions must be at least 1 : " + sessions);
+				}
+			} catch (NumberFormatException e) {
+				throw new InvalidConfigurationException("Invalid sessions : " + sessions);
+			}
+		}
+		String asyncTimeout = connectionProperties.get("asyncTimeout");
+		if (asyncTimeout != null) {
+			try {
+				if (Long.parseLong(asyncTimeout) < 0) {
+					throw new InvalidConfigurationException("asyncTimeout must not be negative : " + asyncTimeout);
+				}
+			} catch (NumberFormatException e) {
+				throw new InvalidConfigurationException("Invalid asyncTimeout : " + asyncTimeout);
+			}
+		}
+		String batchSize = connectionProperties.get("batchSize");
+		if (batchSize != null) {
+			try {
+				if (Integer.parseInt(batchSize) < 1) {
+					throw new InvalidConfigurationException("batchSize must be at least 1 : " + batchSize);
+				}
+			} catch (NumberFormatException e) {
+				throw new InvalidConfigurationException("Invalid batchSize : " + batchSize);
+			}
+		}
+		String batchSeparator = connectionProperties.get("batchSeparator");
+		if (batchSeparator != null && batchSeparator.equals("")) {
+			throw new InvalidConfigurationException("batchSeparator must not be empty");
+		}
+		String pollTick = connectionProperties.get("pollTick");
+		if (pollTick != null) {
+			try {
+				if (Long.parseLong(pollTick) < 1) {
+					throw new InvalidConfigurationException("pollTick must be at least 1 : " + pollTick);
+				}
+			} catch (NumberFormatException e) {
+				throw new InvalidConfigurationException("Invalid pollTick : " + pollTick);
+			}
+		}
+		String depth = connectionProperties.get("pipelineDepth");
+		if (depth != null) {
+			try {
+				if (Integer.parseInt(depth) < 1) {
+					throw new InvalidConfigurationException("pipelineDepth must be at least 1 : " + depth);
+				}
+			} catch (NumberFormatException e) {
+				throw new InvalidConfigurationException("Invalid pipelineDepth : " + depth);
+			}
+			String terminator = connectionProperties.get("responseTerminator");
+			boolean framed = (connection.equalsIgnoreCase("tcp") || connection.equalsIgnoreCase("tcppool")) && terminator != null && !terminator.equals("");
+			boolean iceAsync = connection.equalsIgnoreCase("ice") && Boolean.parseBoolean(connectionProperties.get("async"));
+			if (Integer.parseInt(depth) > 1 && !framed && !iceAsync) {
+				throw new InvalidConfigurationException("Pipelining requires tcp or tcppool connection with responseTerminator, or ice connection in async mode");
+			}
+		}
 		
 		//CommandMap validate
 		logger.debug("Validating commands definitions");
@@ -630,6 +1636,50 @@ public class Commander {
 		for (Entry<String, ParameterDefinition> entry : paramDefMap.entrySet()) {
 			entry.getValue().validate();
 		}
+		//Response patterns compile, once parameter definitions are known to be valid
+		logger.debug("Compiling response patterns");
+		for (Entry<String, Command> entry : commandMap.entrySet()) {
+			compileResponseMatcher(entry.getValue());
+		}
+		//Latency histograms of each command, timing rendering of its template as well
+		for (Entry<String, Command> entry : commandMap.entrySet()) {
+			entry.getValue().setMetrics(new CommandMetrics(entry.getKey()));
+		}
+		//Cached queries and the setters invalidating them
+		for (Entry<String, Command> entry : commandMap.entrySet()) {
+			ArrayList<String> invalidates = entry.getValue().getInvalidates();
+			if (invalidates != null) {
+				for (String query : invalidates) {
+					if (!commandMap.containsKey(query)) {
+						throw new InvalidConfigurationException("Invalid Configuration : unknown command \"" + query + "\" invalidated by command \"" + entry.getKey() + "\".");
+					}
+				}
+			}
+		}
+		responseCache = new ResponseCache(commandMap);
+		inFlight = new ConcurrentHashMap<String, AsyncCall>();
+		joinedCount = new AtomicLong();
+		pendingWrites = new ConcurrentHashMap<String, AsyncCall>();
+		coalescedCounts = new ConcurrentHashMap<Command, AtomicLong>();
+		for (Command cmd : commandMap.values()) {
+			if (cmd.isCoalesced()) {
+				coalescedCounts.put(cmd, new AtomicLong());
+			}
+		}
+		//Polls of status commands, once commands can be submitted
+		poller = new TelemetryPoller(this, (pollTick == null) ? 0 : Long.parseLong(pollTick));
+		for (Entry<String, Command> entry : commandMap.entrySet()) {
+			Command cmd = entry.getValue();
+			if (cmd.getPollInterval() > 0) {
+				for (ArrayList<String> arguments : cmd.getPollArguments()) {
+					try {
+						poller.addPoll(entry.getKey(), cmd.getPollInterval(), arguments.toArray(new String[arguments.size()]));
+					} catch (InvalidCommandException | InvalidParameterException e) {
+						throw new InvalidConfigurationException("Invalid poll of " + entry.getKey() + " : " + e.getMessage());
+					}
+				}
+			}
+		}
 	}
 }
  
\ No newline at end of file
@@ -35,7 +35,7 @@ public class CommanderConsole {
 			System.exit(-1);
 		}
 		
-		utillist = new ArrayList<String>(Arrays.asList("connect", "disconnect", "info", "setconfig","confirmconfig"));
+		utillist = new ArrayList<String>(Arrays.asList("connect", "disconnect", "info", "stats", "setconfig","confirmconfig"));
 		
 		pathCompeleter = new FileNameCompleter();
 		reader.addCompleter(pathCompeleter);
@@ -72,10 +72,12 @@ public class CommanderConsole {
 				// info takes Parameter names as arguemtn as well.
 				StringsCompleter utilStringComp = new StringsCompleter("connect", "disconnect");
 				ArgumentCompleter utilArgComp = new ArgumentCompleter(new StringsCompleter("info"), new AggregateCompleter(commandCompeleter, paramCompleter));
+				// stats takes command names or "reset" as argument.
+				ArgumentCompleter utilStatsComp = new ArgumentCompleter(new StringsCompleter("stats"), new AggregateCompleter(commandCompeleter, new StringsCompleter("reset")));
 				ArgumentCompleter utilPathComp = new ArgumentCompleter(new StringsCompleter("setconfig", "confirmconfig"), pathCompeleter);
 				
 				
-				reader.addCompleter(new AggregateCompleter(utilStringComp, utilArgComp, utilPathComp ,commandCompeleter));
+				reader.addCompleter(new AggregateCompleter(utilStringComp, utilArgComp, utilStatsComp, utilPathComp ,commandCompeleter));
 				System.out.printf("Commander Console for %s, press tab for list of commands.\n", cmdr.getName());
 				
 				success = true;
@@ -205,6 +207,10 @@ public class CommanderConsole {
 			}
 		}
 		
+		else if (util.toLowerCase().indexOf("stats") == 0){
+			return stats(params);
+		}
+		
 		else if (util.toLowerCase().indexOf("setconfig") == 0){
 			if(params.length==0){
 				throw new InvalidParameterException("Requires path to JSON config for device parameters.");
@@ -224,6 +230,33 @@ public class CommanderConsole {
 		}
 	}
 
+	/**
+	 * Latency histograms and error counters of the commands submitted so far, and wait times per priority class.
+	 * Takes a command name to show that command only, or "reset" to clear them.
+	 */
+	private String stats(String[] params) throws InvalidCommandException {
+		if (params.length > 0 && params[0].equalsIgnoreCase("reset")) {
+			for (CommandMetrics m : cmdr.getMetrics()) {
+				m.reset();
+			}
+			cmdr.getScheduler().resetStatistics();
+			return "Statistics cleared";
+		}
+		if (params.length > 0) {
+			return cmdr.getMetrics(params[0]).toString();
+		}
+		String out = "";
+		for (CommandMetrics m : cmdr.getMetrics()) {
+			if (m.getCallCount() > 0) {
+				out += m.toString() + "\n";
+			}
+		}
+		if (out.length() == 0) {
+			out = "No command submitted yet\n";
+		}
+		return out + cmdr.getScheduler().toString();
+	}
+	
 	private String setConfig(String configjsonpath) throws InvalidParameterException, InvalidCommandException, IOException, InvalidConfigurationException {
 		Gson gson  = new Gson();
 		FileReader fr;
@@ -0,0 +1,180 @@
+package edu.ucla.astro.irlab.io;
+
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import edu.ucla.astro.irlab.io.socket.SelectorLoop;
+/**
+ *	CommanderRegistry holds Commanders of many devices, addressable by their name, sharing one runtime:
+ *	a single selector thread reading every tcpchannel connection, and a small pool of worker threads parsing responses for all of them.
+ *	Devices on tcpchannel connections with a response terminator hold no thread while waiting for a reply,
+ *	so the number of threads stays the same whether the registry has 5 or 200 of them.
+ *	Other connections are blocking, and run their submitAsync calls on a separate pool of threads created on demand,
+ *	so a slow device never holds up the parsing of the others.
+ */
+public class CommanderRegistry implements Closeable {
+	/** Commanders with their name as keys, in loading order */
+	private final LinkedHashMap<String, Commander> commanders = new LinkedHashMap<String, Commander>();
+	/** Selector thread shared by every tcpchannel connection */
+	private final SelectorLoop selectorLoop;
+	/** Worker threads parsing responses of every Commander */
+	private final ExecutorService workers;
+	/** Threads running submitAsync calls of blocking connections, at most as many per Commander as commands it can have in flight */
+	private final ExecutorService blocking;
+	/** Log4J logger. (might change to custom logging)*/ 
+	private final Logger logger = LogManager.getLogger(CommanderRegistry.class);
+
+	/**
+	 * Creates an empty registry with its selector thread and thread pools.
+	 * @param Number of worker threads
+	 * @throws IOException if the selector can't be opened
+	 */
+	public CommanderRegistry(int workerCount) throws IOException {
+		final AtomicInteger count = new AtomicInteger();
+		this.workers = Executors.newFixedThreadPool(Math.max(1, workerCount), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "commander-worker-" + count.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		final AtomicInteger blockingCount = new AtomicInteger();
+		this.blocking = Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "commander-blocking-" + blockingCount.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this.selectorLoop = new SelectorLoop("commander-selector");
+	}
+	/**
+	 * Creates a registry with a worker per available processor, and loads every JSON configuration in the directory.
+	 * @param Directory of JSON configuration files
+	 * @param Default log level of the Commanders
+	 * @return CommanderRegistry
+	 * @throws IOException
+	 * @throws InvalidConfigurationException
+	 */
+	public static CommanderRegistry load(String directory, String loglevel) throws IOException, InvalidConfigurationException {
+		CommanderRegistry registry = new CommanderRegistry(Runtime.getRuntime().availableProcessors());
+		try {
+			registry.addDirectory(directory, loglevel);
+		} catch (IOException | InvalidConfigurationException e) {
+			registry.close();
+			throw e;
+		}
+		return registry;
+	}
+	/**
+	 * Loads every JSON configuration (*.json) in the directory, in name order.
+	 * @param Directory of JSON configuration files
+	 * @param Default log level of the Commanders
+	 * @throws IOException
+	 * @throws InvalidConfigurationException
+	 */
+	public void addDirectory(String directory, String loglevel) throws IOException, InvalidConfigurationException {
+		File dir = new File(directory);
+		File[] files = dir.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File f) {
+				return f.isFile() && f.getName().toLowerCase().endsWith(".json");
+			}
+		});
+		if (files == null) {
+			throw new IOException("Not a directory : " + directory);
+		}
+		Arrays.sort(files);
+		for (File f : files) {
+			add(f.getPath(), loglevel);
+		}
+	}
+	/**
+	 * Loads a JSON configuration and attaches the Commander to the shared runtime.
+	 * @param Path to the JSON configuration file
+	 * @param Default log level of the Commander
+	 * @return Commander created from the configuration
+	 * @throws IOException
+	 * @throws InvalidConfigurationException if the configuration is invalid, or another Commander has the same name
+	 */
+	public synchronized Commander add(String path, String loglevel) throws IOException, InvalidConfigurationException {
+		Commander cmdr = Commander.getCommanderObject(path, loglevel);
+		if (commanders.containsKey(cmdr.getName())) {
+			throw new InvalidConfigurationException(String.format("Commander \"%s\" of %s is already in the registry", cmdr.getName(), path));
+		}
+		cmdr.attach(workers, blocking, selectorLoop);
+		commanders.put(cmdr.getName(), cmdr);
+		logger.debug("Registered {} from {}", cmdr.getName(), path);
+		return cmdr;
+	}
+	/**
+	 * Returns Commander by its name
+	 * @param Name of the Commander
+	 * @return Commander, or null if there is none with the name
+	 */
+	public synchronized Commander get(String name) {
+		return commanders.get(name);
+	}
+	/**
+	 * Returns Commanders of the registry in loading order
+	 * @return unmodifiable collection of Commanders
+	 */
+	public synchronized Collection<Commander> getCommanders() {
+		return Collections.unmodifiableCollection(new ArrayList<Commander>(commanders.values()));
+	}
+	/**
+	 * Connects every Commander. Devices failing to connect are logged and left disconnected.
+	 * @return names of Commanders that failed to connect
+	 */
+	public ArrayList<String> connectAll() {
+		ArrayList<String> failed = new ArrayList<String>();
+		for (Commander cmdr : getCommanders()) {
+			try {
+				cmdr.connect();
+			} catch (IOException e) {
+				logger.error("Failed to connect to {} : {}", cmdr.getName(), e.getMessage());
+				failed.add(cmdr.getName());
+			}
+		}
+		return failed;
+	}
+	/**
+	 * Disconnects every Commander.
+	 */
+	public void disconnectAll() {
+		for (Commander cmdr : getCommanders()) {
+			try {
+				cmdr.disconnect();
+			} catch (IOException e) {
+				logger.error("Failed to disconnect from {} : {}", cmdr.getName(), e.getMessage());
+			}
+		}
+	}
+	/**
+	 * Disconnects every Commander and stops the shared threads.
+	 */
+	@Override
+	public void close() {
+		disconnectAll();
+		workers.shutdownNow();
+		blocking.shutdownNow();
+		selectorLoop.close();
+	}
+}
@@ -0,0 +1,181 @@
+package edu.ucla.astro.irlab.io;
+
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+/**
+ *	CompiledCommandTemplate is the pre-parsed form of a Command's positional syntax [ex: (p1) (p2) cmd (p3) (p4)].
+ *	Literal text between place-holders is encoded to bytes once, so sending a command only writes
+ *	those segments and the string value of each argument into a ByteBuffer, terminator included.
+ *	Instances are immutable apart from the optional histogram timing render; the ByteBuffer is owned by the caller.
+ */
+public final class CompiledCommandTemplate {
+	/** Charset used to encode the command, same as the one previously used by String.getBytes() */
+	private static final Charset CHARSET = Charset.defaultCharset();
+	/** Upper bound of bytes a single char can be encoded into */
+	private static final int MAX_BYTES_PER_CHAR = (int) Math.ceil(CHARSET.newEncoder().maxBytesPerChar());
+
+	/** Original command structure with parameter place-holders */
+	private final String command;
+	/** Whole command encoded as is. Sent when no argument is given, as PositionalSyntaxCommandConstructor does */
+	private final byte[] rawBytes;
+	/** Literal segments. segments[i] comes before the i-th parameter slot, the last one comes after every slot */
+	private final byte[][] segments;
+	/** Sum of the literal segment lengths */
+	private final int literalLength;
+	/** Records time spent in render, set by Commander. null if render is not timed */
+	private volatile LatencyHistogram renderTime;
+
+	/**
+	 * Parses the command structure into literal segments and parameter slots.
+	 * @param Command structure with parameter place-holders
+	 */
+	public CompiledCommandTemplate(String command) {
+		this.command = command;
+		this.rawBytes = command.getBytes(CHARSET);
+
+		ArrayList<byte[]> list = new ArrayList<byte[]>();
+		int start = 0;
+		int open;
+		while ((open = command.indexOf('(', start)) != -1) {
+			int close = command.indexOf(')', open);
+			if (close == -1) {
+				break;
+			}
+			list.add(command.substring(start, open).getBytes(CHARSET));
+			start = close + 1;
+		}
+		list.add(command.substring(start).getBytes(CHARSET));
+
+		segments = list.toArray(new byte[list.size()][]);
+		int length = 0;
+		for (byte[] s : segments) {
+			length += s.length;
+		}
+		literalLength = length;
+	}
+	/**
+	 * Returns the command structure this template was compiled from
+	 * @return command structure with parameter place-holders
+	 */
+	public String getCommand() {
+		return command;
+	}
+	/**
+	 * Returns number of parameter slots in the template
+	 * @return number of slots
+	 */
+	public int getSlotCount() {
+		return segments.length - 1;
+	}
+	/**
+	 * Encodes terminator of a CommandInterface, treating null as no terminator.
+	 * @param terminator String
+	 * @return encoded terminator
+	 */
+	public static byte[] encodeTerminator(String terminator) {
+		if (terminator == null) {
+			return new byte[0];
+		}
+		return terminator.getBytes(CHARSET);
+	}
+	/**
+	 * Sets the histogram recording time spent in render
+	 * @param Histogram, null to stop timing
+	 */
+	public void setRenderHistogram(LatencyHistogram histogram) {
+		renderTime = histogram;
+	}
+	/**
+	 * Writes the command with its arguments and the terminator into the buffer, starting at its beginning.
+	 * If the buffer is too small, a larger one of the same kind is allocated and returned instead,
+	 * so the caller should keep the returned buffer for the next call.
+	 * @param Arguments to fill the parameter slots in order. null argument is written as empty string.
+	 * @param Encoded terminator appended after the command
+	 * @param Buffer to reuse
+	 * @return Buffer holding the rendered bytes between 0 and its position
+	 */
+	public ByteBuffer render(Parameter[] arguments, byte[] terminator, ByteBuffer buffer) {
+		LatencyHistogram histogram = renderTime;
+		if (histogram == null) {
+			return renderInto(arguments, terminator, buffer);
+		}
+		long start = System.nanoTime();
+		buffer = renderInto(arguments, terminator, buffer);
+		histogram.record(System.nanoTime() - start);
+		return buffer;
+	}
+
+	private ByteBuffer renderInto(Parameter[] arguments, byte[] terminator, ByteBuffer buffer) {
+		boolean raw = (arguments == null || arguments.length == 0);
+		int required = (raw ? rawBytes.length : literalLength) + terminator.length;
+		if (!raw) {
+			for (int ii = 0; ii<getSlotCount(); ii++) {
+				if (arguments[ii] != null) {
+					required += arguments[ii].toString().length() * MAX_BYTES_PER_CHAR;
+				}
+			}
+		}
+		if (buffer == null || buffer.capacity() < required) {
+			boolean direct = (buffer != null && buffer.isDirect());
+			buffer = direct ? ByteBuffer.allocateDirect(required) : ByteBuffer.allocate(required);
+		}
+		buffer.clear();
+
+		if (raw) {
+			buffer.put(rawBytes);
+		} else {
+			for (int ii = 0; ii<getSlotCount(); ii++) {
+				buffer.put(segments[ii]);
+				if (arguments[ii] != null) {
+					putString(arguments[ii].toString(), buffer);
+				}
+			}
+			buffer.put(segments[segments.length - 1]);
+		}
+		buffer.put(terminator);
+		return buffer;
+	}
+	/**
+	 * Returns rendered command without terminator as String. Mainly for logging.
+	 * @param Arguments to fill the parameter slots
+	 * @return command String
+	 */
+	public String renderString(Parameter[] arguments) {
+		ByteBuffer buffer = renderInto(arguments, new byte[0], null);
+		return new String(buffer.array(), 0, buffer.position(), CHARSET);
+	}
+
+	/**
+	 * Decodes the command just rendered into the buffer, without terminator, so it can be logged without rendering it again.
+	 * @param Buffer returned by render, not flipped yet
+	 * @param Encoded terminator the command was rendered with
+	 * @return command String
+	 */
+	public static String decode(ByteBuffer rendered, byte[] terminator) {
+		ByteBuffer command = rendered.duplicate();
+		command.flip();
+		command.limit(command.limit() - terminator.length);
+		return CHARSET.decode(command).toString();
+	}
+
+	private static void putString(String s, ByteBuffer buffer) {
+		int length = s.length();
+		for (int ii = 0; ii<length; ii++) {
+			char c = s.charAt(ii);
+			if (c < 0x80) {
+				buffer.put((byte) c);
+			} else {
+				//. rare case of non-ASCII argument, let the charset encode the rest
+				buffer.put(CHARSET.encode(CharBuffer.wrap(s, ii, length)));
+				return;
+			}
+		}
+	}
+
+	public String toString() {
+		return command;
+	}
+}
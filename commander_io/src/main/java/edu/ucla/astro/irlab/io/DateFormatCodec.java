@@ -0,0 +1,176 @@
+package edu.ucla.astro.irlab.io;
+
+
+import java.text.ParsePosition;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.time.temporal.TemporalQueries;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+/**
+ *	DateFormatCodec is the compiled form of a Java Formatter style date format [ex: %tY-%tm-%td %tH:%tM:%tS].
+ *	The format is converted once into a DateTimeFormatter for parsing and formatting Dates,
+ *	and into a regular expression fragment for building response patterns.
+ *	Both are immutable, and codecs are cached by format, so one instance is shared by every thread and definition.
+ */
+public final class DateFormatCodec {
+	/** Codecs already compiled, with their Formatter style format as key */
+	private static final ConcurrentHashMap<String, DateFormatCodec> cache = new ConcurrentHashMap<String, DateFormatCodec>();
+
+	/** Formatter style format this codec was compiled from */
+	private final String format;
+	/** DateTimeFormatter equivalent of the format */
+	private final DateTimeFormatter formatter;
+	/** Regular expression of the format, as a single capturing group */
+	private final String regex;
+	/** true if the format only has numerical fields, which DateTimeFormatter prints exactly as Formatter does */
+	private final boolean numericOnly;
+	/** true if the format has time zone, so parsed value is not in the default time zone */
+	private final boolean zoned;
+
+	private DateFormatCodec(String format) throws InvalidConfigurationException {
+		this.format = format;
+		DateTimeFormatterBuilder builder = new DateTimeFormatterBuilder().parseCaseInsensitive();
+		StringBuilder re = new StringBuilder("(");
+		boolean numeric = true, hasZone = false, hasAmPm = false, hasClockHour = false;
+		boolean hasYear = false, hasMonth = false, hasDay = false, hasHour = false, hasMinute = false, hasSecond = false;
+
+		int start = 0;
+		int ii = 0;
+		while (ii < format.length()) {
+			if (format.charAt(ii) != '%') {
+				ii++;
+				continue;
+			}
+			if (ii > start) {
+				builder.appendLiteral(format.substring(start, ii));
+				re.append(Pattern.quote(format.substring(start, ii)));
+			}
+			if (format.startsWith("%%", ii)) {
+				builder.appendLiteral('%');
+				re.append('%');
+				start = ii = ii + 2;
+				continue;
+			}
+			if (ii + 2 >= format.length() || format.charAt(ii + 1) != 't') {
+				throw new InvalidConfigurationException("Unsupported date format : " + format);
+			}
+			switch (format.charAt(ii + 2)) {
+			case 'Y':	builder.appendPattern("uuuu");	re.append("\\d{4}");		hasYear = true;		break;	// 4-digit year
+			case 'y':	builder.appendPattern("uu");	re.append("\\d{2}");		hasYear = true;		break;	// 2-digit year
+			case 'B':	builder.appendPattern("MMMM");	re.append("\\S+");	numeric = false;	hasMonth = true;	break;	// Month in Full String
+			case 'b':	builder.appendPattern("MMM");	re.append("\\S+");	numeric = false;	hasMonth = true;	break;	// Month in abbreviated String
+			case 'm':	builder.appendPattern("MM");	re.append("\\d{2}");		hasMonth = true;	break;	// 2-digit Month
+			case 'd':	builder.appendPattern("dd");	re.append("\\d{2}");		hasDay = true;		break;	// 2-digit day with leading zero
+			case 'e':	builder.appendPattern("d");		re.append("\\d{1,2}");		hasDay = true;		break;	// 1 or 2-digit day
+			case 'H':	builder.appendPattern("HH");	re.append("\\d{2}");		hasHour = true;		break;	// 2-digit hour with leading zero 00-23
+			case 'k':	builder.appendPattern("H");		re.append("\\d{1,2}");		hasHour = true;		break;	// 1 or 2-digit hour 0-23
+			case 'I':	builder.appendPattern("hh");	re.append("\\d{2}");		hasClockHour = true;	break;	// 2-digit hour with leading zero 01-12
+			case 'l':	builder.appendPattern("h");		re.append("\\d{1,2}");		hasClockHour = true;	break;	// 1 or 2 digit hour 1-12
+			case 'M':	builder.appendPattern("mm");	re.append("\\d{2}");		hasMinute = true;	break;	// 2-digit minutes
+			case 'S':	builder.appendPattern("ss");	re.append("\\d{2}");		hasSecond = true;	break;	// 2-digit seconds
+			case 'L':	builder.appendPattern("SSS");	re.append("\\d{3}");		break;	// 3-digit milliseconds
+			case 'Z':	builder.appendPattern("z");		re.append("\\S+");	numeric = false;	hasZone = true;	break;	// TimeZoneName
+			case 'z':	builder.appendPattern("Z");		re.append("\\S+");	numeric = false;	hasZone = true;	break;	// TimeZone Offset
+			case 'p':	builder.appendPattern("a");		re.append("\\S+");	numeric = false;	hasAmPm = true;	break;	// am/pm indicator
+			default:
+				throw new InvalidConfigurationException("Unsupported date format : " + format);
+			}
+			start = ii = ii + 3;
+		}
+		if (start < format.length()) {
+			builder.appendLiteral(format.substring(start));
+			re.append(Pattern.quote(format.substring(start)));
+		}
+		re.append(")");
+
+		//. fields missing from the format take the same defaults as SimpleDateFormat did
+		if (!hasYear)	{ builder.parseDefaulting(ChronoField.YEAR, 1970); }
+		if (!hasMonth)	{ builder.parseDefaulting(ChronoField.MONTH_OF_YEAR, 1); }
+		if (!hasDay)	{ builder.parseDefaulting(ChronoField.DAY_OF_MONTH, 1); }
+		if (hasClockHour && !hasAmPm) {
+			builder.parseDefaulting(ChronoField.AMPM_OF_DAY, 0);
+		} else if (!hasHour && !hasClockHour) {
+			builder.parseDefaulting(ChronoField.HOUR_OF_DAY, 0);
+		}
+		if (!hasMinute)	{ builder.parseDefaulting(ChronoField.MINUTE_OF_HOUR, 0); }
+		if (!hasSecond)	{ builder.parseDefaulting(ChronoField.SECOND_OF_MINUTE, 0); }
+
+		this.formatter = builder.toFormatter(Locale.getDefault(Locale.Category.FORMAT));
+		this.regex = re.toString();
+		this.numericOnly = numeric;
+		this.zoned = hasZone;
+	}
+	/**
+	 * Returns the codec of the format, compiling it on first request.
+	 * @param Java Formatter style format for Date/Calendar
+	 * @return DateFormatCodec
+	 * @throws InvalidConfigurationException if the format has conversion that is not supported
+	 */
+	public static DateFormatCodec forFormat(String format) throws InvalidConfigurationException {
+		DateFormatCodec codec = cache.get(format);
+		if (codec == null) {
+			codec = new DateFormatCodec(format);
+			DateFormatCodec existing = cache.putIfAbsent(format, codec);
+			if (existing != null) {
+				codec = existing;
+			}
+		}
+		return codec;
+	}
+	/**
+	 * Returns regular expression style String of the format, as a single capturing group
+	 * @return regular expression
+	 */
+	public String getRegex() {
+		return regex;
+	}
+	/**
+	 * Returns the Formatter style format
+	 * @return format
+	 */
+	public String getFormat() {
+		return format;
+	}
+	/**
+	 * Returns true if format() gives the same result as Formatter
+	 * @return true if the format has only numerical fields
+	 */
+	public boolean isNumericOnly() {
+		return numericOnly;
+	}
+	/**
+	 * Formats Date in the default time zone
+	 * @param Date
+	 * @return formatted String
+	 */
+	public String format(Date date) {
+		return formatter.format(ZonedDateTime.ofInstant(date.toInstant(), ZoneId.systemDefault()));
+	}
+	/**
+	 * Parses Date from the beginning of the String. Trailing characters are ignored.
+	 * @param String starting with a date in this format
+	 * @return Date, in the default time zone if the format has no time zone
+	 * @throws InvalidParameterException
+	 */
+	public Date parse(String s) throws InvalidParameterException {
+		try {
+			TemporalAccessor parsed = formatter.parse(s, new ParsePosition(0));
+			if (zoned && parsed.query(TemporalQueries.zone()) != null) {
+				return Date.from(ZonedDateTime.from(parsed).toInstant());
+			} else {
+				return Date.from(LocalDateTime.from(parsed).atZone(ZoneId.systemDefault()).toInstant());
+			}
+		} catch (DateTimeException e) {
+			throw new InvalidParameterException(String.format("Failed to parse \"%s\" into Date object. required input is in form \"%s\"", s, format));
+		}
+	}
+}
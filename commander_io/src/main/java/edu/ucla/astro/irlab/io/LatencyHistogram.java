@@ -0,0 +1,127 @@
+package edu.ucla.astro.irlab.io;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+/**
+ *	LatencyHistogram counts durations in a fixed set of buckets, recorded from any thread without locking.
+ *	Buckets are log-linear: each power of two of nanoseconds is split into SUB_BUCKETS equal buckets, so 
+ *	percentiles are within 1/SUB_BUCKETS of the actual value, from 1 nanosecond up to MAX_NANOS (about 137 seconds).
+ *	Longer durations are counted in the last bucket. Memory stays the same however many durations are recorded.
+ */
+public final class LatencyHistogram {
+	/** log2 of the number of buckets per power of two */
+	private static final int SUB_BITS = 3;
+	/** Number of buckets per power of two */
+	public static final int SUB_BUCKETS = 1 << SUB_BITS;
+	/** Longest duration told apart, in nanoseconds */
+	public static final long MAX_NANOS = (1L << 37) - 1;
+	/** Number of buckets needed up to MAX_NANOS */
+	private static final int BUCKETS = bucketOf(MAX_NANOS) + 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * Records a duration
+	 * @param Duration in nanoseconds. Negative durations count as 0
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		counts.incrementAndGet(bucketOf(Math.min(nanos, MAX_NANOS)));
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+			max = maxNanos.get();
+		}
+	}
+	/**
+	 * Returns number of durations recorded
+	 * @return count
+	 */
+	public long getCount() {
+		return count.get();
+	}
+	/**
+	 * Returns average duration
+	 * @return mean in microseconds
+	 */
+	public double getMeanMicros() {
+		long n = count.get();
+		return (n == 0) ? 0 : totalNanos.get() / 1000.0 / n;
+	}
+	/**
+	 * Returns longest duration
+	 * @return max in microseconds
+	 */
+	public double getMaxMicros() {
+		return maxNanos.get() / 1000.0;
+	}
+	/**
+	 * Returns duration under which the given fraction of durations fall, taken as the upper bound of its bucket.
+	 * Durations recorded meanwhile may or may not be included.
+	 * @param Fraction between 0 and 1 [ex: 0.99]
+	 * @return percentile in microseconds, 0 if nothing was recorded
+	 */
+	public double getPercentileMicros(double fraction) {
+		long[] snapshot = new long[BUCKETS];
+		long total = 0;
+		for (int ii = 0; ii<BUCKETS; ii++) {
+			snapshot[ii] = counts.get(ii);
+			total += snapshot[ii];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(Math.min(1.0, Math.max(0.0, fraction)) * total));
+		long seen = 0;
+		for (int ii = 0; ii<BUCKETS; ii++) {
+			seen += snapshot[ii];
+			if (seen >= rank) {
+				return Math.min(upperBoundOf(ii), maxNanos.get()) / 1000.0;
+			}
+		}
+		return getMaxMicros();
+	}
+	/**
+	 * Clears every bucket. Durations recorded meanwhile may be partly cleared.
+	 */
+	public void reset() {
+		for (int ii = 0; ii<BUCKETS; ii++) {
+			counts.set(ii, 0);
+		}
+		count.set(0);
+		totalNanos.set(0);
+		maxNanos.set(0);
+	}
+	/**
+	 * Returns count, mean, median, 99th percentile and max of the durations, in microseconds
+	 */
+	@Override
+	public String toString() {
+		return String.format("n %d, mean %.1f, p50 %.1f, p99 %.1f, max %.1f us", 
+				getCount(), getMeanMicros(), getPercentileMicros(0.5), getPercentileMicros(0.99), getMaxMicros());
+	}
+
+	private static int bucketOf(long nanos) {
+		if (nanos < SUB_BUCKETS) {
+			return (int) nanos;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) ((nanos >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	private static long upperBoundOf(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+		return lower + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,232 @@
+package edu.ucla.astro.irlab.io;
+
+
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+/**
+ *	NumericFormat formats and parses integral and double values without going through java.util.Formatter.
+ *	It handles paramFormat with a single %d, %Nd, %0Nd, %f, %.Nf or %N.Nf conversion, optionally surrounded by literal text.
+ *	Digits are appended to a StringBuilder supplied by the caller, and parsing reads from a CharSequence range.
+ *	Whenever the result of Formatter or Double.parseDouble cannot be reproduced exactly, the methods report it
+ *	(format returns false, parse falls back to the JDK) so the caller can take the slow path.
+ */
+public final class NumericFormat {
+	/** Single conversion with optional zero flag, width and precision */
+	private static final Pattern SPEC = Pattern.compile("%(0)?([1-9]\\d*)?(?:\\.(\\d+))?([df])");
+	/** Powers of ten exactly representable as double */
+	private static final double[] SCALE = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15};
+	private static final long[] LONG_SCALE = {1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L,
+			10000000000L, 100000000000L, 1000000000000L, 10000000000000L, 100000000000000L, 1000000000000000L};
+	/** Above this magnitude of scaled value, double rounding may differ from Formatter's HALF_UP rounding */
+	private static final double MAX_EXACT_SCALED = 0x1p50;
+	/** Formatter localizes digits and decimal separator, only plain ASCII locales can use the fast path */
+	private static final boolean ASCII_LOCALE;
+	static
+	{
+		DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(Locale.getDefault(Locale.Category.FORMAT));
+		ASCII_LOCALE = symbols.getZeroDigit() == '0' && symbols.getDecimalSeparator() == '.';
+	}
+
+	private final String prefix;
+	private final String suffix;
+	private final boolean floating;
+	private final boolean zeroPad;
+	private final int width;
+	private final int precision;
+
+	private NumericFormat(String prefix, String suffix, boolean floating, boolean zeroPad, int width, int precision) {
+		this.prefix = prefix;
+		this.suffix = suffix;
+		this.floating = floating;
+		this.zeroPad = zeroPad;
+		this.width = width;
+		this.precision = precision;
+	}
+	/**
+	 * Compiles a Formatter style format.
+	 * @param Format with a single numerical conversion
+	 * @return NumericFormat, or null if the format is not supported and Formatter should be used
+	 */
+	public static NumericFormat compile(String format) {
+		if (format == null || !ASCII_LOCALE) {
+			return null;
+		}
+		Matcher m = SPEC.matcher(format);
+		if (!m.find()) {
+			return null;
+		}
+		String prefix = format.substring(0, m.start());
+		String suffix = format.substring(m.end());
+		if (prefix.indexOf('%') != -1 || suffix.indexOf('%') != -1) {
+			return null;
+		}
+		boolean zeroPad = m.group(1) != null;
+		int width = (m.group(2) == null) ? 0 : Integer.parseInt(m.group(2));
+		boolean floating = m.group(4).equals("f");
+		int precision;
+		if (floating) {
+			precision = (m.group(3) == null) ? 6 : Integer.parseInt(m.group(3));
+			if (precision >= SCALE.length) {
+				return null;
+			}
+		} else {
+			if (m.group(3) != null) {
+				return null;			// Formatter rejects precision for %d
+			}
+			precision = 0;
+		}
+		if (zeroPad && width == 0) {
+			return null;				// Formatter rejects zero flag without width
+		}
+		return new NumericFormat(prefix, suffix, floating, zeroPad, width, precision);
+	}
+	/**
+	 * Appends the formatted value to the buffer.
+	 * @param Value, Byte/Short/Integer/Long for %d and Double for %f
+	 * @param Buffer to append to
+	 * @return false if nothing was appended because the value has to be formatted by Formatter
+	 */
+	public boolean format(Object val, StringBuilder sb) {
+		if (floating) {
+			return (val instanceof Double) && format(((Double) val).doubleValue(), sb);
+		} else if (val instanceof Integer || val instanceof Long || val instanceof Short || val instanceof Byte) {
+			format(((Number) val).longValue(), sb);
+			return true;
+		} else {
+			return false;
+		}
+	}
+	/**
+	 * Appends integral value formatted by %d conversion.
+	 * @param Value
+	 * @param Buffer to append to
+	 */
+	public void format(long val, StringBuilder sb) {
+		sb.append(prefix);
+		int start = sb.length();
+		sb.append(val);
+		pad(sb, start, val < 0);
+		sb.append(suffix);
+	}
+	/**
+	 * Appends double value formatted by %f conversion, if it can be done exactly as Formatter would.
+	 * @param Value
+	 * @param Buffer to append to
+	 * @return false if nothing was appended
+	 */
+	public boolean format(double val, StringBuilder sb) {
+		if (!floating || Double.isNaN(val) || Double.isInfinite(val)) {
+			return false;
+		}
+		double scaled = Math.rint(val * SCALE[precision]);
+		//. the value must be the double nearest to a decimal with at most 'precision' fraction digits,
+		//. otherwise Formatter would round its decimal digits HALF_UP, which is left to it.
+		if (Math.abs(scaled) >= MAX_EXACT_SCALED || scaled / SCALE[precision] != val) {
+			return false;
+		}
+		long units = (long) Math.abs(scaled);
+		boolean negative = Double.doubleToRawLongBits(val) < 0;
+
+		sb.append(prefix);
+		int start = sb.length();
+		if (negative) {
+			sb.append('-');
+		}
+		sb.append(units / LONG_SCALE[precision]);
+		if (precision > 0) {
+			sb.append('.');
+			long fraction = units % LONG_SCALE[precision];
+			for (int ii = precision - 1; ii > 0 && fraction < LONG_SCALE[ii]; ii--) {
+				sb.append('0');
+			}
+			sb.append(fraction);
+		}
+		pad(sb, start, negative);
+		sb.append(suffix);
+		return true;
+	}
+
+	private void pad(StringBuilder sb, int start, boolean negative) {
+		int missing = width - (sb.length() - start);
+		for (int ii = 0; ii < missing; ii++) {
+			if (zeroPad) {
+				sb.insert(negative ? start + 1 : start, '0');
+			} else {
+				sb.insert(start, ' ');
+			}
+		}
+	}
+	/**
+	 * Parses an integral value between start and end of the sequence, as Long.parseLong would.
+	 * @param Sequence holding the value
+	 * @param Index of the first char
+	 * @param Index after the last char
+	 * @return parsed value
+	 * @throws NumberFormatException
+	 */
+	public static long parseLong(CharSequence s, int start, int end) throws NumberFormatException {
+		int ii = start;
+		boolean negative = false;
+		if (ii < end && (s.charAt(ii) == '-' || s.charAt(ii) == '+')) {
+			negative = s.charAt(ii) == '-';
+			ii++;
+		}
+		if (ii == end || end - ii > 18) {
+			//. empty, or possibly overflowing
+			return Long.parseLong(s.subSequence(start, end).toString());
+		}
+		long result = 0;
+		for (; ii < end; ii++) {
+			char c = s.charAt(ii);
+			if (c < '0' || c > '9') {
+				//. let the JDK handle non-ASCII digits, or throw
+				return Long.parseLong(s.subSequence(start, end).toString());
+			}
+			result = result * 10 + (c - '0');
+		}
+		return negative ? -result : result;
+	}
+	/**
+	 * Parses a double value between start and end of the sequence, as Double.parseDouble would.
+	 * Plain decimals of up to 15 digits are computed exactly, anything else is handed to Double.parseDouble.
+	 * @param Sequence holding the value
+	 * @param Index of the first char
+	 * @param Index after the last char
+	 * @return parsed value
+	 * @throws NumberFormatException
+	 */
+	public static double parseDouble(CharSequence s, int start, int end) throws NumberFormatException {
+		int ii = start;
+		boolean negative = false;
+		if (ii < end && (s.charAt(ii) == '-' || s.charAt(ii) == '+')) {
+			negative = s.charAt(ii) == '-';
+			ii++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int fractionDigits = -1;
+		for (; ii < end; ii++) {
+			char c = s.charAt(ii);
+			if (c >= '0' && c <= '9') {
+				mantissa = mantissa * 10 + (c - '0');
+				digits++;
+				if (fractionDigits >= 0) {
+					fractionDigits++;
+				}
+			} else if (c == '.' && fractionDigits < 0) {
+				fractionDigits = 0;
+			} else {
+				digits = -1;
+				break;
+			}
+		}
+		if (digits <= 0 || digits >= SCALE.length) {
+			return Double.parseDouble(s.subSequence(start, end).toString());
+		}
+		//. both mantissa and power of ten are exact, so a single division is correctly rounded
+		double value = (fractionDigits > 0) ? mantissa / SCALE[fractionDigits] : mantissa;
+		return negative ? -value : value;
+	}
+}
@@ -0,0 +1,182 @@
+package edu.ucla.astro.irlab.io;
+
+
+import java.util.Date;
+/**
+ *	ParameterCodec is the compiled form of a ParameterDefinition.
+ *	Type name is resolved into ParameterType and range into ParameterRange once,
+ *	so conversions dispatch on the enum instead of comparing type Strings on every call.
+ *	Instances are immutable and shared by all threads using the definition.
+ */
+final class ParameterCodec {
+	/** Name of the parameter, for error messages */
+	private final String name;
+	/** Type name as configured, for error messages */
+	private final String typeName;
+	/** Resolved type. null if type name is unknown, in which case values are kept as String */
+	private final ParameterType type;
+	/** Compiled range. null if the parameter has no range */
+	private final ParameterRange range;
+	/** Format as configured, may be null */
+	private final String paramFormat;
+	/** Compiled date format, either configured or default. null unless the type is date */
+	private final DateFormatCodec dateCodec;
+	/** paramFormat rewritten to refer to the first argument only, as used by Formatter */
+	private final String formatterPattern;
+	/** Fast formatter of numerical values. null if paramFormat is not supported by NumericFormat */
+	private final NumericFormat numericFormat;
+	/** Buffer reused by each thread for formatting numerical values */
+	private static final ThreadLocal<StringBuilder> FORMAT_BUFFER = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder(32);
+		}
+	};
+
+	ParameterCodec(String name, String typeName, String range, String paramFormat, String dateFormat) throws InvalidConfigurationException {
+		this.name = name;
+		this.typeName = typeName;
+		this.type = ParameterType.fromName(typeName);
+		this.range = ParameterRange.compile(name, range);
+		this.paramFormat = paramFormat;
+		this.dateCodec = (type == ParameterType.DATE) ? DateFormatCodec.forFormat(dateFormat) : null;
+		this.formatterPattern = (paramFormat == null) ? null : paramFormat.replace("%", "%1$");
+		if (type == ParameterType.BYTE || type == ParameterType.INT || type == ParameterType.LONG || type == ParameterType.DOUBLE) {
+			this.numericFormat = NumericFormat.compile(paramFormat);
+		} else {
+			this.numericFormat = null;
+		}
+	}
+
+	ParameterType getType() {
+		return type;
+	}
+	/**
+	 * Convert string into Object according to the parameter's type
+	 * @param s
+	 * @return
+	 * @throws InvalidParameterException
+	 */
+	Object parse(String s) throws InvalidParameterException {
+		if (type == null) {
+			return s;
+		}
+		try {
+			switch (type) {
+			case STRING:
+				if (paramFormat == null) {
+					return s;
+				} else {
+					return String.format(paramFormat, s);
+				}
+			case CHAR:
+				if (s.length()==1) {
+					return Character.valueOf(s.charAt(0));
+				} else {
+					throw new InvalidParameterException(String.format("Wrong type : \"%s\" entered for type of %s",s,typeName));
+				}
+			case INT:
+				return Integer.parseInt(s);
+			case BYTE:
+				return Byte.parseByte(s);
+			case LONG:
+				return Long.parseLong(s);
+			case DOUBLE:
+				return Double.parseDouble(s);
+			case FLOAT:
+				return Float.parseFloat(s);
+			case BOOLEAN:
+				return Boolean.parseBoolean(s);
+			case DATE:
+				return dateCodec.parse(s);
+			default:
+				return s;
+			}
+		//	 possible exception in this try block is format exception.
+		//	 catch it, and throw new invalid parameter exception with some more detail.
+		} catch(NumberFormatException e) {
+			throw new InvalidParameterException(String.format("Wrong type : \"%s\" for type of %s",s,typeName));
+		}
+	}
+	/**
+	 * Convert part of a response into Object according to the parameter's type.
+	 * Integral and double values are parsed in place, other types go through parse(String).
+	 * @param Sequence holding the value
+	 * @param Index of the first char
+	 * @param Index after the last char
+	 * @return
+	 * @throws InvalidParameterException
+	 */
+	Object parse(CharSequence seq, int start, int end) throws InvalidParameterException {
+		if (type != null) {
+			try {
+				switch (type) {
+				case INT:
+					long i = NumericFormat.parseLong(seq, start, end);
+					if (i < Integer.MIN_VALUE || i > Integer.MAX_VALUE) {
+						throw new NumberFormatException();
+					}
+					return Integer.valueOf((int) i);
+				case BYTE:
+					long b = NumericFormat.parseLong(seq, start, end);
+					if (b < Byte.MIN_VALUE || b > Byte.MAX_VALUE) {
+						throw new NumberFormatException();
+					}
+					return Byte.valueOf((byte) b);
+				case LONG:
+					return Long.valueOf(NumericFormat.parseLong(seq, start, end));
+				case DOUBLE:
+					return Double.valueOf(NumericFormat.parseDouble(seq, start, end));
+				default:
+					break;
+				}
+			} catch(NumberFormatException e) {
+				throw new InvalidParameterException(String.format("Wrong type : \"%s\" for type of %s",seq.subSequence(start, end),typeName));
+			}
+		}
+		return parse(seq.subSequence(start, end).toString());
+	}
+	/**
+	 * Checks if the object is of the class required by the parameter's type
+	 * @param obj
+	 * @throws InvalidParameterException
+	 */
+	void checkClass(Object obj) throws InvalidParameterException {
+		Class<?> classType = (type == null) ? Object.class : type.getValueClass();
+		if (!classType.isInstance(obj)) {
+			String msg = name + " requires " + classType +": " + obj.getClass() + " entered.";
+			throw new InvalidParameterException(msg);
+		}
+	}
+	/**
+	 * Convert value into the string sent to the device, using paramFormat.
+	 * Supported numerical formats skip Formatter.
+	 * @param val
+	 * @return
+	 */
+	String format(Object val) {
+		if (paramFormat==null || paramFormat.length()==0) {
+			return val.toString();
+		}
+		if (dateCodec != null && dateCodec.isNumericOnly() && val instanceof Date) {
+			return dateCodec.format((Date) val);
+		}
+		if (numericFormat != null) {
+			StringBuilder sb = FORMAT_BUFFER.get();
+			sb.setLength(0);
+			if (numericFormat.format(val, sb)) {
+				return sb.toString();
+			}
+		}
+		return String.format(formatterPattern, val);
+	}
+	/**
+	 * Checks the value against the compiled range
+	 * @param val
+	 * @return true if there is no range, or the value is within
+	 * @throws InvalidConfigurationException
+	 */
+	boolean withinRange(Object val) throws InvalidConfigurationException {
+		return range == null || range.contains(val);
+	}
+}
@@ -0,0 +1,126 @@
+package edu.ucla.astro.irlab.io;
+
+
+import java.util.Arrays;
+import java.util.HashSet;
+/**
+ *	ParameterRange is the compiled form of the range field of a ParameterDefinition.
+ *	Interval notation [ex: [0,2] or (0.25,64.0]] becomes primitive bounds,
+ *	and list notation [ex: 1,-1,1.5] becomes a HashSet, so checking a value does not parse the range again.
+ */
+public abstract class ParameterRange {
+
+	/**
+	 * Checks if the value is within this range
+	 * @param Value to be checked
+	 * @return true if the value is acceptable
+	 * @throws InvalidConfigurationException
+	 */
+	public abstract boolean contains(Object val) throws InvalidConfigurationException;
+
+	/**
+	 * Compiles range String of a parameter.
+	 * @param Name of the parameter, for error messages
+	 * @param Range in interval or list notation
+	 * @return compiled range, or null if the parameter has no range
+	 * @throws InvalidConfigurationException
+	 */
+	public static ParameterRange compile(String name, String range) throws InvalidConfigurationException {
+		if (range == null || range.length() == 0) {
+			return null;
+		}
+		if (range.contains("(") || range.contains("[")) {
+			boolean lowerOpen, upperOpen;
+			if (range.contains("(") && range.contains(")")) {
+				lowerOpen = true;	upperOpen = true;
+			} else if (range.contains("(") && range.contains("]")) {
+				lowerOpen = true;	upperOpen = false;
+			} else if (range.contains("[") && range.contains("]")) {
+				lowerOpen = false;	upperOpen = false;
+			} else if (range.contains("[") && range.contains(")")) {
+				lowerOpen = false;	upperOpen = true;
+			} else {
+				throw new InvalidConfigurationException("Invalid interval notation: " + range);
+			}
+			String[] vals = range.trim().substring(1, range.trim().length()-1).split(",");
+			if (vals.length != 2) {													// if it isn't x,y format it's wrong.
+				throw new InvalidConfigurationException(String.format("Invalid range for parameter %s : %s", name, range));
+			}
+			try {																	// if it's not a number, throw exception
+				double lower = Double.parseDouble(vals[0]);
+				double upper = Double.parseDouble(vals[1]);
+				if (lower > upper) {												// if lower limit and upper limit is switched
+					throw new InvalidConfigurationException(String.format("Invalid range for parameter %s : %s", name, range));
+				}
+				return new Interval(lower, upper, lowerOpen, upperOpen);
+			} catch (NumberFormatException e) {
+				throw new InvalidConfigurationException(String.format("Invalid range for parameter %s : %s", name, range));
+			}
+		} else if (range.contains(",")) {
+			return new ValueList(range.replace(" ", "").split(","));
+		} else {																	// So it's not an interval, and if it's not list using ","
+			throw new InvalidConfigurationException(String.format("Invalid range for parameter %s : %s", name, range));
+		}
+	}
+
+	/**
+	 * Interval with precomputed primitive bounds. Only numerical values can be checked against it.
+	 */
+	static final class Interval extends ParameterRange {
+		private final double lower;
+		private final double upper;
+		private final boolean lowerOpen;
+		private final boolean upperOpen;
+		/** false when an open interval has the same bounds, and thus nothing is within */
+		private final boolean nonEmpty;
+
+		Interval(double lower, double upper, boolean lowerOpen, boolean upperOpen) {
+			this.lower = lower;
+			this.upper = upper;
+			this.lowerOpen = lowerOpen;
+			this.upperOpen = upperOpen;
+			this.nonEmpty = (lowerOpen || upperOpen) ? lower < upper : lower <= upper;
+		}
+
+		@Override
+		public boolean contains(Object val) throws InvalidConfigurationException {
+			if (!(val instanceof Number)) {
+				throw new InvalidConfigurationException("Interval range was found in config for non-numerical parameter");
+			}
+			double value;
+			if (val instanceof Float) {
+				//. compare the decimal value the user entered, not its widened binary value
+				value = Double.parseDouble(val.toString());
+			} else {
+				value = ((Number) val).doubleValue();
+			}
+			return nonEmpty
+					&& (lowerOpen ? value > lower : value >= lower)
+					&& (upperOpen ? value < upper : value <= upper);
+		}
+
+		public String toString() {
+			return (lowerOpen ? "(" : "[") + lower + "," + upper + (upperOpen ? ")" : "]");
+		}
+	}
+
+	/**
+	 * List of acceptable values, compared by their String representation.
+	 */
+	static final class ValueList extends ParameterRange {
+		private final HashSet<String> values;
+
+		ValueList(String[] values) {
+			this.values = new HashSet<String>(Arrays.asList(values));
+		}
+
+		@Override
+		public boolean contains(Object val) {
+			return values.contains(val.toString());
+		}
+
+		public String toString() {
+			return values.toString();
+		}
+	}
+}
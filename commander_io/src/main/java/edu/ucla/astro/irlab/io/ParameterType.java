@@ -0,0 +1,57 @@
+package edu.ucla.astro.irlab.io;
+
+
+import java.util.Date;
+/**
+ *	ParameterType enumerates the types a ParameterDefinition can be configured with in JSON,
+ *	together with the Java class of their values.
+ */
+public enum ParameterType {
+	BYTE(Byte.class),
+	INT(Integer.class),
+	LONG(Long.class),
+	FLOAT(Float.class),
+	DOUBLE(Double.class),
+	TOKEN(Object.class),
+	STRING(String.class),
+	CHAR(Character.class),
+	BOOLEAN(Boolean.class),
+	DATE(Date.class);
+
+	/** Class of the value objects of this type */
+	private final Class<?> valueClass;
+
+	private ParameterType(Class<?> valueClass) {
+		this.valueClass = valueClass;
+	}
+	/**
+	 * Returns class of the value objects of this type
+	 * @return value class
+	 */
+	public Class<?> getValueClass() {
+		return valueClass;
+	}
+	/**
+	 * Returns true for types whose values are Numbers
+	 * @return numeric indicator
+	 */
+	public boolean isNumeric() {
+		return this == BYTE || this == INT || this == LONG || this == FLOAT || this == DOUBLE;
+	}
+	/**
+	 * Looks up type using its name in configuration, ignoring case.
+	 * @param Type name (int, double, char, string, date, etc)
+	 * @return ParameterType, or null if name is unknown
+	 */
+	public static ParameterType fromName(String name) {
+		if (name == null) {
+			return null;
+		}
+		for (ParameterType t : values()) {
+			if (t.name().equalsIgnoreCase(name)) {
+				return t;
+			}
+		}
+		return null;
+	}
+}
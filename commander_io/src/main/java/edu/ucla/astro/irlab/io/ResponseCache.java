@@ -0,0 +1,182 @@
+package edu.ucla.astro.irlab.io;
+
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+/**
+ *	ResponseCache keeps parsed responses of query commands declaring "cacheTtlMs", with the rendered command string as key,
+ *	so identical queries within the time-to-live are answered without going to the device.
+ *	Commands declaring "invalidates" drop cached responses of those queries once sent: only the response to the same
+ *	arguments when every parameter of the query is also a parameter of the setter [ex: setMotorSpeed A drops getMotorSpeed A],
+ *	else every response of the query.
+ *	A response is not stored if an invalidation happened while it was on the wire, so it can't hide the new setting.
+ *	Cached responses are copied on the way in and out, so callers may modify what they get.
+ */
+public class ResponseCache {
+	/** Commands of the Commander, to resolve invalidated queries */
+	private final HashMap<String, Command> commandMap;
+	/** Cached responses with their rendered command string as key */
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	/** Number of invalidations so far, compared before storing a response */
+	private final AtomicLong generation = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong invalidated = new AtomicLong();
+
+	private static final class Entry {
+		final Command command;
+		final Object value;
+		final long expires;
+		Entry(Command command, Object value, long expires) {
+			this.command = command;
+			this.value = value;
+			this.expires = expires;
+		}
+	}
+
+	/**
+	 * @param Commands of the Commander, with their name as keys
+	 */
+	ResponseCache(HashMap<String, Command> commandMap) {
+		this.commandMap = commandMap;
+	}
+	/**
+	 * Returns cached response of a query if it has not expired
+	 * @param Query command
+	 * @param Arguments of the query
+	 * @return copy of the cached response, or null if the command is not cached or the response is missing or expired
+	 */
+	Object get(Command cmd, Parameter[] parameters) {
+		if (cmd.getCacheTtlMs() <= 0) {
+			return null;
+		}
+		String key = cmd.getCommandTemplate().renderString(parameters);
+		Entry entry = entries.get(key);
+		if (entry == null || entry.expires <= System.currentTimeMillis()) {
+			if (entry != null) {
+				entries.remove(key, entry);
+			}
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return copy(entry.value);
+	}
+	/**
+	 * Returns the stamp to pass to put, taken before sending the query
+	 * @return number of invalidations so far
+	 */
+	long stamp() {
+		return generation.get();
+	}
+	/**
+	 * Stores the response of a query, unless an invalidation happened since the stamp was taken
+	 * @param Query command
+	 * @param Arguments of the query
+	 * @param Parsed response
+	 * @param Stamp taken before sending the query
+	 */
+	void put(Command cmd, Parameter[] parameters, Object response, long stamp) {
+		if (cmd.getCacheTtlMs() <= 0 || response == null) {
+			return;
+		}
+		String key = cmd.getCommandTemplate().renderString(parameters);
+		Entry entry = new Entry(cmd, copy(response), System.currentTimeMillis() + cmd.getCacheTtlMs());
+		entries.put(key, entry);
+		if (generation.get() != stamp) {
+			//. a setter went through meanwhile, the response may predate it
+			entries.remove(key, entry);
+		}
+	}
+	/**
+	 * Drops cached responses of the queries a setter invalidates
+	 * @param Setter command
+	 * @param Arguments of the setter
+	 */
+	void invalidate(Command setter, Parameter[] parameters) {
+		ArrayList<String> queries = setter.getInvalidates();
+		if (queries == null || queries.isEmpty()) {
+			return;
+		}
+		generation.incrementAndGet();
+		ArrayList<String> setterKeys = setter.getParamKeyList();
+		for (String name : queries) {
+			Command query = commandMap.get(name);
+			if (query == null) {
+				continue;
+			}
+			ArrayList<String> queryKeys = query.getParamKeyList();
+			Parameter[] queryParameters = new Parameter[queryKeys.size()];
+			for (int ii = 0; ii<queryKeys.size() && queryParameters != null; ii++) {
+				int index = setterKeys.indexOf(queryKeys.get(ii));
+				if (index < 0 || index >= parameters.length) {
+					queryParameters = null;
+				} else {
+					queryParameters[ii] = parameters[index];
+				}
+			}
+			if (queryParameters != null) {
+				if (entries.remove(query.getCommandTemplate().renderString(queryParameters)) != null) {
+					invalidated.incrementAndGet();
+				}
+			} else {
+				Iterator<Entry> it = entries.values().iterator();
+				while (it.hasNext()) {
+					if (it.next().command == query) {
+						it.remove();
+						invalidated.incrementAndGet();
+					}
+				}
+			}
+		}
+	}
+	/**
+	 * Drops every cached response
+	 */
+	public void clear() {
+		generation.incrementAndGet();
+		entries.clear();
+	}
+	public long getHitCount() {
+		return hits.get();
+	}
+	public long getMissCount() {
+		return misses.get();
+	}
+	/**
+	 * Returns number of cached responses dropped by setters
+	 * @return invalidated responses
+	 */
+	public long getInvalidatedCount() {
+		return invalidated.get();
+	}
+	/**
+	 * Returns number of responses cached, expired ones included until they are looked up
+	 * @return number of entries
+	 */
+	public int size() {
+		return entries.size();
+	}
+	/**
+	 * Copies lists of a parsed response, and Dates which are mutable. Other values are immutable.
+	 * @param Parsed response
+	 * @return copy of the response
+	 */
+	static Object copy(Object value) {
+		if (value instanceof ArrayList) {
+			ArrayList<?> list = (ArrayList<?>) value;
+			ArrayList<Object> copy = new ArrayList<Object>(list.size());
+			for (Object o : list) {
+				copy.add(copy(o));
+			}
+			return copy;
+		} else if (value instanceof Date) {
+			return ((Date) value).clone();
+		}
+		return value;
+	}
+}
@@ -0,0 +1,141 @@
+package edu.ucla.astro.irlab.io;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+/**
+ *	ResponseMatcher holds the precompiled happy/sad Patterns of a Command and the ParameterDefinitions bound to each capturing group.
+ *	It is built once by Commander while validating the configuration, and is immutable afterwards,
+ *	so a single instance can be shared by every thread parsing responses of the same Command.
+ */
+public final class ResponseMatcher {
+	/** Name of the Command this matcher belongs to, used for error messages */
+	private final String commandName;
+	/** Compiled regular expression of the successful response. null if the Command expects no response */
+	private final Pattern happyPattern;
+	/** Compiled regular expression of the unsuccessful response. null if neither Command nor device define one */
+	private final Pattern sadPattern;
+	/** ParameterDefinition bound to each capturing group of happyPattern, in group order */
+	private final ParameterDefinition[] bindings;
+	/** User-defined error notifier that will be the first element of a sad match */
+	private final String errorNotifier;
+
+	/**
+	 * Compiles happy and sad regular expressions of a Command.
+	 * @param Name of the Command
+	 * @param Regular expression of successful response, or null
+	 * @param Regular expression of unsuccessful response, or null
+	 * @param ParameterDefinitions of the response, in the order of their capturing groups
+	 * @param Error notifier to be prepended to the sad match
+	 * @throws InvalidConfigurationException
+	 */
+	public ResponseMatcher(String commandName, String happyRegex, String sadRegex, ParameterDefinition[] bindings, String errorNotifier) throws InvalidConfigurationException {
+		if (happyRegex == null && sadRegex == null) {
+			throw new InvalidConfigurationException(String.format("Command \"%s\" does not have any response configured", commandName));
+		}
+		this.commandName = commandName;
+		this.happyPattern = compile(happyRegex);
+		this.sadPattern = compile(sadRegex);
+		this.bindings = Arrays.copyOf(bindings, bindings.length);
+		this.errorNotifier = errorNotifier;
+
+		if (happyPattern != null && happyPattern.matcher("").groupCount() > this.bindings.length) {
+			throw new InvalidConfigurationException(String.format("Command \"%s\" has more groups in its response format than response parameters", commandName));
+		}
+	}
+
+	private Pattern compile(String regex) throws InvalidConfigurationException {
+		if (regex == null) {
+			return null;
+		}
+		try {
+			return Pattern.compile(regex, Pattern.DOTALL);
+		} catch (PatternSyntaxException e) {
+			throw new InvalidConfigurationException(String.format("Invalid response regular expression for command \"%s\" : %s", commandName, e.getMessage()));
+		}
+	}
+	/**
+	 * Returns compiled Pattern of successful response
+	 * @return happy Pattern, or null
+	 */
+	public Pattern getHappyPattern() {
+		return happyPattern;
+	}
+	/**
+	 * Returns compiled Pattern of unsuccessful response
+	 * @return sad Pattern, or null
+	 */
+	public Pattern getSadPattern() {
+		return sadPattern;
+	}
+	/**
+	 * Returns ParameterDefinitions bound to each group of the happy Pattern
+	 * @return unmodifiable list of ParameterDefinitions
+	 */
+	public List<ParameterDefinition> getBindings() {
+		return Collections.unmodifiableList(Arrays.asList(bindings));
+	}
+	/**
+	 * Finds the end of the first response of this Command in a combined response, starting from the index.
+	 * Happy Pattern is tried first, then sad Pattern.
+	 * @param Combined response of several commands
+	 * @param Index where the response of this Command begins
+	 * @return index after the response, or -1 if neither Pattern matched
+	 */
+	public int findEnd(CharSequence response, int from) {
+		if (happyPattern != null) {
+			Matcher mat = happyPattern.matcher(response);
+			if (mat.find(from)) {
+				return mat.end();
+			}
+		}
+		if (sadPattern != null) {
+			Matcher mat = sadPattern.matcher(response);
+			if (mat.find(from)) {
+				return mat.end();
+			}
+		}
+		return -1;
+	}
+	/**
+	 * Matches the response against happy Pattern first, then sad Pattern if nothing was found.
+	 * Each find becomes one row. Happy groups are converted using their bound ParameterDefinition,
+	 * sad groups are kept as String following the errorNotifier.
+	 * @param Raw response from the hardware
+	 * @return List of rows, empty if neither Pattern matched
+	 * @throws InvalidParameterException
+	 * @throws InvalidConfigurationException
+	 */
+	public ArrayList<ArrayList<Object>> match(CharSequence response) throws InvalidParameterException, InvalidConfigurationException {
+		ArrayList<ArrayList<Object>> multiArray = new ArrayList<ArrayList<Object>>();
+		if (happyPattern != null) {
+			Matcher mat = happyPattern.matcher(response);
+			int numItem = mat.groupCount();
+			while (mat.find()) {
+				ArrayList<Object> outArray = new ArrayList<Object>(numItem);
+				for (int ii = 0; ii<numItem; ii++) {
+					outArray.add(bindings[ii].getValueFromString(response, mat.start(ii+1), mat.end(ii+1)));
+				}
+				multiArray.add(outArray);
+			}
+		}
+		if (multiArray.size() < 1 && sadPattern != null) {
+			Matcher mat = sadPattern.matcher(response);
+			int numItem = mat.groupCount();
+			while (mat.find()) {
+				ArrayList<Object> outArray = new ArrayList<Object>(numItem + 1);
+				outArray.add(errorNotifier);
+				for (int ii = 0; ii<numItem; ii++) {
+					outArray.add(mat.group(ii+1));
+				}
+				multiArray.add(outArray);
+			}
+		}
+		return multiArray;
+	}
+}
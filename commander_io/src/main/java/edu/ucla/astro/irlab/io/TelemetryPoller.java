@@ -0,0 +1,357 @@
+package edu.ucla.astro.irlab.io;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+/**
+ *	TelemetryPoller submits status commands of a Commander periodically, and keeps the latest parsed value of each.
+ *	Polls are read from "pollInterval" and "pollArguments" of the commands in JSON configuration, or added with addPoll.
+ *	A single tick, at the greatest common divisor of the poll intervals (at least MIN_TICK) or at "pollTick" if configured,
+ *	sends every poll that is due through submitAsync, so polls take their turn in the scheduler like any other command.
+ *	A poll still in flight when it is due again is skipped. Skipped polls, and deadlines passed while the tick was late,
+ *	are counted as missed deadlines. Ticks of every Commander run on one shared thread.
+ */
+public class TelemetryPoller {
+	/** Shortest tick in milliseconds when computed from the poll intervals */
+	public static final long MIN_TICK = 10;
+	/** Commander the polls are submitted to */
+	private final Commander commander;
+	/** Milliseconds between ticks configured with "pollTick", 0 to compute it from the poll intervals */
+	private final long configuredTick;
+	/** Polls with their key (see pollKey) as keys, in order of addition */
+	private final LinkedHashMap<String, Poll> polls = new LinkedHashMap<String, Poll>();
+	/** Listeners notified of every new value */
+	private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+	/** true from start to stop, and the scheduled tick, null while stopped or without polls */
+	private boolean running = false;
+	private ScheduledFuture<?> tick;
+	
+	/**
+	 * Notified on the thread that parsed the response, for each poll completing with a value or an error
+	 */
+	public interface Listener {
+		/**
+		 * @param Poll holding its new value or error
+		 */
+		public void pollCompleted(Poll poll);
+	}
+	
+	/**
+	 * One command with its arguments, polled at its interval, with its latest value and counters
+	 */
+	public static final class Poll {
+		private final String commandKey;
+		private final Command command;
+		private final Parameter[] parameters;
+		private final String[] arguments;
+		private final long interval;
+		/** Time the poll is due next, in milliseconds */
+		private long nextDue;
+		private final AtomicBoolean inFlight = new AtomicBoolean();
+		private volatile Object value;
+		private volatile long timestamp;
+		private volatile Throwable error;
+		private final AtomicLong sent = new AtomicLong();
+		private final AtomicLong completed = new AtomicLong();
+		private final AtomicLong failed = new AtomicLong();
+		private final AtomicLong skipped = new AtomicLong();
+		private final AtomicLong missed = new AtomicLong();
+		
+		private Poll(String commandKey, Command command, Parameter[] parameters, String[] arguments, long interval) {
+			this.commandKey = commandKey;
+			this.command = command;
+			this.parameters = parameters;
+			this.arguments = arguments;
+			this.interval = interval;
+		}
+		public String getCommandKey() {
+			return commandKey;
+		}
+		public String[] getArguments() {
+			return arguments.clone();
+		}
+		/**
+		 * Returns milliseconds between polls
+		 * @return poll interval
+		 */
+		public long getInterval() {
+			return interval;
+		}
+		/**
+		 * Returns latest value parsed, null until the first poll completes
+		 * @return Object, ArrayList of Object, or ArrayList of ArrayList of Object, as submit returns
+		 */
+		public Object getValue() {
+			return value;
+		}
+		/**
+		 * Returns time of the latest value in milliseconds, 0 until the first poll completes
+		 * @return timestamp of the value
+		 */
+		public long getTimestamp() {
+			return timestamp;
+		}
+		/**
+		 * Returns error of the latest poll, or null if it completed with a value
+		 * @return error of the latest poll
+		 */
+		public Throwable getError() {
+			return error;
+		}
+		public long getSentCount() {
+			return sent.get();
+		}
+		public long getCompletedCount() {
+			return completed.get();
+		}
+		public long getErrorCount() {
+			return failed.get();
+		}
+		/**
+		 * Returns number of polls not sent because the previous one was still in flight
+		 * @return skipped polls
+		 */
+		public long getSkippedCount() {
+			return skipped.get();
+		}
+		/**
+		 * Returns number of deadlines at which the poll was not sent, skipped polls included
+		 * @return missed deadlines
+		 */
+		public long getMissedCount() {
+			return missed.get();
+		}
+		@Override
+		public String toString() {
+			return pollKey(commandKey, arguments) + " = " + value;
+		}
+	}
+	
+	/**
+	 * @param Commander the polls are submitted to
+	 * @param Milliseconds between ticks, 0 to compute it from the poll intervals
+	 */
+	TelemetryPoller(Commander commander, long tick) {
+		this.commander = commander;
+		this.configuredTick = tick;
+	}
+	/**
+	 * Adds a poll of a command with String arguments, replacing the poll of the same command and arguments if any.
+	 * Starts polling right away if the Commander is connected.
+	 * @param Name of the command
+	 * @param Milliseconds between polls
+	 * @param String arguments of the command
+	 * @return poll added
+	 * @throws InvalidCommandException
+	 * @throws InvalidParameterException
+	 * @throws InvalidConfigurationException
+	 */
+	public Poll addPoll(String commandKey, long interval, String... arguments) throws InvalidCommandException, InvalidParameterException, InvalidConfigurationException {
+		Command cmd = commander.getCommandObject(commandKey);
+		if (!cmd.isRequest()) {
+			throw new InvalidCommandException("Command \"" + commandKey + "\" has no response to poll.");
+		}
+		if (interval < 1) {
+			throw new InvalidParameterException("Poll interval must be at least 1 millisecond : " + interval);
+		}
+		Poll poll = new Poll(commandKey, cmd, commander.toParameters(cmd, arguments), arguments.clone(), interval);
+		synchronized (this) {
+			polls.put(pollKey(commandKey, arguments), poll);
+			poll.nextDue = System.currentTimeMillis();
+			if (running) {
+				schedule();
+			}
+		}
+		return poll;
+	}
+	/**
+	 * Removes the poll of a command and its arguments
+	 * @param Name of the command
+	 * @param String arguments of the command
+	 * @return true if the poll existed
+	 */
+	public synchronized boolean removePoll(String commandKey, String... arguments) {
+		boolean removed = polls.remove(pollKey(commandKey, arguments)) != null;
+		if (removed && running) {
+			schedule();
+		}
+		return removed;
+	}
+	/**
+	 * Returns the poll of a command and its arguments
+	 * @param Name of the command
+	 * @param String arguments of the command
+	 * @return poll, or null if the command is not polled with these arguments
+	 */
+	public synchronized Poll getPoll(String commandKey, String... arguments) {
+		return polls.get(pollKey(commandKey, arguments));
+	}
+	/**
+	 * Returns every poll, in order of addition
+	 * @return polls
+	 */
+	public synchronized Collection<Poll> getPolls() {
+		return Collections.unmodifiableList(new ArrayList<Poll>(polls.values()));
+	}
+	/**
+	 * Returns latest value of a poll
+	 * @param Name of the command
+	 * @param String arguments of the command
+	 * @return latest value, or null if not polled or not completed yet
+	 */
+	public Object getLatest(String commandKey, String... arguments) {
+		Poll poll = getPoll(commandKey, arguments);
+		return (poll == null) ? null : poll.getValue();
+	}
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+	/**
+	 * Returns milliseconds between ticks: "pollTick" if configured, else greatest common divisor of the poll intervals
+	 * @return tick period, 0 without polls
+	 */
+	public synchronized long getTick() {
+		if (configuredTick > 0) {
+			return configuredTick;
+		}
+		long period = 0;
+		for (Poll poll : polls.values()) {
+			period = gcd(period, poll.interval);
+		}
+		return (period == 0) ? 0 : Math.max(MIN_TICK, period);
+	}
+	/**
+	 * Starts ticking, every poll being due right away. Called by Commander on connect.
+	 */
+	synchronized void start() {
+		long now = System.currentTimeMillis();
+		for (Poll poll : polls.values()) {
+			poll.nextDue = now;
+		}
+		running = true;
+		schedule();
+	}
+	/**
+	 * Stops ticking. Polls in flight complete as usual. Called by Commander on disconnect.
+	 */
+	synchronized void stop() {
+		running = false;
+		if (tick != null) {
+			tick.cancel(false);
+			tick = null;
+		}
+	}
+	/**
+	 * (Re)schedules the tick at the period fitting the current polls
+	 */
+	private void schedule() {
+		if (tick != null) {
+			tick.cancel(false);
+			tick = null;
+		}
+		long period = getTick();
+		if (period == 0) {
+			//. nothing to poll, ticking starts with the first poll added
+			return;
+		}
+		tick = PollTimer.TIMER.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					tick();
+				} catch (Throwable e) {
+					//. an exception would cancel the schedule for good
+					commander.logger.error("Telemetry tick failed for {} : {}", commander.getName(), e);
+				}
+			}
+		}, 0, period, TimeUnit.MILLISECONDS);
+	}
+	/**
+	 * Sends every poll that is due, and counts the deadlines missed since the previous tick
+	 */
+	private synchronized void tick() {
+		long now = System.currentTimeMillis();
+		for (final Poll poll : polls.values()) {
+			if (now < poll.nextDue) {
+				continue;
+			}
+			long late = (now - poll.nextDue) / poll.interval;
+			poll.nextDue += (late + 1) * poll.interval;
+			if (late > 0) {
+				poll.missed.addAndGet(late);
+			}
+			if (!poll.inFlight.compareAndSet(false, true)) {
+				poll.skipped.incrementAndGet();
+				poll.missed.incrementAndGet();
+				continue;
+			}
+			poll.sent.incrementAndGet();
+			CompletableFuture<Object> future = commander.submitAsync(poll.command, poll.parameters);
+			future.whenComplete(new BiConsumer<Object, Throwable>() {
+				@Override
+				public void accept(Object result, Throwable error) {
+					if (error == null) {
+						poll.value = result;
+						poll.timestamp = System.currentTimeMillis();
+						poll.error = null;
+						poll.completed.incrementAndGet();
+					} else {
+						poll.error = error;
+						poll.failed.incrementAndGet();
+						commander.logger.debug("Poll of {} failed : {}", poll.commandKey, error.getMessage());
+					}
+					poll.inFlight.set(false);
+					for (Listener listener : listeners) {
+						try {
+							listener.pollCompleted(poll);
+						} catch (RuntimeException e) {
+							commander.logger.warn("Telemetry listener failed : {}", e);
+						}
+					}
+				}
+			});
+		}
+	}
+	
+	private static String pollKey(String commandKey, String[] arguments) {
+		return (arguments.length == 0) ? commandKey : commandKey + " " + Arrays.toString(arguments);
+	}
+	
+	private static long gcd(long a, long b) {
+		while (b != 0) {
+			long t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+	/**
+	 * Timer thread shared by the pollers of every Commander, created on first use
+	 */
+	private static class PollTimer {
+		static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "commander-telemetry");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+}
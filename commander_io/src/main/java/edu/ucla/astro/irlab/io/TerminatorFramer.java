@@ -0,0 +1,213 @@
+package edu.ucla.astro.irlab.io;
+
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+/**
+ *	TerminatorFramer accumulates bytes read from a device until the response terminator is found.
+ *	The terminator is searched with a single incremental scan (Knuth-Morris-Pratt), whose state is kept between feeds,
+ *	so a response split over many reads is framed in time linear to its length.
+ *	For devices acknowledging every command, a lone terminator is a complete response, the acknowledge of a command (e.g. ":" on Galil),
+ *	and replies of commands sent without reading them are counted with skipReply, and dropped once complete,
+ *	so they are not taken for the reply of the next command.
+ *	Otherwise a terminator found at the very beginning of a response is dropped, as TCPCommandInterface always did.
+ *	Devices may also answer a command they reject with an error reply in place of the terminated one (e.g. "?" on Galil).
+ *	When an error terminator is given, it completes a response as well, provided nothing but whitespace precedes it,
+ *	so the rejected command uses up exactly one reply.
+ *	Not thread-safe; each connection owns its framer.
+ */
+public final class TerminatorFramer {
+	/** Charset used to encode terminator and decode responses, same as the readers of the interfaces */
+	private static final Charset CHARSET = Charset.defaultCharset();
+
+	/** Encoded terminator */
+	private final byte[] terminator;
+	/** Length of the longest proper prefix of terminator[0..i] that is also its suffix */
+	private final int[] failure;
+	/** Encoded error terminator and its failure function, null without error terminator */
+	private final byte[] errorTerminator;
+	private final int[] errorFailure;
+	/** true if a terminator read before any response byte is dropped instead of completing an empty response */
+	private final boolean discardLeading;
+	/** Number of replies still to come for commands sent without reading them, dropped as they complete */
+	private int unread;
+	/** Number of terminator bytes matched at the end of the accumulated response */
+	private int matched;
+	/** Number of error terminator bytes matched at the end of the accumulated response */
+	private int errorMatched;
+	/** Accumulated response, terminator included */
+	private byte[] response;
+	private int length;
+
+	/**
+	 * @param Response terminator, must not be empty
+	 */
+	public TerminatorFramer(String terminator) {
+		this(terminator, true);
+	}
+	/**
+	 * @param Response terminator, must not be empty
+	 * @param true to drop a terminator read before the actual response
+	 */
+	public TerminatorFramer(String terminator, boolean discardLeading) {
+		this(terminator, null, discardLeading);
+	}
+	/**
+	 * @param Response terminator, must not be empty
+	 * @param Error reply sent instead of a terminated response, null or empty if the device has none
+	 * @param true to drop a terminator read before the actual response
+	 */
+	public TerminatorFramer(String terminator, String errorTerminator, boolean discardLeading) {
+		this.discardLeading = discardLeading;
+		this.terminator = terminator.getBytes(CHARSET);
+		if (this.terminator.length == 0) {
+			throw new IllegalArgumentException("Empty response terminator");
+		}
+		this.failure = failureFunction(this.terminator);
+		if (errorTerminator != null && !errorTerminator.equals("")) {
+			this.errorTerminator = errorTerminator.getBytes(CHARSET);
+			this.errorFailure = failureFunction(this.errorTerminator);
+		} else {
+			this.errorTerminator = null;
+			this.errorFailure = null;
+		}
+		this.response = new byte[256];
+	}
+	/**
+	 * Computes the failure function of the incremental scan of a pattern
+	 * @param Pattern
+	 * @return length of the longest proper prefix of pattern[0..i] that is also its suffix, for each i
+	 */
+	private static int[] failureFunction(byte[] pattern) {
+		int[] failure = new int[pattern.length];
+		int k = 0;
+		for (int ii = 1; ii < pattern.length; ii++) {
+			while (k > 0 && pattern[ii] != pattern[k]) {
+				k = failure[k - 1];
+			}
+			if (pattern[ii] == pattern[k]) {
+				k++;
+			}
+			failure[ii] = k;
+		}
+		return failure;
+	}
+	/**
+	 * Consumes bytes from the buffer until a response is complete or the buffer is exhausted.
+	 * Bytes after the terminator are left in the buffer for the next response.
+	 * @param Buffer ready to be read
+	 * @return true if a complete response is available with takeResponse()
+	 */
+	public boolean feed(ByteBuffer buffer) {
+		while (buffer.hasRemaining()) {
+			byte b = buffer.get();
+			if (length == response.length) {
+				response = Arrays.copyOf(response, length * 2);
+			}
+			response[length++] = b;
+
+			while (matched > 0 && b != terminator[matched]) {
+				matched = failure[matched - 1];
+			}
+			if (b == terminator[matched]) {
+				matched++;
+			}
+			if (matched == terminator.length) {
+				matched = 0;
+				errorMatched = 0;
+				if (discardLeading && length == terminator.length) {
+					//. terminator was read before actual response, discard it
+					length = 0;
+				} else if (complete()) {
+					return true;
+				}
+			} else if (errorTerminator != null && matchError(b)) {
+				matched = 0;
+				if (complete()) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	/**
+	 * Ends the response just framed, dropping it if it answers a command whose reply is not read
+	 * @return true if the response is to be taken
+	 */
+	private boolean complete() {
+		if (unread == 0) {
+			return true;
+		}
+		unread--;
+		length = 0;
+		return false;
+	}
+	/**
+	 * Counts a command sent without reading its reply. Whatever that reply is, it is dropped once complete.
+	 */
+	public void skipReply() {
+		unread++;
+	}
+	/**
+	 * Returns number of replies still to be dropped
+	 * @return replies to skip
+	 */
+	public int getRepliesToSkip() {
+		return unread;
+	}
+	/**
+	 * Advances the scan of the error terminator with the byte just accumulated
+	 * @param Byte just accumulated
+	 * @return true if the response is an error reply, i.e. the error terminator preceded by whitespace only
+	 */
+	private boolean matchError(byte b) {
+		while (errorMatched > 0 && b != errorTerminator[errorMatched]) {
+			errorMatched = errorFailure[errorMatched - 1];
+		}
+		if (b == errorTerminator[errorMatched]) {
+			errorMatched++;
+		}
+		if (errorMatched < errorTerminator.length) {
+			return false;
+		}
+		errorMatched = 0;
+		for (int ii = 0; ii < length - errorTerminator.length; ii++) {
+			if (!Character.isWhitespace(response[ii])) {
+				//. part of a regular response, e.g. a question mark in a message
+				return false;
+			}
+		}
+		return true;
+	}
+	/**
+	 * Returns number of bytes accumulated for the response in progress
+	 * @return number of bytes
+	 */
+	public int available() {
+		return length;
+	}
+	/**
+	 * Returns accumulated response, terminator included, and starts a new one.
+	 * @return response String
+	 */
+	public String takeResponse() {
+		String out = new String(response, 0, length, CHARSET);
+		clear();
+		return out;
+	}
+	/**
+	 * Drops partially accumulated response and the count of replies to skip, i.e. after a timeout,
+	 * when the stream is out of step with the commands anyway.
+	 */
+	public void reset() {
+		clear();
+		unread = 0;
+	}
+
+	private void clear() {
+		length = 0;
+		matched = 0;
+		errorMatched = 0;
+	}
+}
@@ -0,0 +1,80 @@
+package edu.ucla.astro.irlab.io;
+
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+/**
+ *	VirtualThreads holds the process-wide executor running blocking submitAsync calls in virtual thread mode.
+ *	The sources are built for Java 8, so the virtual thread executor of JDK 21 is looked up by reflection.
+ *	On older runtimes a cached pool of daemon platform threads is used instead, which keeps the same behavior with heavier threads.
+ *	Either way each Commander lets at most as many calls run at once as its connection can have in flight.
+ */
+final class VirtualThreads {
+	private static final Logger logger = LogManager.getLogger(VirtualThreads.class);
+	/** Executors.newVirtualThreadPerTaskExecutor, null before JDK 21 */
+	private static final Method FACTORY;
+	static
+	{
+		Method m = null;
+		try {
+			m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			//. not available on this runtime
+		}
+		FACTORY = m;
+	}
+	private static volatile boolean enabled = false;
+	private static ExecutorService executor;
+
+	private VirtualThreads() {
+	}
+	/**
+	 * Returns true if the runtime has virtual threads
+	 * @return availability of virtual threads
+	 */
+	static boolean isAvailable() {
+		return FACTORY != null;
+	}
+	static boolean isEnabled() {
+		return enabled;
+	}
+	static void setEnabled(boolean enable) {
+		if (enable && !isAvailable()) {
+			logger.warn("Virtual threads are not available on Java {}, using platform threads", System.getProperty("java.version"));
+		}
+		enabled = enable;
+	}
+	/**
+	 * Returns the executor shared by every Commander, creating it on first use
+	 * @return executor starting a thread per task
+	 */
+	static synchronized ExecutorService executor() {
+		if (executor == null) {
+			if (FACTORY != null) {
+				try {
+					executor = (ExecutorService) FACTORY.invoke(null);
+				} catch (ReflectiveOperationException e) {
+					logger.warn("Failed to create virtual thread executor, using platform threads : {}", e.toString());
+				}
+			}
+			if (executor == null) {
+				final AtomicInteger count = new AtomicInteger();
+				executor = Executors.newCachedThreadPool(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "commander-blocking-" + count.getAndIncrement());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+			}
+		}
+		return executor;
+	}
+}
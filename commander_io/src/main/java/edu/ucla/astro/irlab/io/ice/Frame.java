@@ -0,0 +1,85 @@
+package edu.ucla.astro.irlab.io.ice;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicInteger;
+/**
+ *	Frame received from an Ice callback, in a buffer lent by a FrameBufferPool.
+ *	The buffer is in the little endian order of Ice marshalling, from position 0 to the frame length.
+ *	Consumers call release once done with it, and retain beforehand to keep it past frameReceived [ex: to hand it to another thread].
+ *	The buffer goes back to the pool when the last reference is released, and must not be read after that.
+ */
+public class Frame {
+	private final FrameBufferPool pool;
+	private final ByteBuffer buffer;
+	private final AtomicInteger references = new AtomicInteger();
+	private String operation;
+	private long sequence;
+
+	Frame(FrameBufferPool pool, int bytes, boolean direct) {
+		this.pool = pool;
+		this.buffer = (direct ? ByteBuffer.allocateDirect(bytes) : ByteBuffer.allocate(bytes)).order(ByteOrder.LITTLE_ENDIAN);
+	}
+	/**
+	 * Empties the frame before filling it again, with one reference held by the caller
+	 */
+	void reset() {
+		buffer.clear();
+		references.set(1);
+	}
+	void setOrigin(String operation, long sequence) {
+		this.operation = operation;
+		this.sequence = sequence;
+	}
+	/**
+	 * Returns frame content, from position 0 to its length
+	 * @return buffer of the frame
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+	/**
+	 * Returns number of bytes in the frame
+	 * @return frame length
+	 */
+	public int getLength() {
+		return buffer.limit();
+	}
+	/**
+	 * Returns Ice operation which delivered the frame
+	 * @return operation name
+	 */
+	public String getOperation() {
+		return operation;
+	}
+	/**
+	 * Returns number of the frame, counted from the creation of the interface, dropped frames included
+	 * @return sequence number
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+	/**
+	 * Adds a reference to the frame, which must be released separately.
+	 * @return this frame
+	 */
+	public Frame retain() {
+		if (references.getAndIncrement() <= 0) {
+			references.decrementAndGet();
+			throw new IllegalStateException("Frame was already released");
+		}
+		return this;
+	}
+	/**
+	 * Drops a reference to the frame, and gives the buffer back to the pool with the last one.
+	 */
+	public void release() {
+		int remaining = references.decrementAndGet();
+		if (remaining == 0) {
+			pool.recycle(this);
+		} else if (remaining < 0) {
+			references.incrementAndGet();
+			throw new IllegalStateException("Frame was already released");
+		}
+	}
+}
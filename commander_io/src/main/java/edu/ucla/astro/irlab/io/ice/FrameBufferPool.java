@@ -0,0 +1,100 @@
+package edu.ucla.astro.irlab.io.ice;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+/**
+ *	Fixed set of frame buffers reused for every frame received, so continuous readout runs without allocating.
+ *	Buffers are allocated on first use, up to the capacity of the pool, and come back when their Frame is released.
+ *	When all of them are held by consumers, receiving waits for one, and drops the frame after the wait.
+ */
+public class FrameBufferPool {
+	private final int frameBytes;
+	private final int capacity;
+	private final boolean direct;
+	/** Frames released and ready to be filled again */
+	private final ArrayBlockingQueue<Frame> free;
+	/** number of buffers allocated so far, frames received and frames dropped because no buffer was released in time */
+	private int allocated = 0;
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * @param Size of each buffer in bytes
+	 * @param Maximum number of buffers
+	 * @param true to allocate buffers outside of the heap
+	 */
+	public FrameBufferPool(int frameBytes, int capacity, boolean direct) {
+		if (frameBytes <= 0 || capacity <= 0) {
+			throw new IllegalArgumentException("Frame size and pool capacity must be positive");
+		}
+		this.frameBytes = frameBytes;
+		this.capacity = capacity;
+		this.direct = direct;
+		this.free = new ArrayBlockingQueue<Frame>(capacity);
+	}
+	/**
+	 * Takes a free frame, allocating a new buffer while under capacity.
+	 * The frame is empty, with a reference count of one.
+	 * @param Milliseconds to wait for a frame to be released when all are in use
+	 * @return frame, or null if none was released in time
+	 * @throws InterruptedException
+	 */
+	public Frame acquire(long waitMillis) throws InterruptedException {
+		Frame frame = free.poll();
+		if (frame == null) {
+			synchronized (this) {
+				if (allocated < capacity) {
+					allocated++;
+					frame = new Frame(this, frameBytes, direct);
+				}
+			}
+		}
+		if (frame == null) {
+			frame = free.poll(waitMillis, TimeUnit.MILLISECONDS);
+		}
+		if (frame == null) {
+			dropped.incrementAndGet();
+			return null;
+		}
+		received.incrementAndGet();
+		frame.reset();
+		return frame;
+	}
+	/**
+	 * Takes back a frame whose last reference was released.
+	 * @param Frame of this pool
+	 */
+	void recycle(Frame frame) {
+		free.offer(frame);
+	}
+	/**
+	 * Counts a frame dropped for another reason than the pool being exhausted [ex: larger than the buffers]
+	 */
+	void countDropped() {
+		dropped.incrementAndGet();
+	}
+
+	public int getFrameBytes() {
+		return frameBytes;
+	}
+	public int getCapacity() {
+		return capacity;
+	}
+	public synchronized int getAllocatedCount() {
+		return allocated;
+	}
+	/**
+	 * Returns number of frames held by consumers and not released yet
+	 * @return frames in use
+	 */
+	public synchronized int getInUseCount() {
+		return allocated - free.size();
+	}
+	public long getReceivedCount() {
+		return received.get();
+	}
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+}
@@ -0,0 +1,11 @@
+package edu.ucla.astro.irlab.io.ice;
+/**
+ *	Receives the frames of ICECommandInterface callbacks.
+ *	Called on the Ice thread which received the frame, so the next frame of the connection waits until it returns.
+ */
+public interface FrameConsumer {
+	/**
+	 * @param Frame received. The consumer owns one reference, which it must release.
+	 */
+	public void frameReceived(Frame frame);
+}
@@ -0,0 +1,102 @@
+package edu.ucla.astro.irlab.io.ice;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import Ice.DispatchStatus;
+/**
+ *	Wraps the callback servant of ICECommandInterface, and takes over the operation delivering frames.
+ *	The frame is a sequence of fixed size elements [ex: sequence<int>], and the first parameter of the operation.
+ *	Instead of unmarshalling it into a new array, its bytes are copied straight from the Ice receive buffer into a 
+ *	pooled Frame, which is handed to the FrameConsumer. Other parameters of the operation are skipped.
+ *	Every other operation goes to the callback servant as usual.
+ */
+class FrameDispatchInterceptor extends Ice.DispatchInterceptor {
+	private static final long serialVersionUID = 1L;
+	private final Logger logger = LogManager.getLogger(FrameDispatchInterceptor.class);
+	private final Ice.Object servant;
+	private final String frameOperation;
+	private final int elementSize;
+	private final FrameBufferPool pool;
+	private final long waitMillis;
+	private volatile FrameConsumer consumer;
+	private final AtomicLong sequence = new AtomicLong();
+
+	/**
+	 * @param Callback servant receiving the other operations
+	 * @param Name of the operation delivering frames
+	 * @param Size in bytes of the elements of the frame sequence
+	 * @param Pool of the frame buffers
+	 * @param Milliseconds to wait for a free buffer before dropping the frame
+	 */
+	FrameDispatchInterceptor(Ice.Object servant, String frameOperation, int elementSize, FrameBufferPool pool, long waitMillis) {
+		this.servant = servant;
+		this.frameOperation = frameOperation;
+		this.elementSize = elementSize;
+		this.pool = pool;
+		this.waitMillis = waitMillis;
+	}
+
+	void setConsumer(FrameConsumer consumer) {
+		this.consumer = consumer;
+	}
+
+	@Override
+	public DispatchStatus dispatch(Ice.Request request) {
+		//. collocated calls have no receive buffer to take the frame from
+		if (!request.getCurrent().operation.equals(frameOperation) || !(request instanceof IceInternal.Incoming)) {
+			return servant.ice_dispatch(request, null);
+		}
+		IceInternal.BasicStream is = ((IceInternal.Incoming)request).is();
+		ByteBuffer b = is.getBuffer().b;
+		//. encapsulation starts with its size, header included
+		int end = b.position() + b.getInt(b.position());
+		is.startReadEncaps();
+		int count = is.readSize();
+		is.checkFixedSeq(count, elementSize);
+		int length = count * elementSize;
+		int start = b.position();
+
+		long number = sequence.getAndIncrement();
+		Frame frame = null;
+		try {
+			frame = pool.acquire(waitMillis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (frame != null && length > frame.getBuffer().capacity()) {
+			logger.warn("Dropping frame of {} bytes, larger than the pooled buffers", length);
+			frame.release();
+			pool.countDropped();
+			frame = null;
+		}
+		if (frame != null) {
+			ByteBuffer src = b.duplicate();
+			src.limit(start + length);
+			frame.getBuffer().put(src);
+			frame.getBuffer().flip();
+			frame.setOrigin(frameOperation, number);
+		} else {
+			logger.debug("No frame buffer free, dropping frame {}", number);
+		}
+		b.position(end);
+		is.endReadEncaps();
+
+		if (frame != null) {
+			FrameConsumer c = consumer;
+			if (c == null) {
+				frame.release();
+			} else {
+				try {
+					c.frameReceived(frame);
+				} catch (RuntimeException e) {
+					logger.warn("Frame consumer failed : {}", e);
+				}
+			}
+		}
+		return DispatchStatus.DispatchOK;
+	}
+}
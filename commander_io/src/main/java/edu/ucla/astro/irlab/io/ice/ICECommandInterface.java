@@ -1,15 +1,31 @@
 package edu.ucla.astro.irlab.io.ice;
 
 import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import Ice.Communicator;
-import edu.ucla.astro.irlab.io.CommandInterface;
+import edu.ucla.astro.irlab.io.AsyncCommandInterface;
+import edu.ucla.astro.irlab.io.Command;
 import edu.ucla.astro.irlab.io.InvalidCommandException;
 import edu.ucla.astro.irlab.io.InvalidConfigurationException;
 import edu.ucla.astro.irlab.io.InvalidParameterException;
@@ -24,7 +40,20 @@ import edu.ucla.astro.irlab.io.Parameter;
  * 
  */
 
-public class ICECommandInterface implements CommandInterface {
+/**
+ * CommandInterface invoking the methods of an Ice proxy, a command being the name of a proxy method followed by its parameters.
+ * With "async" set to true in connectionProperties, submitAsync calls use Ice asynchronous method invocation:
+ * the configured proxy method is invoked dynamically without waiting for its reply, its arguments and return value 
+ * marshalled with the types of the generated method, so several operations overlap on one connection.
+ * ICEStubServant of the test sources serves such calls from a plain Java object, to try the interface without the actual server.
+ *
+ * With "frameOperation" set, that callback operation is taken over by FrameDispatchInterceptor: the frame it delivers,
+ * a sequence of "frameElementSize" byte elements (4 by default), is copied into a buffer of a FrameBufferPool
+ * and handed to the FrameConsumer set with setFrameConsumer, instead of being unmarshalled into a new array.
+ * "framePoolSize" buffers (4 by default) of "frameBytes" bytes (one 2048x2048x4 byte frame by default) are allocated 
+ * outside of the heap, unless "frameDirect" is false. Frames are dropped once no buffer is released for "frameWait" milliseconds (1000 by default).
+ */
+public class ICECommandInterface implements AsyncCommandInterface {
 	
 	private final Logger logger = LogManager.getLogger(ICECommandInterface.class);
 
@@ -44,7 +73,22 @@ public class ICECommandInterface implements CommandInterface {
 	
 	private boolean createCallback = false;
 	private HashMap<String, String> connectionProperties;
-	HashMap<String, Method> proxyMethods = new HashMap<String, Method>();
+	//. method handles bound to proxyObject, with name and number of arguments of the method as key (see methodKey)
+	ConcurrentHashMap<String, MethodHandle> proxyMethods = new ConcurrentHashMap<String, MethodHandle>();
+	//. proxy methods with the same key, whose types are used to check arguments and to marshal asynchronous invocations
+	ConcurrentHashMap<String, Method> proxySignatures = new ConcurrentHashMap<String, Method>();
+	//. commands of the Commander, bound to proxy methods at connect time
+	private HashMap<String, Command> commandMap;
+	//. true to invoke asynchronously, and the threads running the methods whose types can't be marshalled
+	private boolean asyncMode = false;
+	private ExecutorService blockingInvoker;
+	//. pooled buffers of the frames received by the callback, and the servant wrapper filling them
+	private FrameBufferPool framePool;
+	private FrameDispatchInterceptor frameInterceptor;
+	private int frameBytes = DEFAULT_FRAME_BYTES;
+	
+	//. one 2048x2048x4 byte frame
+	private static final int DEFAULT_FRAME_BYTES = 2048 * 2048 * 4;
 	
 	public ICECommandInterface(HashMap<String, String> settings) {
 		isCallbackThreadRunning = false;
@@ -57,6 +101,7 @@ public class ICECommandInterface implements CommandInterface {
 		//. TODO throw exceptions 
 		createCallback = false;
 		proxyClassName = connectionProperties.get("proxyClassName");
+		asyncMode = Boolean.parseBoolean(connectionProperties.get("async"));
 		callbackClassName = connectionProperties.get("callbackClassName");
 		if (callbackClassName != null) {
 			if (callbackClassName.length() > 0) {
@@ -82,16 +127,31 @@ public class ICECommandInterface implements CommandInterface {
 				e.printStackTrace();
 			}
 		}
+		
+		String frameOperation = connectionProperties.get("frameOperation");
+		if (connectionProperties.get("frameBytes") != null) {
+			frameBytes = Integer.parseInt(connectionProperties.get("frameBytes"));
+		}
+		if (createCallback && callbackObject != null && frameOperation != null && frameOperation.length() > 0) {
+			int elementSize = parseProperty("frameElementSize", 4);
+			framePool = new FrameBufferPool(frameBytes, parseProperty("framePoolSize", 4), 
+					!"false".equalsIgnoreCase(connectionProperties.get("frameDirect")));
+			frameInterceptor = new FrameDispatchInterceptor(callbackObject, frameOperation, elementSize, framePool, parseProperty("frameWait", 1000));
+		}
+	}
+	private int parseProperty(String key, int defaultValue) {
+		String value = connectionProperties.get(key);
+		return (value == null) ? defaultValue : Integer.parseInt(value);
 	}
 	private void startCommunicator() {
 		logger.info("Initializing ICE connection...");
 		Ice.Properties props = Ice.Util.createProperties();
 
 		//. TODO use connectionProperties
-		//. set max size of message to be one 2048x2048x4 byte frame
+		//. set max size of message to be one frame (2048x2048x4 byte by default)
 		//. plus a bit more for message overhead  (in kB)
 		//.  = 2048 x 2048 x 4 bytes / 1024 bytes/kb + 4 kb
-		props.setProperty("Ice.MessageSizeMax", "16388");
+		props.setProperty("Ice.MessageSizeMax", Integer.toString(frameBytes / 1024 + 4));
 		props.setProperty("Ice.ACM.Client", "0");
 		props.setProperty("Ice.Warn.Connections", "1");
 		props.setProperty("Ice.Override.ConnectTimeout", "10000");
@@ -108,12 +168,78 @@ public class ICECommandInterface implements CommandInterface {
 	public void constructFromConfigurationFile(String path) throws IOException {
 	}
 		
+	/**
+	 * Sets commands of the Commander, whose proxy methods are bound when connecting
+	 * @param Command map from JSON configuration
+	 */
+	public void setCommandMap(HashMap<String, Command> commandMap) {
+		this.commandMap = commandMap;
+	}
+	
 	private void populateProxyMethods() throws IOException {
 		//. go through configuration and fill in proxyMethods hash map
 		//. this can only be done after connecting and instantiating a proxy object
-		
-		//. NOTE this isn't done yet.  right now, get method and add to map first time method is called.
-		
+		proxyMethods.clear();
+		proxySignatures.clear();
+		if (commandMap == null) {
+			return;
+		}
+		for (Command cmd : commandMap.values()) {
+			String methodName = methodName(cmd.getCommand());
+			int count = cmd.getParamKeyList().size();
+			try {
+				bindMethod(methodName, count);
+			} catch (InvalidCommandException e) {
+				throw new IOException("Command <"+cmd.getName()+"> has no proxy method: "+e.getMessage());
+			}
+		}
+		logger.info("Bound {} proxy methods", proxyMethods.size());
+	}
+	
+	/**
+	 * Returns first word of the command, which is the name of the proxy method
+	 * @param command String
+	 * @return method name
+	 */
+	private static String methodName(String command) {
+		int i = command.indexOf(" ");
+		return (i < 0) ? command : command.substring(0, i);
+	}
+	private static String methodKey(String methodName, int count) {
+		return methodName + "/" + count;
+	}
+	
+	/**
+	 * Finds the public proxy method with the name and number of arguments, and binds it to proxyObject 
+	 * as a MethodHandle taking the arguments as Object array and returning Object (null for void methods).
+	 * Arguments are unboxed by the handle, so Integer matches int, etc.
+	 * @param Name of the method
+	 * @param Number of arguments
+	 * @return bound method handle
+	 * @throws InvalidCommandException if there is no such method, or more than one
+	 */
+	private MethodHandle bindMethod(String methodName, int count) throws InvalidCommandException {
+		Method found = null;
+		for (Method m : proxyClass.getMethods()) {
+			if (m.getName().equals(methodName) && m.getParameterTypes().length == count && !Modifier.isStatic(m.getModifiers())) {
+				if (found != null) {
+					throw new InvalidCommandException("Command <"+methodName+"> is ambiguous with "+count+" arguments.");
+				}
+				found = m;
+			}
+		}
+		if (found == null) {
+			throw new InvalidCommandException("Command <"+methodName+"> is not a valid command.");
+		}
+		try {
+			MethodHandle handle = MethodHandles.publicLookup().unreflect(found).bindTo(proxyObject);
+			handle = handle.asType(handle.type().generic()).asSpreader(Object[].class, count);
+			proxyMethods.put(methodKey(methodName, count), handle);
+			proxySignatures.put(methodKey(methodName, count), found);
+			return handle;
+		} catch (IllegalAccessException e) {
+			throw new InvalidCommandException("Method <"+methodName+"> is not accessible for proxy class <"+proxyClassName+">.");
+		}
 	}
 	
 	public void instantiateCallbackClass() throws IOException {
@@ -248,10 +374,10 @@ public class ICECommandInterface implements CommandInterface {
 			objarg[ii] = arguments[ii].getValue();
 		}
 		
-		Method m = getMethod(command, objarg);
+		MethodHandle m = getMethod(command, objarg);
 		
 		//. invoke returns null if method has void return type
-		invokeProxyMethod(m, objarg);
+		invokeProxyMethod(command, m, objarg);
 	}
 
 	@Override
@@ -264,44 +390,143 @@ public class ICECommandInterface implements CommandInterface {
 			objarg[ii] = arguments[ii].getValue();
 		}
 		
-		Method m = getMethod(command, objarg);
+		MethodHandle m = getMethod(command, objarg);
 		
 		//. invoke returns null if method has void return type
-		return invokeProxyMethod(m, objarg);
+		return invokeProxyMethod(command, m, objarg);
 
 	}
 
-	private Method getMethod(String command, Object[] arguments)
+	private MethodHandle getMethod(String command, Object[] arguments)
 			throws InvalidCommandException, InvalidParameterException, IOException {
-		String methodName;
-		int i = command.indexOf(" ");
-		if (i < 0) {
-			methodName = command;
-		} else {
-		 methodName = command.substring(0, i);
-		}
-		Method m = proxyMethods.get(methodName);
+		String methodName = methodName(command);
+		MethodHandle m = proxyMethods.get(methodKey(methodName, arguments.length));
 		if (m == null) {
-			/* try to get method */
-			Class<?>[] argumentTypes = new Class<?>[arguments.length];
-			int ii=0;
-			for (Object o : arguments) {
-				argumentTypes[ii] = o.getClass();
-				ii++;
-			}
-			try {
-				m = proxyClass.getDeclaredMethod(methodName, argumentTypes);
-				proxyMethods.put(command, m);
-			} catch (SecurityException e) {
-				e.printStackTrace();
-				throw new InvalidCommandException("Command <"+methodName+"> is not a valid command.");
-			} catch (NoSuchMethodException e) {
-				e.printStackTrace();
-				throw new InvalidCommandException("Command <"+methodName+"> is not a valid command.");
+			//. not configured as a command (i.e. addCallbackClient), bind it on first use
+			if (proxyObject == null) {
+				throw new IOException("Not connected to ICE proxy <"+iceProxyName+">.");
 			}
+			m = bindMethod(methodName, arguments.length);
 		}
 		return m;
 	}
+	@Override
+	public boolean isAsync() {
+		return asyncMode && proxyObject != null;
+	}
+
+	@Override
+	public CompletableFuture<Object> sendRequestAsync(Command command, Parameter[] arguments) {
+		return invokeAsync(command.getCommand(), arguments);
+	}
+
+	@Override
+	public CompletableFuture<Object> sendCommandAsync(Command command, Parameter[] arguments) {
+		return invokeAsync(command.getCommand(), arguments).thenApply(new Function<Object, Object>() {
+			@Override
+			public Object apply(Object result) {
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Invokes the proxy method of the command asynchronously, and completes the future from the Ice client thread.
+	 * Methods with types that can't be marshalled by IceParameterCodec are invoked synchronously on a separate thread instead.
+	 * @param Command String, whose first word is the method name
+	 * @param Parameters of the method
+	 * @return future of the return value, null for void methods
+	 */
+	private CompletableFuture<Object> invokeAsync(final String command, Parameter[] arguments) {
+		final CompletableFuture<Object> future = new CompletableFuture<Object>();
+		final Object[] objarg = new Object[arguments.length];
+		for (int ii = 0; ii<arguments.length; ii++) {
+			objarg[ii] = arguments[ii].getValue();
+		}
+		final Method method;
+		final MethodHandle handle;
+		try {
+			handle = getMethod(command, objarg);
+			method = proxySignatures.get(methodKey(methodName(command), objarg.length));
+		} catch (Exception e) {
+			future.completeExceptionally(e);
+			return future;
+		}
+		if (!isMarshallable(method)) {
+			return CompletableFuture.supplyAsync(new Supplier<Object>() {
+				@Override
+				public Object get() {
+					try {
+						return invokeProxyMethod(command, handle, objarg);
+					} catch (IOException e) {
+						throw new CompletionException(e);
+					}
+				}
+			}, getBlockingInvoker());
+		}
+		byte[] inParams;
+		Ice.OutputStream out = Ice.Util.createOutputStream(ic);
+		try {
+			Class<?>[] types = method.getParameterTypes();
+			for (int ii = 0; ii<types.length; ii++) {
+				IceParameterCodec.write(out, types[ii], objarg[ii]);
+			}
+			inParams = out.finished();
+		} catch (RuntimeException e) {
+			future.completeExceptionally(new IOException("Illegal argument for method <"+proxyClassName+"."+method.getName()+">: "+ e.getMessage()));
+			return future;
+		} finally {
+			out.destroy();
+		}
+		final Class<?> returnType = method.getReturnType();
+		new IceAsyncInvocation().invoke((Ice.ObjectPrx) proxyObject, method.getName(), inParams).whenComplete(new BiConsumer<byte[], Throwable>() {
+			@Override
+			public void accept(byte[] outParams, Throwable ex) {
+				if (ex instanceof Ice.TimeoutException) {
+					future.completeExceptionally(new SocketTimeoutException("Ice Timeout Exception: " + ex.getMessage()));
+				} else if (ex instanceof Ice.LocalException) {
+					future.completeExceptionally(new IOException("Ice Exception: " + ex.getMessage()));
+				} else if (ex != null) {
+					future.completeExceptionally(ex);
+				} else {
+					Ice.InputStream in = Ice.Util.createInputStream(ic, outParams);
+					try {
+						future.complete(IceParameterCodec.read(in, returnType));
+					} catch (RuntimeException e) {
+						future.completeExceptionally(new IOException("Unable to read result of <"+method.getName()+">: "+ e.getMessage()));
+					} finally {
+						in.destroy();
+					}
+				}
+			}
+		});
+		return future;
+	}
+	private static boolean isMarshallable(Method method) {
+		if (method == null || !IceParameterCodec.isSupported(method.getReturnType())) {
+			return false;
+		}
+		for (Class<?> type : method.getParameterTypes()) {
+			if (!IceParameterCodec.isSupported(type)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	private synchronized ExecutorService getBlockingInvoker() {
+		if (blockingInvoker == null) {
+			blockingInvoker = Executors.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "ice-invoker");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return blockingInvoker;
+	}
+
 	/** Method to shutdown ICE communicator.
 	 *
 	 * @param : None
@@ -337,17 +562,17 @@ public class ICECommandInterface implements CommandInterface {
 		Ice.Identity ident = new Ice.Identity();
 		ident.name = Ice.Util.generateUUID();
 		ident.category = "";
-		adapter.add(callbackObject, ident);
+		adapter.add((frameInterceptor != null) ? frameInterceptor : callbackObject, ident);
 		adapter.activate();
 		((Ice.ObjectPrx)(proxyObject)).ice_getConnection().setAdapter(adapter);
 
 		Object[] args = {ident};
-		Method addCallbackMethod;
+		MethodHandle addCallbackMethod;
 		try {
 			addCallbackMethod = getMethod("addCallbackClient", args);
 			
 			if (addCallbackMethod != null ) { //. this check should be performed earlier?	
-				invokeProxyMethod(addCallbackMethod, args);
+				invokeProxyMethod("addCallbackClient", addCallbackMethod, args);
 
 				/* todo: synchronize? */
 				logger.info("Callback Thread running...");
@@ -373,6 +598,28 @@ public class ICECommandInterface implements CommandInterface {
 
 	}
 	
+	/** Sets the consumer of the frames received by the callback
+	 *
+	 * @param consumer [in] Consumer, which releases every frame it receives. Frames are released right away when null.
+	 *
+	 * @return none
+	 * @throws IllegalStateException when "frameOperation" is not configured
+	 */
+	public void setFrameConsumer(FrameConsumer consumer) {
+		if (frameInterceptor == null) {
+			throw new IllegalStateException("frameOperation and callbackClassName are not configured");
+		}
+		frameInterceptor.setConsumer(consumer);
+	}
+	
+	/** Accessor method for the pool of frame buffers
+	 *
+	 * @return pool, or null when "frameOperation" is not configured
+	 */
+	public FrameBufferPool getFramePool() {
+		return framePool;
+	}
+	
 	/** Accessor method to set whether callback thread is running or not
 	 *
 	 * @param status [in] Whether callback thread is running
@@ -383,30 +630,57 @@ public class ICECommandInterface implements CommandInterface {
 		isCallbackThreadRunning=status;
 	}
 
-	private Object invokeProxyMethod(Method m, Object... args) throws IOException {
+	private Object invokeProxyMethod(String command, MethodHandle m, Object... args) throws IOException {
+		checkArguments(command, args);
 		try {
-			//. for parameterless methods, args can be null or 0-length
-			return m.invoke(proxyObject, args);  
-			//. sidecarProxy = Sidecar.SidecarIce.ISidecarIceComPrxHelper.checkedCast(iceBase);
-		} catch (IllegalAccessException iaEx) {
-			throw new IOException("Method <"+m.getName()+"> is not accessible for proxy class <"+proxyClassName+">.");
-		} catch (IllegalArgumentException argEx) {
-			throw new IOException("Illegal argument for method <"+proxyClassName+"."+m.getName()+": "+ argEx.getMessage());
-		} catch (InvocationTargetException itEx) {
+			//. handle is bound to proxyObject, and spreads the arguments array into the method parameters
+			return (Object) m.invokeExact(args);
+		} catch (Ice.TimeoutException ex) {
+			throw new SocketTimeoutException("Ice Timeout Exception: " + ex.getMessage());
+		} catch (Ice.LocalException ex) {
+			throw new IOException("Ice Exception: " + ex.getMessage());
+		} catch (Error ex) {
+			throw ex;
+		} catch (Throwable ex) {
 			//. exception thrown by method
-			Throwable ex = itEx.getCause();
-			if  (ex instanceof Ice.TimeoutException) {
-				throw new IOException("Ice Timeout Exception: " + ex.getMessage());
-			} else if (ex instanceof Ice.LocalException ) {
-				throw new IOException("Ice Exception: " + ex.getMessage());
-			} else { 
-				throw new IOException("Unknown InvocationException: "+ itEx.getMessage());
+			throw new IOException("Unknown InvocationException: "+ ex.getMessage(), ex);
+		}
+	}
+
+	//. boxed types in the order an unboxed argument is widened to the parameter type, as the handle does
+	private static final List<Class<?>> WIDENING = Arrays.<Class<?>>asList(Byte.class, Short.class, Integer.class, Long.class, Float.class, Double.class);
+
+	/** Checks the arguments against the parameter types of the proxy method, which the handle only converts them to when invoked,
+	 *  so that only exceptions of the method itself are left to invokeExact
+	 *
+	 * @param command [in] Command String, whose first word is the method name
+	 * @param args [in] Arguments of the method
+	 *
+	 * @throws IOException when an argument can't be converted to its parameter type
+	 */
+	private void checkArguments(String command, Object[] args) throws IOException {
+		Method method = proxySignatures.get(methodKey(methodName(command), args.length));
+		Class<?>[] types = method.getParameterTypes();
+		for (int ii = 0; ii<types.length; ii++) {
+			if (!isConvertible(args[ii], types[ii])) {
+				throw new IOException("Illegal argument for method <"+proxyClassName+"."+methodName(command)+">: "
+						+ ((args[ii] == null) ? "null" : args[ii].getClass().getName()) + " given for parameter " + ii + " of type " + types[ii].getName());
 			}
-		} catch (Exception ex) {
-			//. invoke could also throw NullPointerExceptoin, ExceptionInInitializerError
-			throw new IOException(ex);
 		}
 	}
-	
-	
+	private static boolean isConvertible(Object arg, Class<?> type) {
+		if (!type.isPrimitive()) {
+			return arg == null || type.isInstance(arg);
+		}
+		if (arg == null) {
+			return false;
+		}
+		Class<?> boxed = MethodType.methodType(type).wrap().returnType();
+		if (boxed.isInstance(arg)) {
+			return true;
+		}
+		int from = (arg instanceof Character) ? WIDENING.indexOf(Short.class) : WIDENING.indexOf(arg.getClass());
+		int to = WIDENING.indexOf(boxed);
+		return from >= 0 && to > from;
+	}
 }
@@ -0,0 +1,59 @@
+package edu.ucla.astro.irlab.io.ice;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+/**
+ *	Asynchronous dynamic invocation of a proxy operation, completing a future with the marshalled return value.
+ *	Same as Ice.AMI_Object_ice_invoke, whose response handling in Ice 3.3.1 reads the encapsulation without starting it.
+ *	One instance per invocation.
+ */
+final class IceAsyncInvocation extends IceInternal.OutgoingAsync {
+	private final CompletableFuture<byte[]> future = new CompletableFuture<byte[]>();
+	private String operation;
+
+	/**
+	 * Sends the operation without waiting for its reply.
+	 * @param Proxy of the servant
+	 * @param Name of the operation
+	 * @param Parameters marshalled with Ice.OutputStream
+	 * @return future of the marshalled return value, failing with Ice.LocalException or IOException for user exceptions
+	 */
+	CompletableFuture<byte[]> invoke(Ice.ObjectPrx proxy, String operation, byte[] inParams) {
+		this.operation = operation;
+		__acquireCallback(proxy);
+		try {
+			__prepare(proxy, operation, Ice.OperationMode.Normal, null);
+			__os.writeBlob(inParams);
+			__os.endWriteEncaps();
+			__send();
+		} catch (Ice.LocalException ex) {
+			future.completeExceptionally(ex);
+			__releaseCallback(ex);
+		}
+		return future;
+	}
+
+	@Override
+	protected void __response(boolean ok) {
+		byte[] outParams;
+		try {
+			__is.startReadEncaps();
+			outParams = __is.readBlob(__is.getReadEncapsSize());
+			__is.endReadEncaps();
+		} catch (Ice.LocalException ex) {
+			__finished(ex);
+			return;
+		}
+		if (ok) {
+			future.complete(outParams);
+		} else {
+			future.completeExceptionally(new IOException("Ice User Exception raised by <"+operation+">"));
+		}
+		__releaseCallback();
+	}
+
+	@Override
+	public void ice_exception(Ice.LocalException ex) {
+		future.completeExceptionally(ex);
+	}
+}
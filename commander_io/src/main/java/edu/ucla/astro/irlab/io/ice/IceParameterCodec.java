@@ -0,0 +1,97 @@
+package edu.ucla.astro.irlab.io.ice;
+
+import java.util.HashMap;
+
+import Ice.InputStream;
+import Ice.OutputStream;
+/**
+ *	IceParameterCodec marshals arguments and return values of proxy methods with the Ice streaming interface,
+ *	so operations can be invoked dynamically (ice_invoke) with the types of the generated proxy methods.
+ *	Only Slice built-in types, String and their sequences are supported, which covers the commands configured in JSON.
+ */
+final class IceParameterCodec {
+	/** Boxed classes of the primitive types, so Integer arguments are written as int */
+	private static final HashMap<Class<?>, Class<?>> primitives = new HashMap<Class<?>, Class<?>>();
+	static {
+		primitives.put(Boolean.class, boolean.class);
+		primitives.put(Byte.class, byte.class);
+		primitives.put(Short.class, short.class);
+		primitives.put(Integer.class, int.class);
+		primitives.put(Long.class, long.class);
+		primitives.put(Float.class, float.class);
+		primitives.put(Double.class, double.class);
+	}
+
+	private IceParameterCodec() {
+	}
+	/**
+	 * Returns true if values of the type can be written and read
+	 * @param Java type of a parameter or return value
+	 * @return true if supported
+	 */
+	static boolean isSupported(Class<?> type) {
+		type = unbox(type);
+		return type == void.class || type.isPrimitive() || type == String.class
+				|| type == boolean[].class || type == byte[].class || type == short[].class || type == int[].class
+				|| type == long[].class || type == float[].class || type == double[].class || type == String[].class;
+	}
+	private static Class<?> unbox(Class<?> type) {
+		Class<?> primitive = primitives.get(type);
+		return (primitive == null) ? type : primitive;
+	}
+	/**
+	 * Writes the value as the type
+	 * @param Stream to write
+	 * @param Java type of the parameter
+	 * @param Value, boxed for primitive types
+	 */
+	static void write(OutputStream out, Class<?> type, Object value) {
+		type = unbox(type);
+		if (type == boolean.class)		{ out.writeBool((Boolean) value); }
+		else if (type == byte.class)	{ out.writeByte(((Number) value).byteValue()); }
+		else if (type == short.class)	{ out.writeShort(((Number) value).shortValue()); }
+		else if (type == int.class)		{ out.writeInt(((Number) value).intValue()); }
+		else if (type == long.class)	{ out.writeLong(((Number) value).longValue()); }
+		else if (type == float.class)	{ out.writeFloat(((Number) value).floatValue()); }
+		else if (type == double.class)	{ out.writeDouble(((Number) value).doubleValue()); }
+		else if (type == String.class)	{ out.writeString((value == null) ? "" : value.toString()); }
+		else if (type == boolean[].class)	{ out.writeBoolSeq((boolean[]) value); }
+		else if (type == byte[].class)	{ out.writeByteSeq((byte[]) value); }
+		else if (type == short[].class)	{ out.writeShortSeq((short[]) value); }
+		else if (type == int[].class)	{ out.writeIntSeq((int[]) value); }
+		else if (type == long[].class)	{ out.writeLongSeq((long[]) value); }
+		else if (type == float[].class)	{ out.writeFloatSeq((float[]) value); }
+		else if (type == double[].class)	{ out.writeDoubleSeq((double[]) value); }
+		else if (type == String[].class)	{ out.writeStringSeq((String[]) value); }
+		else {
+			throw new IllegalArgumentException("Unsupported parameter type " + type.getName());
+		}
+	}
+	/**
+	 * Reads a value of the type
+	 * @param Stream to read
+	 * @param Java type of the value
+	 * @return value, boxed for primitive types, null for void
+	 */
+	static Object read(InputStream in, Class<?> type) {
+		type = unbox(type);
+		if (type == void.class)			{ return null; }
+		else if (type == boolean.class)	{ return in.readBool(); }
+		else if (type == byte.class)	{ return in.readByte(); }
+		else if (type == short.class)	{ return in.readShort(); }
+		else if (type == int.class)		{ return in.readInt(); }
+		else if (type == long.class)	{ return in.readLong(); }
+		else if (type == float.class)	{ return in.readFloat(); }
+		else if (type == double.class)	{ return in.readDouble(); }
+		else if (type == String.class)	{ return in.readString(); }
+		else if (type == boolean[].class)	{ return in.readBoolSeq(); }
+		else if (type == byte[].class)	{ return in.readByteSeq(); }
+		else if (type == short[].class)	{ return in.readShortSeq(); }
+		else if (type == int[].class)	{ return in.readIntSeq(); }
+		else if (type == long[].class)	{ return in.readLongSeq(); }
+		else if (type == float[].class)	{ return in.readFloatSeq(); }
+		else if (type == double[].class)	{ return in.readDoubleSeq(); }
+		else if (type == String[].class)	{ return in.readStringSeq(); }
+		throw new IllegalArgumentException("Unsupported return type " + type.getName());
+	}
+}
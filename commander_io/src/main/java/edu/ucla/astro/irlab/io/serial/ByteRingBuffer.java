@@ -0,0 +1,122 @@
+package edu.ucla.astro.irlab.io.serial;
+
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+/**
+ *	ByteRingBuffer holds bytes received from a serial port, between the event thread writing them and the caller reading them.
+ *	Capacity is fixed. When the reader falls behind and the buffer is full, the oldest bytes are overwritten and counted as overrun.
+ *	The reader waits on a ReentrantLock condition, so a virtual thread waiting for bytes releases its carrier.
+ */
+final class ByteRingBuffer {
+	/** Guards the fields below, and signals the reader when bytes arrive */
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition arrived = lock.newCondition();
+	/** Stored bytes, from head for size bytes, wrapping around the end */
+	private final byte[] ring;
+	private int head = 0;
+	private int size = 0;
+	/** Number of bytes overwritten before being read */
+	private long overrun = 0;
+
+	/**
+	 * @param Capacity in bytes
+	 */
+	ByteRingBuffer(int capacity) {
+		this.ring = new byte[capacity];
+	}
+	/**
+	 * Appends bytes and wakes up the reader.
+	 * @param Bytes received
+	 */
+	void write(byte[] data) {
+		lock.lock();
+		try {
+			int offset = 0;
+			int length = data.length;
+			if (length > ring.length) {
+				//. only the newest bytes fit
+				offset = length - ring.length;
+				overrun += offset;
+				length = ring.length;
+			}
+			int free = ring.length - size;
+			if (length > free) {
+				int dropped = length - free;
+				head = (head + dropped) % ring.length;
+				size -= dropped;
+				overrun += dropped;
+			}
+			int tail = (head + size) % ring.length;
+			int first = Math.min(length, ring.length - tail);
+			System.arraycopy(data, offset, ring, tail, first);
+			System.arraycopy(data, offset + first, ring, 0, length - first);
+			size += length;
+			arrived.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+	/**
+	 * Moves stored bytes into the buffer, waiting until some are available or the time is over.
+	 * @param Buffer to fill
+	 * @param Milliseconds to wait at most, 0 to return at once
+	 * @return number of bytes moved, 0 if nothing arrived in time
+	 * @throws InterruptedIOException
+	 */
+	int read(ByteBuffer buffer, long waitMillis) throws InterruptedIOException {
+		lock.lock();
+		try {
+			long remaining = TimeUnit.MILLISECONDS.toNanos(waitMillis);
+			while (size == 0) {
+				if (remaining <= 0) {
+					return 0;
+				}
+				try {
+					remaining = arrived.awaitNanos(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for serial data");
+				}
+			}
+			int n = Math.min(size, buffer.remaining());
+			int first = Math.min(n, ring.length - head);
+			buffer.put(ring, head, first);
+			buffer.put(ring, 0, n - first);
+			head = (head + n) % ring.length;
+			size -= n;
+			return n;
+		} finally {
+			lock.unlock();
+		}
+	}
+	/**
+	 * Drops every stored byte.
+	 * @return number of bytes dropped
+	 */
+	int clear() {
+		lock.lock();
+		try {
+			int dropped = size;
+			head = 0;
+			size = 0;
+			return dropped;
+		} finally {
+			lock.unlock();
+		}
+	}
+	/**
+	 * Returns number of bytes overwritten before being read
+	 * @return overrun bytes
+	 */
+	long getOverrun() {
+		lock.lock();
+		try {
+			return overrun;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
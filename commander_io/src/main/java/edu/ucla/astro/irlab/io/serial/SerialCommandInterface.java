@@ -1,113 +1,326 @@
 package edu.ucla.astro.irlab.io.serial;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import edu.ucla.astro.irlab.io.Command;
 import edu.ucla.astro.irlab.io.CommandInterface;
+import edu.ucla.astro.irlab.io.CompiledCommandTemplate;
 import edu.ucla.astro.irlab.io.InvalidConfigurationException;
 import edu.ucla.astro.irlab.io.Parameter;
-import edu.ucla.astro.irlab.io.PositionalSyntaxCommandConstructor;
+import edu.ucla.astro.irlab.io.TerminatorFramer;
+import edu.ucla.astro.irlab.io.socket.TCPCommandInterface;
+
 import jssc.SerialPort;
+import jssc.SerialPortEvent;
+import jssc.SerialPortEventListener;
 import jssc.SerialPortException;
-
+/**
+ * Serial CommandInterface driven by jssc events. Bytes are pushed by the port event thread into a ring buffer,
+ * and requests read them from there until the response is complete or the deadline passes.
+ * Takes the same framing options as TCPCommandInterface: "responseTerminator" ends a response at the terminator,
+ * otherwise a response is over after "idleGap" milliseconds of silence. "timeout" (1000 by default) bounds every request.
+ * "errorTerminator" completes the reply of a rejected command, as for TCPCommandInterface.
+ * With "acknowledged" set to true, replies of commands sent with sendCommand are skipped when reading the next one, 
+ * as for TCPCommandInterface. Other bytes left over are dropped before sending a request.
+ * Requests running past their deadline fail with SocketTimeoutException, as with the socket interfaces.
+ */
 public class SerialCommandInterface implements CommandInterface{
-	
+
 	SerialPort serial;
 	Logger logger;
 	String port;
 	int baudrate, databit, stopbit, parity;
-	
+	// optional terminator appended to every command, and the buffer reused for rendering commands
+	String commandTerminator;
+	private byte[] terminatorBytes;
+	private ByteBuffer sendBuffer;
+	// framing of responses, and milliseconds a request waits at most
+	String responseTerminator;
+	String errorTerminator;
+	int timeout, idleGap;
+	// true if the device answers every command, including those sent with sendCommand
+	boolean acknowledged;
+
+	// bytes received by the event thread, the buffer they are read into and the framer splitting them into responses
+	private ByteRingBuffer received;
+	private ByteBuffer readBuffer;
+	private TerminatorFramer framer;
+	private boolean connected = false;
+	// held by connect, disconnect and every command. A lock rather than a monitor, so virtual threads blocked on the port release their carrier
+	private final ReentrantLock lock = new ReentrantLock();
+
+	// default timeout when it's not configured, and sizes of the buffers
+	private static final int DEFAULT_TIMEOUT = 1000;
+	private static final int RING_BUFFER_SIZE = 16384;
+	private static final int READ_BUFFER_SIZE = 4096;
+
 	public SerialCommandInterface(HashMap<String, String> settings) throws IOException{
 		port = settings.get("port");
 		baudrate = Integer.parseInt(settings.get("baudrate"));
 		databit = Integer.parseInt(settings.get("databit"));
 		stopbit = Integer.parseInt(settings.get("stopbit"));
 		parity = Integer.parseInt(settings.get("parity"));
-		
-		try {
-			serial = new SerialPort(port);
-			if (!serial.setParams(baudrate, databit, stopbit, parity)) {
-				throw new IOException("Unable to set the parameters for the serial port");
-			}
-		} catch (SerialPortException e) {
-			throw new IOException("Unable to set the parameters for the serial port",e);
-		}
+		commandTerminator = settings.get("commandTerminator");
+		responseTerminator = settings.get("responseTerminator");
+		errorTerminator = settings.get("errorTerminator");
+		timeout = (settings.get("timeout") == null) ? DEFAULT_TIMEOUT : Integer.parseInt(settings.get("timeout"));
+		idleGap = TCPCommandInterface.defaultIdleGap(settings.get("idleGap"), timeout);
+		acknowledged = Boolean.parseBoolean(settings.get("acknowledged"));
+		init();
 	}
-	
+
 	public SerialCommandInterface(String p, int baud, int data, int stop, int pair) throws IOException{
+		this(p, baud, data, stop, pair, null, null, DEFAULT_TIMEOUT);
+	}
+
+	public SerialCommandInterface(String p, int baud, int data, int stop, int pair, String commandTerminator, String responseTerminator, int timeout) throws IOException{
 		port = p;
 		baudrate = baud;
 		databit = data;
 		stopbit = stop;
 		parity = pair;
-		
-		try {
-			serial = new SerialPort(port);
-			if (!serial.setParams(baudrate, databit, stopbit, parity)) {
-				throw new IOException("Unable to set the parameters for the serial port");
-			}
-		} catch (SerialPortException e) {
-			throw new IOException("Unable to set the parameters for the serial port",e);
+		this.commandTerminator = commandTerminator;
+		this.responseTerminator = responseTerminator;
+		this.timeout = timeout;
+		this.idleGap = TCPCommandInterface.defaultIdleGap(null, timeout);
+		init();
+	}
+
+	private void init() {
+		terminatorBytes = CompiledCommandTemplate.encodeTerminator(commandTerminator);
+		if (responseTerminator != null && !responseTerminator.equals("")) {
+			framer = new TerminatorFramer(responseTerminator, errorTerminator, !acknowledged);
 		}
+		serial = new SerialPort(port);
 	}
-	
-	
+
+
 	@Override
 	public void constructFromConfigurationFile(String path) throws IOException {
 		// TODO Auto-generated method stub
-		
+
 	}
 
 
+	/**
+	 * Opens the port, sets its parameters, and starts receiving its bytes into the ring buffer.
+	 * @throws IOException
+	 */
 	@Override
 	public void connect() throws IOException {
+		lock.lock();
 		try {
-			if (serial.openPort()) {
-				throw new IOException("Unable to open the serial port: "+ port);
+			if (logger==null) {
+				logger= LogManager.getLogger(SerialCommandInterface.class);
+			}
+			if (connected) {
+				logger.debug("Already connected to {}", port);
+				return;
+			}
+			try {
+				if (!serial.openPort()) {
+					throw new IOException("Unable to open the serial port: "+ port);
+				}
+				if (!serial.setParams(baudrate, databit, stopbit, parity)) {
+					serial.closePort();
+					throw new IOException("Unable to set the parameters for the serial port");
+				}
+				received = new ByteRingBuffer(RING_BUFFER_SIZE);
+				readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+				readBuffer.flip();
+				if (framer != null) {
+					framer.reset();
+				}
+				serial.addEventListener(new SerialPortEventListener() {
+					@Override
+					public void serialEvent(SerialPortEvent event) {
+						if (event.isRXCHAR() && event.getEventValue() > 0) {
+							try {
+								byte[] data = serial.readBytes(event.getEventValue());
+								if (data != null) {
+									received.write(data);
+								}
+							} catch (SerialPortException e) {
+								logger.warn("Failed reading from the port {} : {}", port, e.getMessage());
+							}
+						}
+					}
+				}, SerialPort.MASK_RXCHAR);
+				connected = true;
+			} catch (SerialPortException e) {
+				throw new IOException("Unable to open the serial port: "+ port,e);
 			}
-		} catch (SerialPortException e) {
-			throw new IOException("Unable to open the serial port: "+ port,e);
-		}		
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	@Override
 	public void disconnect() throws IOException {
+		lock.lock();
 		try {
-			if (serial.closePort()) {
-				throw new IOException("Unable to open the serial port: "+ port);
+			if (!connected) {
+				logger.debug("Not connected to {}", port);
+				return;
+			}
+			connected = false;
+			try {
+				serial.removeEventListener();
+				if (!serial.closePort()) {
+					throw new IOException("Unable to close the serial port: "+ port);
+				}
+			} catch (SerialPortException e) {
+				throw new IOException("Unable to close the serial port: "+ port,e);
 			}
-		} catch (SerialPortException e) {
-			throw new IOException("Unable to open the serial port: "+ port,e);
-		}	
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	@Override
 	public void sendCommand(String command, Parameter[] arguments) throws IOException {
-		String commandString = PositionalSyntaxCommandConstructor.constructCommandString(command, arguments);
+		send(new CompiledCommandTemplate(command), arguments);
+	}
+
+	@Override
+	public void sendCommand(Command command, Parameter[] arguments) throws IOException {
+		send(command.getCommandTemplate(), arguments);
+	}
+
+	private void send(CompiledCommandTemplate template, Parameter[] arguments) throws IOException {
+		lock.lock();
 		try {
-			if (serial.writeString(commandString)) {
-				throw new IOException("Failed writing to the port"+ port);
+			write(template, arguments);
+			if (acknowledged && framer != null) {
+				//. its reply is dropped when reading the next one
+				framer.skipReply();
 			}
-		} catch (SerialPortException e) {
-			throw new IOException("Failed writing to the port"+ port,e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void write(CompiledCommandTemplate template, Parameter[] arguments) throws IOException {
+		lock.lock();
+		try {
+			if (!connected) {
+				throw new IOException("Not connected to " + port);
+			}
+			sendBuffer = template.render(arguments, terminatorBytes, sendBuffer);
+			try {
+				//. jssc only takes byte array, copy the rendered part of the buffer
+				if (!serial.writeBytes(Arrays.copyOf(sendBuffer.array(), sendBuffer.position()))) {
+					throw new IOException("Failed writing to the port"+ port);
+				}
+			} catch (SerialPortException e) {
+				throw new IOException("Failed writing to the port"+ port,e);
+			}
+		} finally {
+			lock.unlock();
 		}
 	}
 
 	@Override
 	public Object sendRequest(String command, Parameter[] arguments) throws IOException {
-		String response;
+		return request(new CompiledCommandTemplate(command), arguments);
+	}
+
+	@Override
+	public Object sendRequest(Command command, Parameter[] arguments) throws IOException {
+		return request(command.getCommandTemplate(), arguments);
+	}
+
+	private Object request(CompiledCommandTemplate template, Parameter[] arguments) throws IOException {
+		lock.lock();
 		try {
-			sendCommand(command, arguments);
-			response = serial.readString();
-		} catch (SerialPortException e) {
-			throw new IOException("Failed reading from the port"+ port,e);
+			//. anything received so far answers an earlier command, left to the framer if it still has replies to skip
+			if (framer == null || framer.getRepliesToSkip() == 0) {
+				readBuffer.position(readBuffer.limit());
+				int stale = received.clear();
+				if (stale > 0) {
+					logger.debug("Dropping {} stale bytes from {}", stale, port);
+				}
+			}
+			write(template, arguments);
+			long deadline = System.currentTimeMillis() + timeout;
+			String response = (framer != null) ? readEndbyTerm(deadline) : readEndbyTime(deadline);
+			logger.debug("Response received : {}", response.trim());
+			return response.trim();
+		} finally {
+			lock.unlock();
+		}
+	}
+	/**
+	 * Moves bytes received into readBuffer, waiting for up to the given time.
+	 * @param Milliseconds to wait at most
+	 * @return number of bytes moved
+	 * @throws IOException
+	 */
+	private int fill(long waitMillis) throws IOException {
+		readBuffer.compact();
+		try {
+			return received.read(readBuffer, waitMillis);
+		} finally {
+			readBuffer.flip();
+		}
+	}
+	/**
+	 * Reads until the response terminator or the deadline. Bytes after the terminator are kept for the next response.
+	 * @param Time in milliseconds after which reading fails
+	 * @return response, terminator included
+	 * @throws IOException
+	 */
+	private String readEndbyTerm(long deadline) throws IOException {
+		while (!framer.feed(readBuffer)) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				framer.reset();
+				throw new SocketTimeoutException(String.format("Terminator was not read from %s for %d millisecond", port, timeout));
+			}
+			fill(remaining);
 		}
-		return response;
+		return framer.takeResponse();
 	}
-	
+	/**
+	 * Reads a response that has no terminator. Waits for the first byte until the deadline,
+	 * then the response is over once nothing arrives for idleGap.
+	 * @param Time in milliseconds after which waiting for the first byte fails
+	 * @return response
+	 * @throws IOException
+	 */
+	private String readEndbyTime(long deadline) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		while (!readBuffer.hasRemaining()) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				throw new SocketTimeoutException(String.format("Nothing was read from %s for %d millisecond", port, timeout));
+			}
+			fill(remaining);
+		}
+		do {
+			line.write(readBuffer.array(), readBuffer.arrayOffset() + readBuffer.position(), readBuffer.remaining());
+			readBuffer.position(readBuffer.limit());
+		} while (fill(idleGap) > 0);
+		return new String(line.toByteArray(), Charset.defaultCharset());
+	}
+	/**
+	 * Returns number of received bytes overwritten before being read
+	 * @return overrun bytes
+	 */
+	public long getOverrunCount() {
+		return (received == null) ? 0 : received.getOverrun();
+	}
+
 	// setting logger.
 	public void setLogger(String loggerName) {
 		logger= LogManager.getLogger(loggerName);
@@ -116,6 +329,6 @@ public class SerialCommandInterface implements CommandInterface{
 		logger = lgr;
 	}
 
-	
+
 
 }
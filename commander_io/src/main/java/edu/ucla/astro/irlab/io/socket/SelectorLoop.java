@@ -0,0 +1,228 @@
+package edu.ucla.astro.irlab.io.socket;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+/**
+ * SelectorLoop runs a single Selector on a single thread for any number of non-blocking channels.
+ * Channels register a Handler that the loop calls when they are readable, or writable again after a partial write,
+ * and tasks can be run on the loop right away or after a delay (e.g. response timeouts).
+ * Everything touching the Selector happens on the loop thread. Other threads hand it tasks and wake it up.
+ * Handlers and tasks must not block, as they hold up every other channel of the loop.
+ */
+public final class SelectorLoop implements Closeable {
+	/**
+	 * Called on the loop thread when the registered channel is readable, or writable while write interest is set.
+	 * Reads should go on until nothing is left, writes until everything is written or the socket buffer is full again.
+	 */
+	public interface Handler {
+		public void readable(SelectionKey key);
+		public void writable(SelectionKey key);
+	}
+	
+	private final Selector selector;
+	private final Thread thread;
+	// tasks handed by other threads, run on the next turn of the loop
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	// delayed tasks by due time. only touched on the loop thread
+	private final PriorityQueue<Timer> timers = new PriorityQueue<Timer>();
+	private final AtomicLong timerSequence = new AtomicLong();
+	private volatile boolean running = true;
+	private final Logger logger = LogManager.getLogger(SelectorLoop.class);
+	
+	/**
+	 * Task scheduled on the loop, which can be cancelled from any thread until it runs
+	 */
+	public final class Timer implements Comparable<Timer> {
+		private final long due;
+		private final long sequence;
+		private final Runnable task;
+		private volatile boolean cancelled = false;
+		private Timer(long due, long sequence, Runnable task) {
+			this.due = due;
+			this.sequence = sequence;
+			this.task = task;
+		}
+		/**
+		 * Cancels the task and removes it from the queue of the loop, so it holds no memory until due
+		 */
+		public void cancel() {
+			if (cancelled) {
+				return;
+			}
+			cancelled = true;
+			execute(new Runnable() {
+				@Override
+				public void run() {
+					timers.remove(Timer.this);
+				}
+			});
+		}
+		@Override
+		public int compareTo(Timer o) {
+			int c = Long.compare(due, o.due);
+			return (c != 0) ? c : Long.compare(sequence, o.sequence);
+		}
+	}
+	
+	/**
+	 * Opens the Selector and starts the loop on a daemon thread.
+	 * @param Name of the loop thread
+	 * @throws IOException
+	 */
+	public SelectorLoop(String name) throws IOException {
+		selector = Selector.open();
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				loop();
+			}
+		}, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+	/**
+	 * Returns true if called from the loop thread
+	 * @return true on the loop thread
+	 */
+	public boolean inLoop() {
+		return Thread.currentThread() == thread;
+	}
+	/**
+	 * Runs the task on the loop thread.
+	 * @param Task that does not block
+	 */
+	public void execute(Runnable task) {
+		tasks.add(task);
+		if (!inLoop()) {
+			selector.wakeup();
+		}
+	}
+	/**
+	 * Runs the task on the loop thread after the delay.
+	 * @param Task that does not block
+	 * @param Delay in milliseconds
+	 * @return Timer to cancel the task with
+	 */
+	public Timer schedule(final Runnable task, long delayMillis) {
+		final Timer timer = new Timer(System.nanoTime() + delayMillis * 1000000L, timerSequence.getAndIncrement(), task);
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				if (!timer.cancelled) {
+					timers.add(timer);
+				}
+			}
+		});
+		return timer;
+	}
+	/**
+	 * Sets or clears write interest of a registered channel, on the loop thread.
+	 * Set after a write left bytes behind, so the Handler is called once the socket buffer has room.
+	 * @param Key of the channel
+	 * @param true to be called when writable
+	 */
+	public void setWriteInterest(final SelectionKey key, final boolean write) {
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				if (key.isValid()) {
+					key.interestOps(write ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+				}
+			}
+		};
+		if (inLoop()) {
+			task.run();
+		} else {
+			execute(task);
+		}
+	}
+	/**
+	 * Registers a non-blocking channel for reading.
+	 * @param Channel in non-blocking mode
+	 * @param Handler called when the channel is readable
+	 * @return future of the SelectionKey, completed once the loop registered the channel
+	 */
+	public CompletableFuture<SelectionKey> register(final SelectableChannel channel, final Handler handler) {
+		final CompletableFuture<SelectionKey> future = new CompletableFuture<SelectionKey>();
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					future.complete(channel.register(selector, SelectionKey.OP_READ, handler));
+				} catch (IOException e) {
+					future.completeExceptionally(e);
+				}
+			}
+		});
+		return future;
+	}
+	
+	private void loop() {
+		while (running) {
+			try {
+				if (!tasks.isEmpty()) {
+					selector.selectNow();
+				} else if (timers.isEmpty()) {
+					selector.select();
+				} else {
+					long wait = (timers.peek().due - System.nanoTime()) / 1000000L;
+					if (wait > 0) {
+						selector.select(wait);
+					} else {
+						selector.selectNow();
+					}
+				}
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					Handler handler = (Handler) key.attachment();
+					if (key.isValid() && key.isReadable()) {
+						handler.readable(key);
+					}
+					if (key.isValid() && key.isWritable()) {
+						handler.writable(key);
+					}
+				}
+				Runnable task;
+				while ((task = tasks.poll()) != null) {
+					task.run();
+				}
+				long now = System.nanoTime();
+				while (!timers.isEmpty() && timers.peek().due - now <= 0) {
+					Timer timer = timers.poll();
+					if (!timer.cancelled) {
+						timer.task.run();
+					}
+				}
+			} catch (Throwable e) {
+				//. one misbehaving channel must not stop the others
+				logger.error("Error in selector loop", e);
+			}
+		}
+		try {
+			selector.close();
+		} catch (IOException e) {
+			logger.debug("Error while closing selector : {}", e.getMessage());
+		}
+	}
+	/**
+	 * Stops the loop and closes the Selector. Registered channels are left open.
+	 */
+	@Override
+	public void close() {
+		running = false;
+		selector.wakeup();
+	}
+}
@@ -0,0 +1,722 @@
+package edu.ucla.astro.irlab.io.socket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import edu.ucla.astro.irlab.io.AsyncCommandInterface;
+import edu.ucla.astro.irlab.io.Command;
+import edu.ucla.astro.irlab.io.CompiledCommandTemplate;
+import edu.ucla.astro.irlab.io.Parameter;
+import edu.ucla.astro.irlab.io.TerminatorFramer;
+/**
+ * TCP CommandInterface built on a non-blocking SocketChannel and a Selector.
+ * Responses are read into a reusable direct ByteBuffer and framed by TerminatorFramer,
+ * which keeps its scan state across reads instead of searching the whole response after every character.
+ * Configured with the same connectionProperties as TCPCommandInterface, using "tcpchannel" as type.
+ * When given a shared SelectorLoop before connecting, and a response terminator is configured, 
+ * the channel is read by the loop thread instead of the caller: every command written takes a place 
+ * in a FIFO of pending responses, as on a pipelined TCPCommandInterface, and replies complete them in order.
+ * No thread is then blocked while waiting for the device, nor while the socket buffer is full: 
+ * what a write leaves behind is written by the loop once the channel is writable again.
+ * An "errorTerminator" completes the reply of a rejected command, as for TCPCommandInterface.
+ * Likewise, commands sent with sendCommand only get a reply with "acknowledged" set to true. It then takes its place in the FIFO 
+ * and is awaited on the loop, or is skipped when reading the next reply in blocking mode. Otherwise the command is done once written.
+ */
+public class TCPChannelCommandInterface implements AsyncCommandInterface {
+	// Socket informations
+	private String host;
+	private int port;
+	private String commandTerminator;
+	private String responseTerminator;
+	// reply of a rejected command, sent instead of a terminated response
+	private String errorTerminator;
+	private int timeout;
+	// milliseconds of silence after which a response without terminator is considered complete
+	private int idleGap;
+	// true if the device answers every command, including those sent with sendCommand
+	private boolean acknowledged;
+
+	// Channel, its selector and the buffers reused for every command and response
+	private transient SocketChannel channel;
+	private transient Selector selector;
+	private transient ByteBuffer sendBuffer;
+	private transient ByteBuffer readBuffer;
+	private transient byte[] terminatorBytes;
+	private transient TerminatorFramer framer;
+	
+	// shared loop reading the channel in asynchronous mode, the key of the channel, and commands waiting for their reply
+	private transient SelectorLoop loop;
+	private transient SelectionKey loopKey;
+	private transient ArrayDeque<PendingResponse> pending;
+	// held while writing a command, and in blocking mode while reading its reply.
+	// A lock rather than a monitor, so virtual threads waiting on it release their carrier
+	private final transient ReentrantLock lock = new ReentrantLock();
+	// bytes of commands the socket buffer had no room for, in write mode, and true while the loop waits for the channel to be writable
+	private transient ByteBuffer outbound;
+	private transient boolean writeInterest;
+
+	// size of the direct buffer each read fills
+	private static final int READ_BUFFER_SIZE = 8192;
+
+	// boolean monitoring socket connection status
+	public transient boolean connected = false;
+	// Log4J logger. (might change to custom logging)
+	private transient Logger logger;
+
+
+	// setting logger.
+	public void setLogger(Object loggerName) {
+		logger= LogManager.getLogger(loggerName);
+	}
+	public void setLogger(Logger lgr) {
+		logger = lgr;
+	}
+
+	public TCPChannelCommandInterface(HashMap<String, String> settings) {
+		this.host = settings.get("host");
+		this.port = Integer.parseInt(settings.get("port"));
+		this.commandTerminator = settings.get("commandTerminator");
+		this.responseTerminator = settings.get("responseTerminator");
+		this.errorTerminator = settings.get("errorTerminator");
+		this.timeout = Integer.parseInt(settings.get("timeout"));
+		this.idleGap = TCPCommandInterface.defaultIdleGap(settings.get("idleGap"), timeout);
+		this.acknowledged = Boolean.parseBoolean(settings.get("acknowledged"));
+		init();
+	}
+	public TCPChannelCommandInterface(String host, int port, String commandTerminator, String responseTerminator, int timeout) {
+		this(host, port, commandTerminator, responseTerminator, timeout, TCPCommandInterface.defaultIdleGap(null, timeout));
+	}
+	public TCPChannelCommandInterface(String host, int port, String commandTerminator, String responseTerminator, int timeout, int idleGap) {
+		this.host = host;
+		this.port = port;
+		this.commandTerminator = commandTerminator;
+		this.responseTerminator = responseTerminator;
+		this.timeout = timeout;
+		this.idleGap = idleGap;
+		init();
+	}
+	private void init() {
+		this.terminatorBytes = CompiledCommandTemplate.encodeTerminator(commandTerminator);
+		if (responseTerminator != null && !responseTerminator.equals("")) {
+			//. a lone terminator is an acknowledge if the device sends them, a leftover otherwise
+			this.framer = new TerminatorFramer(responseTerminator, errorTerminator, !acknowledged);
+		}
+		this.pending = new ArrayDeque<PendingResponse>();
+	}
+	/**
+	 * Sets the shared loop that reads the channel. Must be set before connecting, 
+	 * and is ignored without response terminator, as replies couldn't be told apart.
+	 * @param Shared SelectorLoop
+	 */
+	public void setSelectorLoop(SelectorLoop loop) {
+		lock.lock();
+		try {
+			if (connected) {
+				throw new IllegalStateException("Selector loop must be set before connecting");
+			}
+			if (responseTerminator != null && !responseTerminator.equals("")) {
+				this.loop = loop;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+	@Override
+	public boolean isAsync() {
+		return loop != null && connected;
+	}
+
+	/**
+	 * Connects the channel with timeout, then switches it to non-blocking mode and registers it for reading.
+	 * Buffers and framer are ready before registering, as the loop may read a banner of the device right away.
+	 * The channel stays connected until disconnect is called
+	 * @throws IOException
+	 */
+	@Override
+	public void connect() throws IOException  {
+		lock.lock();
+		try {
+			if (logger==null) {
+				logger= LogManager.getLogger(TCPChannelCommandInterface.class);
+			}
+			if (!connected) {
+				logger.debug("Opening TCP channel on {} port {}", host, port);
+				readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+				readBuffer.flip();
+				sendBuffer = ByteBuffer.allocateDirect(256);
+				outbound = ByteBuffer.allocate(256);
+				writeInterest = false;
+				if (framer != null) {
+					framer.reset();
+				}
+				channel = SocketChannel.open();
+				try {
+					channel.socket().connect(new InetSocketAddress(host, port), timeout);
+					channel.socket().setTcpNoDelay(true);
+					channel.configureBlocking(false);
+					if (loop != null) {
+						loopKey = loop.register(channel, new SelectorLoop.Handler() {
+							@Override
+							public void readable(SelectionKey key) {
+								readAvailable();
+							}
+							@Override
+							public void writable(SelectionKey key) {
+								flush();
+							}
+						}).get(timeout, TimeUnit.MILLISECONDS);
+					} else {
+						selector = Selector.open();
+						channel.register(selector, SelectionKey.OP_READ);
+					}
+				} catch (IOException e) {
+					channel.close();
+					throw e;
+				} catch (Exception e) {
+					channel.close();
+					throw new IOException("Failed to register channel to the selector loop", e);
+				}
+				connected = true;
+			} else {
+				logger.debug("Already connected to {}, port {}", host, port);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+	/**
+	 * Closes the selector and the channel.
+	 * @throws IOException
+	 */
+	@Override
+	public void disconnect() throws IOException{
+		lock.lock();
+		try {
+			if (connected) {
+				logger.debug("Closing channel connection");
+				connected = false;
+				if (loop != null) {
+					loopKey.cancel();
+					failPending(new IOException(String.format("Disconnected from %s:%d", host, port)));
+					channel.close();
+				} else {
+					close();
+				}
+			} else {
+				logger.debug("Not connected to {}, port {}", host, port);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+	/**
+	 * Closes the selector and the channel of the blocking mode, also when the device closed the connection.
+	 * @throws IOException
+	 */
+	private void close() throws IOException {
+		connected = false;
+		try {
+			selector.close();
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Override
+	public void sendCommand(String command, Parameter[] arguments) throws IOException {
+		send(new CompiledCommandTemplate(command), arguments);
+	}
+
+	@Override
+	public void sendCommand(Command command, Parameter[] arguments) throws IOException {
+		send(command.getCommandTemplate(), arguments);
+	}
+
+	private void send(CompiledCommandTemplate template, Parameter[] arguments) throws IOException {
+		if (loop != null && acknowledged) {
+			//. the acknowledge takes its place in the FIFO, so it is awaited as well
+			await(requestAsync(template, arguments));
+			return;
+		}
+		lock.lock();
+		try {
+			if (loop != null) {
+				writeToLoop(template, arguments);
+			} else {
+				write(template, arguments);
+				if (acknowledged && framer != null) {
+					//. its reply is dropped when reading the next one
+					framer.skipReply();
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Object sendRequest(String command, Parameter[] arguments) throws IOException {
+		return request(new CompiledCommandTemplate(command), arguments);
+	}
+
+	@Override
+	public Object sendRequest(Command command, Parameter[] arguments) throws IOException {
+		return request(command.getCommandTemplate(), arguments);
+	}
+
+	@Override
+	public CompletableFuture<Object> sendRequestAsync(Command command, Parameter[] arguments) {
+		return requestAsync(command.getCommandTemplate(), arguments);
+	}
+
+	@Override
+	public CompletableFuture<Object> sendCommandAsync(Command command, Parameter[] arguments) {
+		if (loop != null && !acknowledged) {
+			//. no reply to wait for, the command is done once written
+			CompletableFuture<Object> written = new CompletableFuture<Object>();
+			try {
+				send(command.getCommandTemplate(), arguments);
+				written.complete(null);
+			} catch (IOException e) {
+				written.completeExceptionally(e);
+			}
+			return written;
+		}
+		return requestAsync(command.getCommandTemplate(), arguments).thenApply(new Function<Object, Object>() {
+			@Override
+			public Object apply(Object ack) {
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Reply slot of a command sent in asynchronous mode
+	 */
+	private static final class PendingResponse {
+		private final CompletableFuture<Object> future = new CompletableFuture<Object>();
+	}
+
+	/**
+	 * Writes the command and returns the future its reply will complete. 
+	 * @param Compiled command structure
+	 * @param Parameters to fill in the command
+	 * @return future of the trimmed response
+	 */
+	private CompletableFuture<Object> requestAsync(CompiledCommandTemplate template, Parameter[] arguments) {
+		return writeAsync(template, arguments, 1)[0].future;
+	}
+	/**
+	 * Writes the command and returns the slots its replies will complete. 
+	 * The slots are queued under the write lock, so FIFO order is the order commands are on the wire.
+	 * If the last reply doesn't arrive within timeout, the loop fails every pending command. The timer is cancelled once it does.
+	 * @param Compiled command structure
+	 * @param Parameters to fill in the command
+	 * @param Number of replies the command expects
+	 * @return slots of the replies, in order
+	 */
+	private PendingResponse[] writeAsync(CompiledCommandTemplate template, Parameter[] arguments, int count) {
+		final PendingResponse[] slots = new PendingResponse[count];
+		for (int ii = 0; ii<count; ii++) {
+			slots[ii] = new PendingResponse();
+		}
+		final PendingResponse last = slots[count - 1];
+		if (loop == null) {
+			for (PendingResponse slot : slots) {
+				slot.future.completeExceptionally(new IOException("No selector loop is set for " + host + ":" + port));
+			}
+			return slots;
+		}
+		try {
+			lock.lock();
+			try {
+				synchronized (pending) {
+					for (PendingResponse slot : slots) {
+						pending.addLast(slot);
+					}
+				}
+				writeToLoop(template, arguments);
+			} finally {
+				lock.unlock();
+			}
+		} catch (IOException e) {
+			synchronized (pending) {
+				for (PendingResponse slot : slots) {
+					pending.removeLastOccurrence(slot);
+				}
+			}
+			for (PendingResponse slot : slots) {
+				slot.future.completeExceptionally(e);
+			}
+			return slots;
+		}
+		final SelectorLoop.Timer timer = loop.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (!last.future.isDone()) {
+					//. replies come in order, so nothing pending can be trusted anymore
+					readBuffer.position(readBuffer.limit());
+					framer.reset();
+					failPending(new SocketTimeoutException(String.format("Terminator was not read from %s:%d for %d millisecond", host, port, timeout)));
+				}
+			}
+		}, timeout);
+		last.future.whenComplete(new BiConsumer<Object, Throwable>() {
+			@Override
+			public void accept(Object response, Throwable error) {
+				timer.cancel();
+			}
+		});
+		return slots;
+	}
+	/**
+	 * Writes several commands joined into one, and reads one terminated reply per command,
+	 * acknowledges included. Without response terminator, the combined reply is read as one response.
+	 * @param Rendered commands joined with the device separator
+	 * @param Number of commands joined
+	 * @return List of trimmed responses, one per command, or combined response without terminator
+	 * @throws IOException
+	 */
+	@Override
+	public Object sendBatch(String commands, int count) throws IOException {
+		CompiledCommandTemplate template = new CompiledCommandTemplate(commands);
+		if (framer == null) {
+			return request(template, new Parameter[0]);
+		}
+		ArrayList<Object> responses = new ArrayList<Object>(count);
+		if (loop != null) {
+			for (PendingResponse slot : writeAsync(template, new Parameter[0], count)) {
+				responses.add(await(slot.future));
+			}
+		} else {
+			lock.lock();
+			try {
+				write(template, new Parameter[0]);
+				for (int ii = 0; ii<count; ii++) {
+					String response = readEndbyTerm(framer);
+					logger.debug("Response received : {}", response.trim());
+					responses.add(response.trim());
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		return responses;
+	}
+	/**
+	 * Reads everything available on the channel and completes pending commands with the complete replies. 
+	 * Runs on the loop thread.
+	 */
+	private void readAvailable() {
+		try {
+			int n;
+			do {
+				readBuffer.compact();
+				try {
+					n = channel.read(readBuffer);
+				} finally {
+					readBuffer.flip();
+				}
+				while (framer.feed(readBuffer)) {
+					String response = framer.takeResponse();
+					PendingResponse head;
+					synchronized (pending) {
+						head = pending.pollFirst();
+					}
+					if (head != null) {
+						logger.debug("Response received : {}", response.trim());
+						head.future.complete(response.trim());
+					} else {
+						logger.warn("Dropping reply with no pending command : {}", response.trim());
+					}
+				}
+			} while (n > 0);
+			if (n < 0) {
+				throw new IOException(String.format("Connection to %s:%d was closed by the device", host, port));
+			}
+		} catch (IOException e) {
+			closeOnLoop(e);
+		}
+	}
+	/**
+	 * Writes commands left behind by earlier writes, and clears write interest once none is left. 
+	 * Runs on the loop thread when the channel is writable.
+	 */
+	private void flush() {
+		try {
+			lock.lock();
+			try {
+				outbound.flip();
+				try {
+					channel.write(outbound);
+				} finally {
+					outbound.compact();
+				}
+				if (outbound.position() == 0 && writeInterest) {
+					writeInterest = false;
+					loop.setWriteInterest(loopKey, false);
+				}
+			} finally {
+				lock.unlock();
+			}
+		} catch (IOException e) {
+			closeOnLoop(e);
+		}
+	}
+	/**
+	 * Closes the channel of the asynchronous mode after an error or the end of stream, failing every pending command.
+	 * Runs on the loop thread.
+	 * @param Cause
+	 */
+	private void closeOnLoop(IOException e) {
+		lock.lock();
+		try {
+			if (!connected) {
+				return;
+			}
+			logger.warn("Closing channel to {}:{} : {}", host, port, e.getMessage());
+			connected = false;
+			loopKey.cancel();
+			try {
+				channel.close();
+			} catch (IOException ce) {
+				logger.debug("Error while closing channel : {}", ce.getMessage());
+			}
+		} finally {
+			lock.unlock();
+		}
+		failPending(e);
+	}
+	/**
+	 * Fails every command waiting for its reply.
+	 * @param Cause
+	 */
+	private void failPending(IOException e) {
+		ArrayList<PendingResponse> failed;
+		synchronized (pending) {
+			failed = new ArrayList<PendingResponse>(pending);
+			pending.clear();
+		}
+		for (PendingResponse p : failed) {
+			p.future.completeExceptionally(e);
+		}
+	}
+	/**
+	 * Blocks until the future of an asynchronous request completes.
+	 * @param Future of the request
+	 * @return response
+	 * @throws IOException
+	 */
+	private Object await(CompletableFuture<Object> future) throws IOException {
+		try {
+			//. the loop fails the request after timeout. the extra wait only guards against a stopped loop
+			return future.get(2L * timeout + 1000, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for reply from " + host + ":" + port);
+		} catch (TimeoutException e) {
+			throw new SocketTimeoutException(String.format("No reply from %s:%d", host, port));
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private Object request(CompiledCommandTemplate template, Parameter[] arguments) throws IOException {
+		if (loop != null) {
+			return await(requestAsync(template, arguments));
+		}
+		lock.lock();
+		try {
+			return readResponse(template, arguments);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private Object readResponse(CompiledCommandTemplate template, Parameter[] arguments) throws IOException {
+		write(template, arguments);
+		String response;
+		if (framer != null) {
+			response = readEndbyTerm(framer);
+		} else {
+			response = readEndbyTime();
+		}
+		logger.debug("Response received : {}", response.trim());
+		return response.trim();
+	}
+
+	/**
+	 * Renders the command into the direct send buffer, and writes it fully to the channel. Blocking mode only.
+	 * @param Compiled command structure
+	 * @param Parameters to fill in the command
+	 * @throws IOException
+	 */
+	private void write(CompiledCommandTemplate template, Parameter[] arguments) throws IOException {
+		lock.lock();
+		try {
+			if (!connected) {
+				throw new IOException("Not connected to " + host + ":" + port);
+			}
+			sendBuffer = template.render(arguments, terminatorBytes, sendBuffer);
+			if (logger.isDebugEnabled()) {
+				logger.debug("Sending command, {}", CompiledCommandTemplate.decode(sendBuffer, terminatorBytes));
+			}
+			sendBuffer.flip();
+			long deadline = System.currentTimeMillis() + timeout;
+			while (sendBuffer.hasRemaining()) {
+				if (channel.write(sendBuffer) == 0) {
+					awaitWritable(deadline);
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+	/**
+	 * Renders the command and writes as much of it as the socket buffer takes, without blocking.
+	 * The rest is kept in the outbound buffer and written by the loop once the channel is writable.
+	 * Called with the write lock held, so commands are on the wire in the order their replies are queued.
+	 * @param Compiled command structure
+	 * @param Parameters to fill in the command
+	 * @throws IOException
+	 */
+	private void writeToLoop(CompiledCommandTemplate template, Parameter[] arguments) throws IOException {
+		if (!connected) {
+			throw new IOException("Not connected to " + host + ":" + port);
+		}
+		sendBuffer = template.render(arguments, terminatorBytes, sendBuffer);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Sending command, {}", CompiledCommandTemplate.decode(sendBuffer, terminatorBytes));
+		}
+		sendBuffer.flip();
+		if (outbound.position() == 0) {
+			//. nothing left behind by earlier commands, which would have to go first
+			channel.write(sendBuffer);
+		}
+		if (sendBuffer.hasRemaining()) {
+			if (outbound.remaining() < sendBuffer.remaining()) {
+				ByteBuffer larger = ByteBuffer.allocate(Math.max(outbound.capacity() * 2, outbound.position() + sendBuffer.remaining()));
+				outbound.flip();
+				larger.put(outbound);
+				outbound = larger;
+			}
+			outbound.put(sendBuffer);
+			if (!writeInterest) {
+				writeInterest = true;
+				loop.setWriteInterest(loopKey, true);
+			}
+		}
+	}
+	/**
+	 * Waits until the socket buffer has room again, when the device doesn't read as fast as commands are written.
+	 * @param Time in milliseconds after which the write is given up
+	 * @throws IOException
+	 */
+	private void awaitWritable(long deadline) throws IOException {
+		long remaining = deadline - System.currentTimeMillis();
+		if (remaining <= 0) {
+			throw new SocketTimeoutException(String.format("Command could not be written to %s:%d for %d millisecond", host, port, timeout));
+		}
+		SelectionKey key = channel.keyFor(selector);
+		key.interestOps(SelectionKey.OP_WRITE);
+		try {
+			selector.selectedKeys().clear();
+			selector.select(remaining);
+		} finally {
+			key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+	/**
+	 * Waits until the channel is readable or the time is over, and reads what is available into readBuffer.
+	 * @param Milliseconds to wait at most
+	 * @return number of bytes read, 0 if nothing arrived in time
+	 * @throws IOException
+	 */
+	private int fill(long waitMillis) throws IOException {
+		readBuffer.compact();
+		try {
+			int n = channel.read(readBuffer);
+			if (n == 0 && waitMillis > 0) {
+				selector.selectedKeys().clear();
+				if (selector.select(waitMillis) > 0) {
+					n = channel.read(readBuffer);
+				}
+			}
+			if (n < 0) {
+				close();
+				throw new IOException(String.format("Connection to %s:%d was closed by the device", host, port));
+			}
+			return n;
+		} finally {
+			readBuffer.flip();
+		}
+	}
+
+	private String readEndbyTerm(TerminatorFramer framer) throws IOException {
+		logger.debug("Reading until terminator is reached.");
+		long deadline = System.currentTimeMillis() + timeout;
+		//. bytes left over from a previous read belong to this response
+		while (!framer.feed(readBuffer)) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				framer.reset();
+				throw new SocketTimeoutException(String.format("Terminator was not read from %s:%d for %d millisecond", host, port, timeout));
+			}
+			fill(remaining);
+		}
+		return framer.takeResponse();
+	}
+
+	private String readEndbyTime() throws IOException {
+		logger.debug("Waiting for channel to be ready");
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		long deadline = System.currentTimeMillis() + timeout;
+		while (!readBuffer.hasRemaining()) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				throw new SocketTimeoutException(String.format("Nothing was read from %s:%d for %d millisecond", host, port, timeout));
+			}
+			fill(remaining);
+		}
+		//. response is over once the selector sees no data for idleGap
+		do {
+			while (readBuffer.hasRemaining()) {
+				line.write(readBuffer.get());
+			}
+		} while (fill(idleGap) > 0);
+		return new String(line.toByteArray(), Charset.defaultCharset());
+	}
+
+	/**
+	 * Does nothing: the interface is configured from the connectionProperties given to its constructor.
+	 * @param Path of the configuration file, ignored
+	 */
+	@Override
+	public void constructFromConfigurationFile(String path) throws IOException {
+	}
+
+}
@@ -1,35 +1,81 @@
 package edu.ucla.astro.irlab.io.socket;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.io.Writer;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import edu.ucla.astro.irlab.io.Command;
 import edu.ucla.astro.irlab.io.CommandInterface;
+import edu.ucla.astro.irlab.io.CompiledCommandTemplate;
 import edu.ucla.astro.irlab.io.Parameter;
-import edu.ucla.astro.irlab.io.PositionalSyntaxCommandConstructor;
+import edu.ucla.astro.irlab.io.TerminatorFramer;
 //TODO separate TCP and UDP
+/**
+ * TCP CommandInterface on a blocking Socket.
+ * With "pipelineDepth" above 1 in connectionProperties, up to that many commands can be on the wire at once.
+ * Every request takes a place in a FIFO of pending responses, and each reply read is handed to the oldest one.
+ * Whichever waiting caller finds no reader in progress reads for all of them.
+ * Devices answering every command with one terminated reply, a lone terminator for a plain acknowledge (e.g. ":" on Galil),
+ * are configured with "acknowledged" set to true. Commands sent with sendCommand then take their place in the FIFO as well
+ * when pipelined, and have their reply skipped when reading the next one otherwise.
+ * By default a command gets no reply, and a terminator read before the actual response is dropped.
+ * An "errorTerminator" (e.g. "?" on Galil) completes the reply of a rejected command, which gets no terminated reply.
+ */
 public class TCPCommandInterface implements CommandInterface {
 	// Socket informations
 	private String host;
 	private int port;
 	private String commandTerminator;
 	private String responseTerminator;
+	// reply of a rejected command, sent instead of a terminated response
+	private String errorTerminator;
 	private int timeout;
+	// milliseconds of silence after which a response without terminator is considered complete
+	private int idleGap;
+	// maximum number of commands waiting for their reply. 1 sends the next command only after the reply was read
+	private int pipelineDepth;
+	// true if the device answers every command, including those sent with sendCommand
+	private boolean acknowledged;
 	
-	// TCP socket and I/O. used Writer instead of PrintWriter 
-	// because JSON gives error with PrintWriter
+	// TCP socket and I/O. Commands are written as raw bytes rendered by CompiledCommandTemplate
 	private transient Socket tcpSocket;
-	private transient Writer out;
-	private transient BufferedReader in;
+	private transient OutputStream out;
+	private transient InputStream in;
+	// encoded commandTerminator and the buffer reused for every command sent
+	private transient byte[] terminatorBytes;
+	private transient ByteBuffer sendBuffer;
+	// bytes read from the socket, kept ready to be read, and the framer splitting them into responses
+	private transient ByteBuffer readBuffer;
+	private transient TerminatorFramer framer;
+	
+	// held while writing a command, and while reading its reply when not pipelined
+	private final transient ReentrantLock lock = new ReentrantLock();
+	// commands written and still waiting for their reply, oldest first, guarded by pendingLock
+	// which signals every change of the pipeline. Locks rather than monitors, so virtual threads waiting on them release their carrier
+	private transient ArrayDeque<PendingResponse> pending;
+	private final transient ReentrantLock pendingLock = new ReentrantLock();
+	private final transient Condition pendingChanged = pendingLock.newCondition();
+	// true while a caller is reading replies for the pending commands
+	private transient boolean reading = false;
+	
+	// size of the buffer each read fills
+	private static final int READ_BUFFER_SIZE = 8192;
 	
 	// boolean monitoring socket connection status
 	public transient boolean connected = false;
@@ -50,14 +96,65 @@ public class TCPCommandInterface implements CommandInterface {
 		this.port = Integer.parseInt(settings.get("port"));
 		this.commandTerminator = settings.get("commandTerminator");
 		this.responseTerminator = settings.get("responseTerminator");
+		this.errorTerminator = settings.get("errorTerminator");
 		this.timeout = Integer.parseInt(settings.get("timeout"));
+		this.idleGap = defaultIdleGap(settings.get("idleGap"), timeout);
+		this.pipelineDepth = (settings.get("pipelineDepth") == null) ? 1 : Integer.parseInt(settings.get("pipelineDepth"));
+		this.acknowledged = Boolean.parseBoolean(settings.get("acknowledged"));
+		init();
 	}
 	public TCPCommandInterface(String host, int port, String commandTerminator, String responseTerminator, int timeout) {
+		this(host, port, commandTerminator, responseTerminator, timeout, defaultIdleGap(null, timeout), 1);
+	}
+	public TCPCommandInterface(String host, int port, String commandTerminator, String responseTerminator, int timeout, int idleGap) {
+		this(host, port, commandTerminator, responseTerminator, timeout, idleGap, 1);
+	}
+	public TCPCommandInterface(String host, int port, String commandTerminator, String responseTerminator, int timeout, int idleGap, int pipelineDepth) {
 		this.host = host;
 		this.port = port;
 		this.commandTerminator = commandTerminator;
 		this.responseTerminator = responseTerminator;
 		this.timeout = timeout;
+		this.idleGap = idleGap;
+		this.pipelineDepth = pipelineDepth;
+		init();
+	}
+	private void init() {
+		this.terminatorBytes = CompiledCommandTemplate.encodeTerminator(commandTerminator);
+		this.pending = new ArrayDeque<PendingResponse>();
+		if (responseTerminator != null && !responseTerminator.equals("")) {
+			//. a lone terminator is an acknowledge if the device sends them, a leftover otherwise
+			this.framer = new TerminatorFramer(responseTerminator, errorTerminator, !acknowledged);
+		} else {
+			this.pipelineDepth = 1;
+		}
+	}
+	/**
+	 * Returns true if more than one command can wait for its reply at once.
+	 * Pipelining needs a response terminator to tell the replies apart.
+	 * @return true if pipelined
+	 */
+	public boolean isPipelined() {
+		return pipelineDepth > 1;
+	}
+	/**
+	 * Returns maximum number of commands waiting for their reply
+	 * @return pipeline depth
+	 */
+	public int getPipelineDepth() {
+		return pipelineDepth;
+	}
+	/**
+	 * Returns idle gap from configuration, or a hundredth of the timeout if it's not configured.
+	 * @param Configured idle gap, may be null
+	 * @param Timeout in milliseconds
+	 * @return idle gap in milliseconds, at least 1
+	 */
+	public static int defaultIdleGap(String setting, int timeout) {
+		if (setting != null && setting.length() > 0) {
+			return Math.max(1, Integer.parseInt(setting));
+		}
+		return Math.max(1, timeout/100);
 	}
 
 	/**
@@ -79,8 +176,13 @@ public class TCPCommandInterface implements CommandInterface {
 			tcpSocket.setSoTimeout(timeout);
 
 			logger.debug("Opening I/O stream");
-			out = new PrintWriter(tcpSocket.getOutputStream(), true);
-			in = new BufferedReader(new InputStreamReader(tcpSocket.getInputStream()));
+			out = tcpSocket.getOutputStream();
+			in = tcpSocket.getInputStream();
+			readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+			readBuffer.flip();
+			if (framer != null) {
+				framer.reset();
+			}
 			connected = true;
 		} else {
 			logger.debug("Already connected to {}, port {}", host, port);
@@ -113,23 +215,73 @@ public class TCPCommandInterface implements CommandInterface {
 	 */
 	@Override
 	public void sendCommand(String command, Parameter[] arguments)	throws IOException {
-		
-		String commandString = PositionalSyntaxCommandConstructor.constructCommandString(command, arguments);
-		
-		logger.debug("Sending command, {}", commandString);
-
-		((PrintWriter) out).println(commandString + commandTerminator);
+		send(new CompiledCommandTemplate(command), arguments);
+	}
+	
+	@Override
+	public void sendCommand(Command command, Parameter[] arguments) throws IOException {
+		send(command.getCommandTemplate(), arguments);
+	}
+	
+	private void send(CompiledCommandTemplate template, Parameter[] arguments) throws IOException {
+		if (!acknowledged || framer == null) {
+			write(template, arguments);
+		} else if (isPipelined()) {
+			//. the acknowledge still takes its place in the FIFO, so it is read before returning
+			pipelinedRequest(template, arguments);
+		} else {
+			lock.lock();
+			try {
+				write(template, arguments);
+				//. its reply is dropped when reading the next one
+				framer.skipReply();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Renders the command and its terminator into the reusable buffer, and writes it to the socket at once.
+	 * @param Compiled command structure
+	 * @param Parameters to fill in the command
+	 * @throws IOException
+	 */
+	private void write(CompiledCommandTemplate template, Parameter[] arguments) throws IOException {
+		lock.lock();
+		try {
+			sendBuffer = template.render(arguments, terminatorBytes, sendBuffer);
+			if (logger.isDebugEnabled()) {
+				logger.debug("Sending command, {}", CompiledCommandTemplate.decode(sendBuffer, terminatorBytes));
+			}
+			out.write(sendBuffer.array(), sendBuffer.arrayOffset(), sendBuffer.position());
+			out.flush();
+		} finally {
+			lock.unlock();
+		}
 	}
-
 	
 	@Override
 	public Object sendRequest(String command, Parameter[] arguments) throws IOException {
-		
+		return request(new CompiledCommandTemplate(command), arguments);
+	}
+	
+	@Override
+	public Object sendRequest(Command command, Parameter[] arguments) throws IOException {
+		return request(command.getCommandTemplate(), arguments);
+	}
+	
+	private Object request(CompiledCommandTemplate template, Parameter[] arguments) throws IOException {
+		if (isPipelined()) {
+			return pipelinedRequest(template, arguments);
+		}
+		lock.lock();
+		try {
 			String response = "";
-			sendCommand(command,arguments);
+			write(template,arguments);
 			
-			if (responseTerminator!=null && !responseTerminator.equals("")) {
-				response = readEndbyTerm();
+			if (framer != null) {
+				response = readEndbyTerm(framer);
 			} else {
 				response = readEndbyTime();
 			}
@@ -137,59 +289,282 @@ public class TCPCommandInterface implements CommandInterface {
 //			System.out.println(response.trim());
 			logger.debug("Response received : {}", response.trim());
 			return response.trim();
-
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Writes several commands joined into one, and reads one terminated reply per command,
+	 * acknowledges included. Without response terminator, the combined reply is read as one response.
+	 * @param Rendered commands joined with the device separator
+	 * @param Number of commands joined
+	 * @return List of trimmed responses, one per command, or combined response without terminator
+	 * @throws IOException
+	 */
+	@Override
+	public Object sendBatch(String commands, int count) throws IOException {
+		CompiledCommandTemplate template = new CompiledCommandTemplate(commands);
+		if (framer == null) {
+			return request(template, new Parameter[0]);
+		}
+		ArrayList<String> responses = new ArrayList<String>(count);
+		if (isPipelined()) {
+			for (PendingResponse slot : pipelinedWrite(template, new Parameter[0], count)) {
+				responses.add(awaitResponse(slot).trim());
+			}
+		} else {
+			lock.lock();
+			try {
+				write(template, new Parameter[0]);
+				for (int ii = 0; ii<count; ii++) {
+					String response = readEndbyTerm(framer);
+					logger.debug("Response received : {}", response.trim());
+					responses.add(response.trim());
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		return responses;
+	}
+	
+	/**
+	 * Reply slot of a command sent on a pipelined connection
+	 */
+	private static final class PendingResponse {
+		private boolean done = false;
+		private String response;
+		private IOException error;
 	}
 	
+	/**
+	 * Writes the command once a place is free in the pipeline, and waits for its reply.
+	 * @param Compiled command structure
+	 * @param Parameters to fill in the command
+	 * @return trimmed response
+	 * @throws IOException
+	 */
+	private Object pipelinedRequest(CompiledCommandTemplate template, Parameter[] arguments) throws IOException {
+		return awaitResponse(pipelinedWrite(template, arguments, 1)[0]).trim();
+	}
+	/**
+	 * Writes the command once enough places are free in the pipeline for the replies it expects.
+	 * The places are taken under the write lock, so FIFO order is the order commands are on the wire.
+	 * A batch expecting more replies than the pipeline depth waits for the pipeline to be empty.
+	 * @param Compiled command structure
+	 * @param Parameters to fill in the command
+	 * @param Number of replies the command expects
+	 * @return slots of the replies, in order
+	 * @throws IOException
+	 */
+	private PendingResponse[] pipelinedWrite(CompiledCommandTemplate template, Parameter[] arguments, int count) throws IOException {
+		PendingResponse[] slots = new PendingResponse[count];
+		for (int ii = 0; ii<count; ii++) {
+			slots[ii] = new PendingResponse();
+		}
+		lock.lock();
+		try {
+			pendingLock.lock();
+			try {
+				long deadline = System.currentTimeMillis() + timeout;
+				while (!pending.isEmpty() && pending.size() + count > pipelineDepth) {
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0) {
+						throw new SocketTimeoutException(String.format("No reply from %s:%d freed the pipeline for %d millisecond", host, port, timeout));
+					}
+					waitPending(remaining);
+				}
+				for (PendingResponse slot : slots) {
+					pending.addLast(slot);
+				}
+			} finally {
+				pendingLock.unlock();
+			}
+			try {
+				write(template, arguments);
+			} catch (IOException e) {
+				pendingLock.lock();
+				try {
+					for (PendingResponse slot : slots) {
+						pending.removeLastOccurrence(slot);
+					}
+					pendingChanged.signalAll();
+				} finally {
+					pendingLock.unlock();
+				}
+				throw e;
+			}
+		} finally {
+			lock.unlock();
+		}
+		return slots;
+	}
+	/**
+	 * Waits until the reply of the slot is read. If no other caller is reading, reads replies of every pending
+	 * command in order until this one arrives, then leaves reading to the next waiting caller.
+	 * @param Slot of the command
+	 * @return raw response
+	 * @throws IOException
+	 */
+	private String awaitResponse(PendingResponse slot) throws IOException {
+		boolean reader = false;
+		pendingLock.lock();
+		try {
+			while (!slot.done && reading) {
+				waitPending(0);
+			}
+			if (!slot.done) {
+				reading = reader = true;
+			}
+		} finally {
+			pendingLock.unlock();
+		}
+		if (reader) {
+			try {
+				while (!slot.done) {
+					readNextPending();
+				}
+			} finally {
+				pendingLock.lock();
+				try {
+					reading = false;
+					pendingChanged.signalAll();
+				} finally {
+					pendingLock.unlock();
+				}
+			}
+		}
+		if (slot.error != null) {
+			throw slot.error;
+		}
+		return slot.response;
+	}
+	/**
+	 * Reads one reply and hands it to the oldest pending command.
+	 * On failure, the stream can't be trusted to be in step with the FIFO anymore,
+	 * so every pending command fails and bytes already read are dropped.
+	 * @throws IOException
+	 */
+	private void readNextPending() throws IOException {
+		String response;
+		try {
+			response = readEndbyTerm(framer);
+		} catch (IOException e) {
+			readBuffer.position(readBuffer.limit());
+			pendingLock.lock();
+			try {
+				for (PendingResponse p : pending) {
+					p.error = e;
+					p.done = true;
+				}
+				pending.clear();
+				pendingChanged.signalAll();
+			} finally {
+				pendingLock.unlock();
+			}
+			throw e;
+		}
+		pendingLock.lock();
+		try {
+			PendingResponse head = pending.pollFirst();
+			if (head != null) {
+				logger.debug("Response received : {}", response.trim());
+				head.response = response;
+				head.done = true;
+			} else {
+				logger.warn("Dropping reply with no pending command : {}", response.trim());
+			}
+			pendingChanged.signalAll();
+		} finally {
+			pendingLock.unlock();
+		}
+	}
+	/**
+	 * Waits for a change of the pipeline, with pendingLock held
+	 * @param Milliseconds to wait at most, 0 to wait until signalled
+	 * @throws InterruptedIOException
+	 */
+	private void waitPending(long millis) throws InterruptedIOException {
+		try {
+			if (millis > 0) {
+				pendingChanged.await(millis, TimeUnit.MILLISECONDS);
+			} else {
+				pendingChanged.await();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for reply from " + host + ":" + port);
+		}
+	}
+	/**
+	 * Reads what is available from the socket into readBuffer, blocking for up to the socket timeout.
+	 * @return number of bytes read
+	 * @throws IOException
+	 */
+	private int fill() throws IOException {
+		readBuffer.compact();
+		try {
+			int n = in.read(readBuffer.array(), readBuffer.arrayOffset() + readBuffer.position(), readBuffer.remaining());
+			if (n < 0) {
+				throw new IOException(String.format("Connection to %s:%d was closed by the device", host, port));
+			}
+			readBuffer.position(readBuffer.position() + n);
+			return n;
+		} finally {
+			readBuffer.flip();
+		}
+	}
+	
+	/**
+	 * Reads a response that has no terminator. The first read blocks for up to timeout, 
+	 * then the socket timeout is lowered to idleGap and the response is over once a read times out.
+	 * @return response
+	 * @throws IOException
+	 */
 	private String readEndbyTime() throws IOException{
-		StringBuffer line = new StringBuffer();
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
 		logger.debug("Waiting for stream to be ready");
-		long start = System.currentTimeMillis();
-		long current = System.currentTimeMillis();
-		while(!in.ready() && current-start<timeout) {
+		if (!readBuffer.hasRemaining()) {
 			try {
-				Thread.sleep(5);
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-			current = System.currentTimeMillis();
-		}
-		if (in.ready()) {
-			logger.debug("Reading Stream...");
-			while(in.ready()) {
-				line.append((char)in.read());
-				if (!in.ready()) {
-					try {
-						Thread.sleep(timeout/100);
-					} catch (InterruptedException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
-				}	
+				fill();
+			} catch (SocketTimeoutException e) {
+				throw new SocketTimeoutException(String.format("Nothing was read from %s:%d for %d millisecond", host, port, timeout));
 			}
-			return line.toString();
-		} else {
-			throw new SocketTimeoutException(String.format("Nothing was read from %s:%d for %d millisecond", host, port, timeout));
 		}
+		logger.debug("Reading Stream...");
+		tcpSocket.setSoTimeout(idleGap);
+		try {
+			do {
+				line.write(readBuffer.array(), readBuffer.arrayOffset() + readBuffer.position(), readBuffer.remaining());
+				readBuffer.position(readBuffer.limit());
+			} while (fill() > 0);
+		} catch (SocketTimeoutException e) {
+			//. device stayed quiet for idleGap, the response is complete
+		} finally {
+			tcpSocket.setSoTimeout(timeout);
+		}
+		return new String(line.toByteArray(), Charset.defaultCharset());
 	}
-
-	private String readEndbyTerm() throws IOException{
-		StringBuffer line = new StringBuffer();
-		int temp;
+	/**
+	 * Reads until the response terminator. Bytes after it are kept for the next response.
+	 * On an acknowledged device, the framer drops the replies of commands sent without reading them, as counted by sendCommand.
+	 * Otherwise it drops a terminator read before the actual response.
+	 * @param Framer of the response
+	 * @return response, terminator included
+	 * @throws IOException
+	 */
+	private String readEndbyTerm(TerminatorFramer framer) throws IOException{
 		logger.debug("Reading until terminator is reached.");
-		while (line.indexOf(responseTerminator) == -1 || line.indexOf(responseTerminator) == 0 ) {
-			// There were some occasion that terminator was read multiple times
-			// before actual response was read. to avoid this,
-			// if the terminator is the first characters read, empty the buffer
-			// so it won't cause the loop to exit.
-			if (line.indexOf(responseTerminator)==0) {
-				line.delete(0, responseTerminator.length());
-			}
-			temp = in.read();
-			line.append((char) temp);
-
+		while (!framer.feed(readBuffer)) {
+			try {
+				fill();
+			} catch (SocketTimeoutException e) {
+				framer.reset();
+				throw new SocketTimeoutException(String.format("Terminator was not read from %s:%d for %d millisecond", host, port, timeout));
+			}
 		}
-		return line.toString();
+		return framer.takeResponse();
 	}
 	@Override
 	public void constructFromConfigurationFile(String path) throws IOException {
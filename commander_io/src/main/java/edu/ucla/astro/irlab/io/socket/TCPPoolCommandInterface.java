@@ -0,0 +1,309 @@
+package edu.ucla.astro.irlab.io.socket;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import edu.ucla.astro.irlab.io.Command;
+import edu.ucla.astro.irlab.io.CommandInterface;
+import edu.ucla.astro.irlab.io.Parameter;
+/**
+ * TCP CommandInterface keeping several sessions to the same device, for controllers accepting multiple handles (e.g. Galil).
+ * Each session is a TCPCommandInterface configured with the same connectionProperties, using "tcppool" as type
+ * and "sessions" as number of sessions (2 by default).
+ * With more than one session, the first one is dedicated to Commands declared "longRunning",
+ * and other Commands go to the least busy of the remaining sessions, borrowing the first one when it is idle.
+ * A session failing a command is left out of routing and reconnected in the background.
+ * If "healthCheckCommand" is configured, sessions idle for "healthCheckInterval" milliseconds are checked with it,
+ * and reconnected unless its reply is read within timeout.
+ */
+public class TCPPoolCommandInterface implements CommandInterface {
+	// Settings every session is created from
+	private HashMap<String, String> settings;
+	private String host;
+	private int port;
+	private int sessionCount;
+	// command sent to check idle sessions, and idle time before checking them
+	private String healthCheckCommand;
+	private long healthCheckInterval;
+	
+	// sessions and the thread checking and reconnecting them
+	private transient Session[] sessions;
+	private transient ScheduledExecutorService monitor;
+	
+	// boolean monitoring connection status
+	public transient boolean connected = false;
+	// Log4J logger. (might change to custom logging) 
+	private transient Logger logger;
+	
+	/**
+	 * One connection of the pool with its load
+	 */
+	private static final class Session {
+		private final int index;
+		private volatile TCPCommandInterface tcp;
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private volatile long lastUsed = System.currentTimeMillis();
+		private volatile boolean healthy = true;
+		private Session(int index, TCPCommandInterface tcp) {
+			this.index = index;
+			this.tcp = tcp;
+		}
+	}
+	
+	// setting logger.
+	public void setLogger(Object loggerName) {
+		logger= LogManager.getLogger(loggerName);
+	}
+	public void setLogger(Logger lgr) {
+		logger = lgr;
+	}
+	
+	public TCPPoolCommandInterface(HashMap<String, String> settings) {
+		this.settings = new HashMap<String, String>(settings);
+		this.host = settings.get("host");
+		this.port = Integer.parseInt(settings.get("port"));
+		this.sessionCount = (settings.get("sessions") == null) ? 2 : Math.max(1, Integer.parseInt(settings.get("sessions")));
+		this.healthCheckCommand = settings.get("healthCheckCommand");
+		//. by default, idle sessions are checked as often as the connection timeout
+		this.healthCheckInterval = (settings.get("healthCheckInterval") == null) ? Integer.parseInt(settings.get("timeout")) 
+				: Long.parseLong(settings.get("healthCheckInterval"));
+	}
+	/**
+	 * Returns number of sessions of the pool
+	 * @return number of sessions
+	 */
+	public int getSessionCount() {
+		return sessionCount;
+	}
+	
+	/**
+	 * Connects every session, and starts checking them.
+	 * @throws IOException if a session fails to connect. Sessions already connected are closed.
+	 */
+	@Override
+	public synchronized void connect() throws IOException {
+		if (logger==null) {
+			logger= LogManager.getLogger(TCPPoolCommandInterface.class);
+		}
+		if (!connected) {
+			logger.debug("Opening {} TCP sessions on {} port {}", sessionCount, host, port);
+			sessions = new Session[sessionCount];
+			try {
+				for (int ii = 0; ii < sessionCount; ii++) {
+					TCPCommandInterface tcp = new TCPCommandInterface(settings);
+					tcp.connect();
+					sessions[ii] = new Session(ii, tcp);
+				}
+			} catch (IOException e) {
+				for (Session s : sessions) {
+					if (s != null) {
+						closeQuietly(s.tcp);
+					}
+				}
+				throw e;
+			}
+			monitor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "tcppool-" + host + ":" + port);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			long period = Math.max(1, healthCheckInterval / 2);
+			monitor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					checkSessions();
+				}
+			}, period, period, TimeUnit.MILLISECONDS);
+			connected = true;
+		} else {
+			logger.debug("Already connected to {}, port {}", host, port);
+		}
+	}
+	/**
+	 * Stops checking sessions and closes all of them.
+	 * @throws IOException
+	 */
+	@Override
+	public synchronized void disconnect() throws IOException {
+		if (connected) {
+			logger.debug("Closing {} TCP sessions", sessionCount);
+			monitor.shutdownNow();
+			for (Session s : sessions) {
+				closeQuietly(s.tcp);
+			}
+			connected = false;
+		} else {
+			logger.debug("Not connected to {}, port {}", host, port);
+		}
+	}
+	
+	@Override
+	public void sendCommand(String command, Parameter[] arguments) throws IOException {
+		execute(route(false), null, command, arguments, -1);
+	}
+	
+	@Override
+	public void sendCommand(Command command, Parameter[] arguments) throws IOException {
+		execute(route(command.isLongRunning()), command, null, arguments, -1);
+	}
+	
+	@Override
+	public Object sendRequest(String command, Parameter[] arguments) throws IOException {
+		return execute(route(false), null, command, arguments, 0);
+	}
+	
+	@Override
+	public Object sendRequest(Command command, Parameter[] arguments) throws IOException {
+		return execute(route(command.isLongRunning()), command, null, arguments, 0);
+	}
+	
+	/**
+	 * Sends the batch on a single session, which reads one reply per command.
+	 * @param Rendered commands joined with the device separator
+	 * @param Number of commands joined
+	 * @return List of responses, one per command, or combined response without terminator
+	 * @throws IOException
+	 */
+	@Override
+	public Object sendBatch(String commands, int count) throws IOException {
+		return execute(route(false), null, commands, new Parameter[0], count);
+	}
+	
+	/**
+	 * Chooses the session for a command. Long-running commands get the first session,
+	 * others get the healthy session with fewest commands in flight, the first session counting only when idle.
+	 * @param true if the command is long-running
+	 * @return session
+	 * @throws IOException if no session is healthy
+	 */
+	private Session route(boolean longRunning) throws IOException {
+		if (!connected) {
+			throw new IOException("Not connected to " + host + ":" + port);
+		}
+		Session[] all = sessions;
+		if (longRunning || all.length == 1) {
+			if (all[0].healthy) {
+				return all[0];
+			}
+		}
+		Session best = null;
+		for (int ii = 1; ii < all.length; ii++) {
+			Session s = all[ii];
+			if (s.healthy && (best == null || s.inFlight.get() < best.inFlight.get())) {
+				best = s;
+			}
+		}
+		if (all[0].healthy && (best == null || (all[0].inFlight.get() == 0 && best.inFlight.get() > 0))) {
+			//. borrow the long-running session while it is idle, or when nothing else is left
+			best = all[0];
+		}
+		if (best == null) {
+			throw new IOException(String.format("No healthy session to %s:%d", host, port));
+		}
+		return best;
+	}
+	
+	/**
+	 * Runs the command on the session, marking the session unhealthy if it fails.
+	 * @param Session
+	 * @param Command, or null if command String is given
+	 * @param Command String
+	 * @param Parameters to fill in the command
+	 * @param -1 to send a command, 0 to send a request, or number of commands joined in a batch
+	 * @return response, null for a command
+	 * @throws IOException
+	 */
+	private Object execute(Session s, Command cmd, String command, Parameter[] arguments, int replies) throws IOException {
+		TCPCommandInterface tcp = s.tcp;
+		s.inFlight.incrementAndGet();
+		try {
+			if (replies > 0) {
+				return tcp.sendBatch(command, replies);
+			} else if (replies == 0) {
+				return (cmd != null) ? tcp.sendRequest(cmd, arguments) : tcp.sendRequest(command, arguments);
+			} else {
+				if (cmd != null) {
+					tcp.sendCommand(cmd, arguments);
+				} else {
+					tcp.sendCommand(command, arguments);
+				}
+				return null;
+			}
+		} catch (IOException e) {
+			if (s.tcp == tcp && s.healthy) {
+				logger.warn("Session {} to {}:{} failed, reconnecting : {}", s.index, host, port, e.getMessage());
+				s.healthy = false;
+			}
+			throw e;
+		} finally {
+			s.inFlight.decrementAndGet();
+			s.lastUsed = System.currentTimeMillis();
+		}
+	}
+	/**
+	 * Reconnects failed sessions, and sends health check command to sessions idle for healthCheckInterval.
+	 * Runs on the monitor thread.
+	 */
+	private void checkSessions() {
+		long now = System.currentTimeMillis();
+		for (Session s : sessions) {
+			if (!s.healthy) {
+				reconnect(s);
+			} else if (healthCheckCommand != null && s.inFlight.get() == 0 && now - s.lastUsed >= healthCheckInterval) {
+				try {
+					//. a probe only written would pass on a half-open connection, so its reply is read
+					execute(s, null, healthCheckCommand, new Parameter[0], 0);
+				} catch (IOException e) {
+					reconnect(s);
+				}
+			}
+		}
+	}
+	
+	private void reconnect(Session s) {
+		if (s.inFlight.get() > 0) {
+			//. a command is still stuck on the old connection. let it time out first
+			return;
+		}
+		TCPCommandInterface tcp = new TCPCommandInterface(settings);
+		try {
+			tcp.connect();
+		} catch (IOException e) {
+			logger.debug("Session {} to {}:{} could not reconnect : {}", s.index, host, port, e.getMessage());
+			return;
+		}
+		TCPCommandInterface old = s.tcp;
+		s.tcp = tcp;
+		s.lastUsed = System.currentTimeMillis();
+		s.healthy = true;
+		closeQuietly(old);
+		logger.info("Session {} to {}:{} reconnected", s.index, host, port);
+	}
+	
+	private void closeQuietly(TCPCommandInterface tcp) {
+		try {
+			tcp.disconnect();
+		} catch (IOException e) {
+			logger.debug("Error while closing session to {}:{} : {}", host, port, e.getMessage());
+		}
+	}
+	
+	/**
+	 * Does nothing: the interface is configured from the connectionProperties given to its constructor.
+	 * @param Path of the configuration file, ignored
+	 */
+	@Override
+	public void constructFromConfigurationFile(String path) throws IOException {
+	}
+}
@@ -1,27 +1,34 @@
 package edu.ucla.astro.irlab.io.socket;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.io.Writer;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.Socket;
+import java.net.InetSocketAddress;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.Charset;
 import java.util.HashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import edu.ucla.astro.irlab.io.Command;
 import edu.ucla.astro.irlab.io.CommandInterface;
-import edu.ucla.astro.irlab.io.InvalidConfigurationException;
+import edu.ucla.astro.irlab.io.CompiledCommandTemplate;
 import edu.ucla.astro.irlab.io.Parameter;
-import edu.ucla.astro.irlab.io.PositionalSyntaxCommandConstructor;
 //TODO separate TCP and UDP
+/**
+ * UDP CommandInterface on a DatagramChannel connected to the device, so the address is resolved once
+ * and datagrams from anywhere else are dropped by the system.
+ * Commands are rendered into a direct buffer and replies are received into another, both kept for the life of the connection.
+ * With "sequenceTag" set to true in connectionProperties, each command is prefixed with a sequence number and
+ * "sequenceSeparator" (a space by default), which the device must echo at the start of its reply.
+ * Replies with another number are stale or duplicated, and are discarded.
+ * Without tagging, datagrams left over from earlier commands are discarded before sending.
+ */
 public class UDPCommandInterface implements CommandInterface {
 	// Socket Information
 	private String host;
@@ -29,16 +36,32 @@ public class UDPCommandInterface implements CommandInterface {
 	private String commandTerminator;
 	private int maxBuffer;
 	private int timeout;
+	// sequence tagging of commands and replies
+	private boolean sequenceTag;
+	private String sequenceSeparator;
+
+	// UDP channel connected to the device, and the selector waiting for its replies
+	private transient DatagramChannel channel;
+	private transient Selector selector;
+	// encoded commandTerminator and the buffers reused for every command sent and reply received
+	private transient byte[] terminatorBytes;
+	private transient ByteBuffer sendBuffer;
+	private transient ByteBuffer receiveBuffer;
+	// next sequence number, and number of replies discarded as stale or duplicated
+	private transient int sequence = 0;
+	private transient long discarded = 0;
+	// held by every command until its reply is received. A lock rather than a monitor, so virtual threads waiting on it release their carrier
+	private final transient ReentrantLock lock = new ReentrantLock();
+
+	// sequence numbers wrap around at this value
+	private static final int SEQUENCE_LIMIT = 1000000;
 
-	// UDP socket
-	DatagramSocket udpSocket;
-		
 	// boolean monitoring socket connection status
 	public transient boolean connected = false;
-	// Log4J logger. (might change to custom logging) 
+	// Log4J logger. (might change to custom logging)
 	private transient Logger logger;
-	
-	
+
+
 	// setting logger.
 	public void setLogger(Object loggerName) {
 		logger= LogManager.getLogger(loggerName);
@@ -53,33 +76,63 @@ public class UDPCommandInterface implements CommandInterface {
 		this.commandTerminator = settings.get("commandTerminator");
 		this.maxBuffer = Integer.parseInt(settings.get("maxBuffer"));
 		this.timeout = Integer.parseInt(settings.get("timeout"));
+		this.sequenceTag = Boolean.parseBoolean(settings.get("sequenceTag"));
+		this.sequenceSeparator = (settings.get("sequenceSeparator") == null) ? " " : settings.get("sequenceSeparator");
+		this.terminatorBytes = CompiledCommandTemplate.encodeTerminator(commandTerminator);
 	}
 	public UDPCommandInterface(String host, int port, String terminator, int timeout, int buffersize) {
+		this(host, port, terminator, timeout, buffersize, false);
+	}
+	public UDPCommandInterface(String host, int port, String terminator, int timeout, int buffersize, boolean sequenceTag) {
 		this.host = host;
 		this.port = port;
 		this.commandTerminator = terminator;
 		this.maxBuffer = buffersize;
 		this.timeout = timeout;
+		this.sequenceTag = sequenceTag;
+		this.sequenceSeparator = " ";
+		this.terminatorBytes = CompiledCommandTemplate.encodeTerminator(commandTerminator);
 	}
 
+	/**
+	 * Resolves the device address and connects the channel to it.
+	 * @throws IOException
+	 */
 	@Override
 	public void connect() throws IOException  {
+		if (logger==null) {
+			logger= LogManager.getLogger(UDPCommandInterface.class);
+		}
 		if (!connected) {
-			if (logger==null) {
-				logger= LogManager.getLogger(UDPCommandInterface.class);
+			InetSocketAddress address = new InetSocketAddress(host, port);
+			if (address.isUnresolved()) {
+				throw new UnknownHostException(host);
+			}
+			logger.debug("Opening UDP channel to {} port {}", address.getAddress(), port);
+			channel = DatagramChannel.open();
+			try {
+				channel.connect(address);
+				channel.configureBlocking(false);
+				selector = Selector.open();
+				channel.register(selector, SelectionKey.OP_READ);
+			} catch (IOException e) {
+				channel.close();
+				throw e;
 			}
-			udpSocket = new DatagramSocket();
-			udpSocket.setSoTimeout(timeout);		
+			sendBuffer = ByteBuffer.allocateDirect(256);
+			receiveBuffer = ByteBuffer.allocateDirect(maxBuffer);
+			connected = true;
 		} else {
 			logger.debug("Already connected to {}, port {}", host, port);
 		}
 	}
-	
+
 	@Override
 	public void disconnect() throws IOException{
 		if (connected) {
 			logger.debug("Closing socket Connection");
-			udpSocket.close();
+			selector.close();
+			channel.close();
 			connected = false;
 		} else {
 			logger.debug("Not connected to {}, port {}", host, port);
@@ -88,36 +141,144 @@ public class UDPCommandInterface implements CommandInterface {
 
 	@Override
 	public void sendCommand(String command, Parameter[] arguments)	throws IOException {
-		
-		String commandString = PositionalSyntaxCommandConstructor.constructCommandString(command, arguments);
-		
-		logger.debug("Sending command, {}", commandString);
-		String input = commandString + commandTerminator;
-		byte[] bytecommand = input.getBytes();
-		InetAddress address = InetAddress.getByName(host);
-	    DatagramPacket packet = new DatagramPacket(bytecommand, bytecommand.length, address, port);
-	    udpSocket.send(packet);
-	} 
+		write(new CompiledCommandTemplate(command), arguments);
+	}
+
+	@Override
+	public void sendCommand(Command command, Parameter[] arguments) throws IOException {
+		write(command.getCommandTemplate(), arguments);
+	}
+
+	/**
+	 * Renders the command and its terminator into the reusable buffer, and sends it as a single datagram.
+	 * @param Compiled command structure
+	 * @param Parameters to fill in the command
+	 * @return sequence tag sent with the command, or null without tagging
+	 * @throws IOException
+	 */
+	private String write(CompiledCommandTemplate template, Parameter[] arguments) throws IOException {
+		lock.lock();
+		try {
+			if (!connected) {
+				throw new IOException("Not connected to " + host + ":" + port);
+			}
+			sendBuffer = template.render(arguments, terminatorBytes, sendBuffer);
+			if (logger.isDebugEnabled()) {
+				logger.debug("Sending command, {}", CompiledCommandTemplate.decode(sendBuffer, terminatorBytes));
+			}
+			String tag = null;
+			if (sequenceTag) {
+				tag = Integer.toString(sequence) + sequenceSeparator;
+				sequence = (sequence + 1) % SEQUENCE_LIMIT;
+				//. shift the rendered command to make room for the tag in front
+				byte[] tagBytes = tag.getBytes(Charset.defaultCharset());
+				int length = sendBuffer.position();
+				if (sendBuffer.capacity() < length + tagBytes.length) {
+					ByteBuffer larger = ByteBuffer.allocateDirect(length + tagBytes.length);
+					sendBuffer.flip();
+					larger.put(sendBuffer);
+					sendBuffer = larger;
+				}
+				for (int ii = length - 1; ii >= 0; ii--) {
+					sendBuffer.put(ii + tagBytes.length, sendBuffer.get(ii));
+				}
+				for (int ii = 0; ii < tagBytes.length; ii++) {
+					sendBuffer.put(ii, tagBytes[ii]);
+				}
+				sendBuffer.position(length + tagBytes.length);
+			}
+			sendBuffer.flip();
+			channel.write(sendBuffer);
+			return tag;
+		} finally {
+			lock.unlock();
+		}
+	}
 
 	public Object sendRequest(String command, Parameter[] arguments) throws IOException {
-			String response = "";
-			sendCommand(command,arguments);
-			
+		return request(new CompiledCommandTemplate(command), arguments);
+	}
+
+	@Override
+	public Object sendRequest(Command command, Parameter[] arguments) throws IOException {
+		return request(command.getCommandTemplate(), arguments);
+	}
+
+	private Object request(CompiledCommandTemplate template, Parameter[] arguments) throws IOException {
+		lock.lock();
+		try {
+			if (!sequenceTag) {
+				discardStale();
+			}
+			String tag = write(template,arguments);
+
 			logger.debug("Receiving packet...");
-			byte[] returned = new byte[maxBuffer];
-		    DatagramPacket packet = new DatagramPacket(returned, returned.length);
-		    udpSocket.receive(packet);		        
-		    response = new String(packet.getData(), 0, packet.getLength());
-			return response.trim();
-	}
-	
-	
+			long deadline = System.currentTimeMillis() + timeout;
+			while (true) {
+				String response = receive(deadline);
+				if (tag == null) {
+					return response.trim();
+				} else if (response.startsWith(tag)) {
+					return response.substring(tag.length()).trim();
+				}
+				discarded++;
+				logger.debug("Discarding reply with unexpected sequence : {}", response.trim());
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+	/**
+	 * Receives one datagram into the reusable buffer, waiting until the deadline.
+	 * @param Time in milliseconds after which waiting fails
+	 * @return datagram content
+	 * @throws IOException
+	 */
+	private String receive(long deadline) throws IOException {
+		while (true) {
+			receiveBuffer.clear();
+			if (channel.read(receiveBuffer) > 0 || receiveBuffer.position() > 0) {
+				receiveBuffer.flip();
+				return Charset.defaultCharset().decode(receiveBuffer).toString();
+			}
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				throw new SocketTimeoutException(String.format("Nothing was received from %s:%d for %d millisecond", host, port, timeout));
+			}
+			selector.selectedKeys().clear();
+			selector.select(remaining);
+		}
+	}
+	/**
+	 * Drops datagrams already received, which belong to earlier commands that timed out.
+	 * @throws IOException
+	 */
+	private void discardStale() throws IOException {
+		receiveBuffer.clear();
+		while (channel.read(receiveBuffer) >= 0 && receiveBuffer.position() > 0) {
+			discarded++;
+			receiveBuffer.clear();
+		}
+	}
+	/**
+	 * Returns number of replies discarded as stale or with unexpected sequence tag
+	 * @return number of discarded replies
+	 */
+	public long getDiscardedCount() {
+		lock.lock();
+		try {
+			return discarded;
+		} finally {
+			lock.unlock();
+		}
+	}
+
 	@Override
 	public void constructFromConfigurationFile(String path) throws IOException {
 		// TODO Auto-generated method stub
-		
+
 	}
-	
+
 
 
 	}
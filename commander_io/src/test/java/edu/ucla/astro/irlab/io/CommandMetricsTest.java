@@ -0,0 +1,27 @@
+package edu.ucla.astro.irlab.io;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+/**
+ * Every failed call is an error, and only those failing on a transport timeout or asyncTimeout are timeouts.
+ */
+public class CommandMetricsTest {
+
+	@Test
+	public void timeoutsAreCountedApartFromOtherErrors() {
+		CommandMetrics metrics = new CommandMetrics("test");
+		metrics.countError(new SocketTimeoutException("no reply"));
+		metrics.countError(new CompletionException(new TimeoutException("asyncTimeout passed")));
+		metrics.countError(new InterruptedIOException("interrupted while waiting for the turn"));
+		metrics.countError(new IOException("connection closed"));
+		assertEquals(4, metrics.getErrorCount());
+		assertEquals(2, metrics.getTimeoutCount());
+	}
+}
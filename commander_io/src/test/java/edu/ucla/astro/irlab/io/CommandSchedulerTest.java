@@ -0,0 +1,129 @@
+package edu.ucla.astro.irlab.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+/**
+ * Tickets of a CommandScheduler are granted by priority class, each class queue is bounded,
+ * and a ticket given up while waiting leaves the queue.
+ */
+public class CommandSchedulerTest {
+
+	@Test
+	public void urgentCallerOvertakesQueuedLowOnes() throws Exception {
+		CommandScheduler scheduler = new CommandScheduler(1, 8);
+		scheduler.acquire(scheduler.enqueue(CommandPriority.NORMAL));
+		CountDownLatch firstPoll = new CountDownLatch(1);
+		CountDownLatch secondPoll = new CountDownLatch(1);
+		CountDownLatch stop = new CountDownLatch(1);
+		waitQueued(caller(scheduler, CommandPriority.LOW, firstPoll));
+		waitQueued(caller(scheduler, CommandPriority.LOW, secondPoll));
+		waitQueued(caller(scheduler, CommandPriority.URGENT, stop));
+
+		scheduler.release();
+		assertTrue(stop.await(5, TimeUnit.SECONDS));
+		assertEquals(1, firstPoll.getCount());
+		scheduler.release();
+		assertTrue(firstPoll.await(5, TimeUnit.SECONDS));
+		assertEquals(1, secondPoll.getCount());
+		scheduler.release();
+		assertTrue(secondPoll.await(5, TimeUnit.SECONDS));
+		assertEquals(1, scheduler.getGranted(CommandPriority.URGENT));
+		assertEquals(2, scheduler.getGranted(CommandPriority.LOW));
+	}
+
+	@Test
+	public void fullClassQueueThrowsIOException() throws IOException {
+		CommandScheduler scheduler = new CommandScheduler(1, 2);
+		scheduler.enqueue(CommandPriority.LOW);
+		CommandScheduler.Ticket second = scheduler.enqueue(CommandPriority.LOW);
+		try {
+			scheduler.enqueue(CommandPriority.LOW);
+			fail("third low command was queued");
+		} catch (IOException e) {
+		}
+		//. other classes have queues of their own
+		scheduler.enqueue(CommandPriority.URGENT);
+		scheduler.cancel(second);
+		scheduler.enqueue(CommandPriority.LOW);
+		assertEquals(2, scheduler.getQueued(CommandPriority.LOW));
+	}
+
+	@Test
+	public void interruptedAcquireFreesItsSlot() throws Exception {
+		final CommandScheduler scheduler = new CommandScheduler(1, 1);
+		scheduler.acquire(scheduler.enqueue(CommandPriority.NORMAL));
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		final AtomicReference<Boolean> interrupted = new AtomicReference<Boolean>();
+		Thread poller = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					scheduler.acquire(scheduler.enqueue(CommandPriority.LOW));
+				} catch (IOException e) {
+					failure.set(e);
+				}
+				interrupted.set(Thread.currentThread().isInterrupted());
+			}
+		});
+		poller.start();
+		waitQueued(poller);
+		assertEquals(1, scheduler.getQueued(CommandPriority.LOW));
+
+		poller.interrupt();
+		poller.join(5000);
+		assertTrue(failure.get() instanceof InterruptedIOException);
+		assertTrue(interrupted.get());
+		assertEquals(0, scheduler.getQueued(CommandPriority.LOW));
+
+		//. the place is free again, and the ticket doesn't hold up the next one
+		CountDownLatch next = new CountDownLatch(1);
+		waitQueued(caller(scheduler, CommandPriority.LOW, next));
+		scheduler.release();
+		assertTrue(next.await(5, TimeUnit.SECONDS));
+		assertEquals(1, scheduler.getGranted(CommandPriority.LOW));
+	}
+
+	/**
+	 * Starts a thread acquiring a ticket of the class, which counts down the latch once granted
+	 * @param Scheduler
+	 * @param Priority class
+	 * @param Latch counted down once granted
+	 * @return started thread
+	 */
+	private static Thread caller(final CommandScheduler scheduler, final CommandPriority priority, final CountDownLatch granted) {
+		Thread caller = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					scheduler.acquire(scheduler.enqueue(priority));
+					granted.countDown();
+				} catch (IOException e) {
+				}
+			}
+		});
+		caller.setDaemon(true);
+		caller.start();
+		return caller;
+	}
+	/**
+	 * Waits until the thread is blocked waiting for its turn
+	 * @param Thread calling acquire
+	 * @throws InterruptedException
+	 */
+	private static void waitQueued(Thread thread) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (thread.getState() != Thread.State.WAITING) {
+			assertTrue("thread is not waiting for its turn", System.currentTimeMillis() < deadline);
+			Thread.sleep(5);
+		}
+	}
+}
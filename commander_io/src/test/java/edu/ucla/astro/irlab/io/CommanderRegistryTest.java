@@ -0,0 +1,91 @@
+package edu.ucla.astro.irlab.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.gson.JsonObject;
+/**
+ * A registry of 100 devices on tcpchannel connections runs on its selector thread and workers, 
+ * whatever the number of devices and of commands in flight.
+ */
+public class CommanderRegistryTest {
+	private static final int DEVICES = 100;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private StandInDevice device;
+	private CommanderRegistry registry;
+	private int threadsBefore;
+
+	@Before
+	public void setUp() throws IOException, InvalidConfigurationException {
+		device = new StandInDevice() {
+			@Override
+			protected String reply(String command) {
+				if (command.startsWith("RP")) {
+					return " 1234\r\n:";
+				}
+				return ":";
+			}
+		};
+		JsonObject configuration = device.configuration("tcpchannel");
+		for (int ii = 0; ii < DEVICES; ii++) {
+			configuration.addProperty("name", String.format("Galil%03d", ii));
+			StandInDevice.write(configuration, new File(folder.getRoot(), String.format("galil%03d.json", ii)));
+		}
+		threadsBefore = commanderThreads();
+		registry = CommanderRegistry.load(folder.getRoot().getPath(), "warn");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		registry.close();
+		device.close();
+	}
+
+	private static int commanderThreads() {
+		int count = 0;
+		for (Thread t : Thread.getAllStackTraces().keySet()) {
+			if (t.getName().startsWith("commander")) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Test
+	public void hundredDevicesOnSharedThreads() throws Exception {
+		assertEquals(DEVICES, registry.getCommanders().size());
+		assertEquals(new ArrayList<String>(), registry.connectAll());
+
+		ArrayList<CompletableFuture<Object>> futures = new ArrayList<CompletableFuture<Object>>();
+		for (int round = 0; round < 10; round++) {
+			for (Commander cmdr : registry.getCommanders()) {
+				futures.add(cmdr.submitAsync("getMotorPosition", "A"));
+				futures.add(cmdr.submitAsync("setMotorSpeed", "A", "100"));
+			}
+		}
+		for (int ii = 0; ii < futures.size(); ii++) {
+			Object result = futures.get(ii).get(10, TimeUnit.SECONDS);
+			if (ii % 2 == 0) {
+				assertEquals("[1234, :]", String.valueOf(result));
+			}
+		}
+		//. selector thread and workers of the registry, none per device
+		int threads = commanderThreads() - threadsBefore;
+		assertTrue("commander threads : " + threads, threads <= Runtime.getRuntime().availableProcessors() + 1);
+	}
+}
@@ -0,0 +1,115 @@
+package edu.ucla.astro.irlab.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+/**
+ * NumericFormat appends exactly what String.format would, or nothing when it leaves the value to Formatter.
+ */
+public class NumericFormatTest {
+	/** Formats of the default parameter definitions and the configurations, with width and flags */
+	private static final String[] INTEGRAL_FORMATS = {"%d", "%5d", "%05d", "PA=%d", "%3d;"};
+	private static final String[] DOUBLE_FORMATS = {"%f", "%.0f", "%.1f", "%.2f", "%8.3f", "%08.2f", "SP=%.1f"};
+
+	/**
+	 * Formats the value, and compares it with String.format if it was appended
+	 * @param Format
+	 * @param Value
+	 * @return true if the value was formatted by NumericFormat
+	 */
+	private static boolean assertFormats(String format, Object value) {
+		NumericFormat numeric = NumericFormat.compile(format);
+		assertNotNull(format, numeric);
+		StringBuilder sb = new StringBuilder("<");
+		boolean formatted = numeric.format(value, sb);
+		if (formatted) {
+			assertEquals(format + " of " + value, "<" + String.format(format, value), sb.toString());
+		} else {
+			assertEquals(format + " of " + value + " appended to the buffer", "<", sb.toString());
+		}
+		return formatted;
+	}
+
+	@Test
+	public void integralValuesMatchFormatter() {
+		Object[] values = {0, 7, -1, -42, 123456, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE, (byte) -3, (short) 12345};
+		for (String format : INTEGRAL_FORMATS) {
+			for (Object value : values) {
+				assertTrue(format + " of " + value, assertFormats(format, value));
+			}
+		}
+	}
+
+	@Test
+	public void negativeValuesAndZero() {
+		double[] values = {0.0, -0.0, 1.0, -1.5, -0.25, -123.75, -1024.0, -0.1, -1e-7};
+		for (String format : DOUBLE_FORMATS) {
+			for (double value : values) {
+				assertFormats(format, value);
+			}
+		}
+		//. values with no more fraction digits than the precision are formatted without Formatter
+		assertTrue(assertFormats("%.0f", -0.0));
+		assertTrue(assertFormats("%.0f", -1024.0));
+		assertTrue(assertFormats("%.1f", -1.5));
+		assertTrue(assertFormats("%f", -0.25));
+		assertTrue(assertFormats("%08.2f", -123.75));
+		assertTrue(assertFormats("%8.3f", 0.0));
+	}
+
+	@Test
+	public void roundingAtHalf() {
+		//. Formatter rounds the decimal digits HALF_UP, where Math.rint would round to even
+		assertEquals("1", String.format("%.0f", 0.5));
+		double[] halves = {0.5, 1.5, 2.5, -0.5, -2.5, 0.125, 0.375, -0.125, 1.005, 2.675, 1234.5625};
+		for (String format : DOUBLE_FORMATS) {
+			for (double value : halves) {
+				assertFormats(format, value);
+			}
+		}
+	}
+
+	@Test
+	public void largeExponents() {
+		double[] values = {1e15, -1e15, 1e16, 1e20, 123456789.125, 1e300, -1e300, Double.MAX_VALUE, Double.MIN_VALUE, -Double.MIN_NORMAL, 1e-300};
+		for (String format : DOUBLE_FORMATS) {
+			for (double value : values) {
+				assertFormats(format, value);
+			}
+		}
+	}
+
+	@Test
+	public void nanAndInfinityAreLeftToFormatter() {
+		for (String format : DOUBLE_FORMATS) {
+			assertFalse(assertFormats(format, Double.NaN));
+			assertFalse(assertFormats(format, Double.POSITIVE_INFINITY));
+			assertFalse(assertFormats(format, Double.NEGATIVE_INFINITY));
+		}
+	}
+
+	@Test
+	public void everyPrecision() {
+		Random random = new Random(42);
+		double[] values = new double[200];
+		for (int ii = 0; ii < values.length; ii++) {
+			//. decimals with few fraction digits, as read from a configuration or a device, and arbitrary doubles
+			values[ii] = (ii % 2 == 0) ? (random.nextInt(2000001) - 1000000) / Math.pow(10, random.nextInt(7)) : (random.nextDouble() - 0.5) * 1e6;
+		}
+		for (int precision = 0; precision < 16; precision++) {
+			String format = "%." + precision + "f";
+			for (double value : values) {
+				assertFormats(format, value);
+			}
+			assertTrue(format, assertFormats(format, -1.0));
+		}
+		//. precisions beyond exact powers of ten are not compiled
+		assertNull(NumericFormat.compile("%.16f"));
+	}
+}
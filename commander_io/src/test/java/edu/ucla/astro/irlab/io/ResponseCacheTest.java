@@ -0,0 +1,103 @@
+package edu.ucla.astro.irlab.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+/**
+ * Responses of a ResponseCache expire after the time-to-live of their query, and setters drop those they invalidate:
+ * only the response to the same arguments when the setter has every parameter of the query, else all of them.
+ * A response taken before an invalidation is not stored.
+ */
+public class ResponseCacheTest {
+	private HashMap<String, Command> commandMap;
+	private ResponseCache cache;
+
+	private void addCommand(String json) {
+		Command cmd = new Gson().fromJson(json, Command.class);
+		commandMap.put(cmd.getName(), cmd);
+	}
+
+	private static Parameter[] arguments(String... values) {
+		Parameter[] parameters = new Parameter[values.length];
+		for (int ii = 0; ii < values.length; ii++) {
+			parameters[ii] = new Parameter(values[ii], values[ii]);
+		}
+		return parameters;
+	}
+
+	private Object get(String name, String... values) {
+		return cache.get(commandMap.get(name), arguments(values));
+	}
+
+	private void put(String name, Object response, String... values) {
+		cache.put(commandMap.get(name), arguments(values), response, cache.stamp());
+	}
+
+	@Before
+	public void setUp() {
+		commandMap = new HashMap<String, Command>();
+		addCommand("{\"name\": \"getMotorSpeed\", \"command\": \"SP(axis)=?\", \"responseFormat\": \"(speed)\", \"cacheTtlMs\": 10000}");
+		addCommand("{\"name\": \"getMotorPosition\", \"command\": \"RP(axis)\", \"responseFormat\": \"(counts)\", \"cacheTtlMs\": 50}");
+		addCommand("{\"name\": \"setMotorSpeed\", \"command\": \"SP(axis)=(speed)\", \"invalidates\": [\"getMotorSpeed\"]}");
+		addCommand("{\"name\": \"resetController\", \"command\": \"RS\", \"invalidates\": [\"getMotorSpeed\", \"getMotorPosition\"]}");
+		cache = new ResponseCache(commandMap);
+	}
+
+	@Test
+	public void responseExpiresAfterTtl() throws InterruptedException {
+		put("getMotorPosition", new ArrayList<Object>(Arrays.asList(1234)), "A");
+		@SuppressWarnings("unchecked")
+		ArrayList<Object> cached = (ArrayList<Object>) get("getMotorPosition", "A");
+		assertEquals(Arrays.asList(1234), cached);
+		//. callers get a copy
+		cached.clear();
+		assertEquals(Arrays.asList(1234), get("getMotorPosition", "A"));
+		assertEquals(2, cache.getHitCount());
+
+		Thread.sleep(80);
+		assertNull(get("getMotorPosition", "A"));
+		assertEquals(1, cache.getMissCount());
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void setterDropsResponseToTheSameArgumentsOnly() {
+		put("getMotorSpeed", "1000", "A");
+		put("getMotorSpeed", "2000", "B");
+		cache.invalidate(commandMap.get("setMotorSpeed"), arguments("A", "1500"));
+		assertNull(get("getMotorSpeed", "A"));
+		assertEquals("2000", get("getMotorSpeed", "B"));
+		assertEquals(1, cache.getInvalidatedCount());
+	}
+
+	@Test
+	public void setterWithoutTheQueryParametersDropsEveryResponse() {
+		put("getMotorSpeed", "1000", "A");
+		put("getMotorSpeed", "2000", "B");
+		put("getMotorPosition", "1234", "A");
+		cache.invalidate(commandMap.get("resetController"), arguments());
+		assertEquals(0, cache.size());
+		assertEquals(3, cache.getInvalidatedCount());
+	}
+
+	@Test
+	public void responseTakenBeforeInvalidationIsNotStored() {
+		long stamp = cache.stamp();
+		//. setter goes through while the query is on the wire
+		cache.invalidate(commandMap.get("setMotorSpeed"), arguments("B", "1500"));
+		cache.put(commandMap.get("getMotorSpeed"), arguments("A"), "1000", stamp);
+		assertNull(get("getMotorSpeed", "A"));
+		assertEquals(0, cache.size());
+
+		cache.put(commandMap.get("getMotorSpeed"), arguments("A"), "1000", cache.stamp());
+		assertEquals("1000", get("getMotorSpeed", "A"));
+	}
+}
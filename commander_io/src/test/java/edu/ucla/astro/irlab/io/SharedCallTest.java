@@ -0,0 +1,114 @@
+package edu.ucla.astro.irlab.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.gson.JsonObject;
+/**
+ * Callers sharing a call, joining a request in flight or merging into a queued write, each get a future of their own:
+ * one of them giving up does not fail the others, and the call goes to the device once for all of them.
+ */
+public class SharedCallTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final AtomicInteger positionQueries = new AtomicInteger();
+	private final List<String> targets = new CopyOnWriteArrayList<String>();
+	private StandInDevice device;
+	private Commander commander;
+
+	@Before
+	public void setUp() throws IOException, InvalidConfigurationException {
+		device = new StandInDevice() {
+			@Override
+			protected String reply(String command) {
+				if (command.startsWith("RP")) {
+					positionQueries.incrementAndGet();
+					try {
+						Thread.sleep(200);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					return " 1234\r\n:";
+				}
+				if (command.startsWith("PA")) {
+					targets.add(command);
+				}
+				return ":";
+			}
+		};
+		JsonObject configuration = device.configuration("tcpchannel");
+		configuration.getAsJsonObject("connectionProperties").addProperty("asyncTimeout", "1000");
+		configuration.getAsJsonObject("commandMap").getAsJsonObject("getMotorPosition").addProperty("idempotent", true);
+		configuration.getAsJsonObject("commandMap").getAsJsonObject("setAbsTarget").addProperty("coalesce", true);
+		commander = StandInDevice.createCommander(configuration, new File(folder.getRoot(), "galil.json"), "warn");
+		commander.connect();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		commander.disconnect();
+		device.close();
+	}
+
+	@Test
+	public void joinedRequestOutlivesCancelledFirstCaller() throws Exception {
+		CompletableFuture<Object> first = commander.submitAsync("getMotorPosition", "A");
+		CompletableFuture<Object> joined = commander.submitAsync("getMotorPosition", "A");
+		assertEquals(1, commander.getJoinedCount());
+		first.cancel(false);
+		assertEquals("[1234, :]", String.valueOf(joined.get(5, TimeUnit.SECONDS)));
+		assertTrue(first.isCancelled());
+		assertEquals(1, positionQueries.get());
+	}
+
+	@Test
+	public void syncCallerGetsResultOfRequestInFlight() throws Exception {
+		CompletableFuture<Object> first = commander.submitAsync("getMotorPosition", "A");
+		Object result = commander.submit("getMotorPosition", new String[] {"A"});
+		assertEquals("[1234, :]", String.valueOf(result));
+		assertEquals(String.valueOf(result), String.valueOf(first.get(5, TimeUnit.SECONDS)));
+		assertEquals(1, positionQueries.get());
+	}
+
+	@Test
+	public void mergedWriteOutlivesCancelledFirstCaller() throws Exception {
+		//. holds the connection, so the writes stay queued
+		CompletableFuture<Object> query = commander.submitAsync("getMotorPosition", "A");
+		CompletableFuture<Object> first = commander.submitAsync("setAbsTarget", "A", "100");
+		CompletableFuture<Object> merged = commander.submitAsync("setAbsTarget", "A", "200");
+		assertEquals(1, commander.getCoalescedCount("setAbsTarget"));
+		first.cancel(false);
+		merged.get(5, TimeUnit.SECONDS);
+		query.get(5, TimeUnit.SECONDS);
+		assertEquals(Arrays.asList("PAA=200"), targets);
+	}
+
+	@Test
+	public void queuedWriteIsDroppedOnceEveryCallerCancelled() throws Exception {
+		CompletableFuture<Object> query = commander.submitAsync("getMotorPosition", "A");
+		CompletableFuture<Object> first = commander.submitAsync("setAbsTarget", "A", "100");
+		CompletableFuture<Object> merged = commander.submitAsync("setAbsTarget", "A", "200");
+		first.cancel(false);
+		merged.cancel(false);
+		query.get(5, TimeUnit.SECONDS);
+		//. a later write is queued on its own, and sent after the dropped one
+		commander.submitAsync("setAbsTarget", "A", "300").get(5, TimeUnit.SECONDS);
+		assertEquals(Arrays.asList("PAA=300"), targets);
+	}
+}
@@ -0,0 +1,201 @@
+package edu.ucla.astro.irlab.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+/**
+ * Device listening on a loopback port for the tests of the interfaces, and for the benchmarks of commander_io_bench.
+ * Commands end with a carriage return or a semicolon, and each of them is answered with reply(),
+ * all replies to the commands of one read being written at once, as a controller answering a batch does.
+ * Commanders are created from GalilTester.json with the connection pointing at the device.
+ */
+public class StandInDevice implements Closeable {
+	// configuration of the commanders connecting to the device
+	public static final String CONFIGURATION = "GalilTester.json";
+
+	private final ServerSocket server;
+	private final Set<Socket> sessions = ConcurrentHashMap.newKeySet();
+	private volatile boolean running = true;
+
+	public StandInDevice() throws IOException {
+		server = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+		Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		}, "stand-in-device");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+	/**
+	 * Returns port the device is listening on
+	 * @return local port
+	 */
+	public int getPort() {
+		return server.getLocalPort();
+	}
+	/**
+	 * Returns connectionProperties of a tcp interface to this device, with ":" as response terminator.
+	 * The device answers every command, so it is configured as acknowledged.
+	 * @return settings
+	 */
+	public HashMap<String, String> settings() {
+		HashMap<String, String> settings = new HashMap<String, String>();
+		settings.put("host", server.getInetAddress().getHostAddress());
+		settings.put("port", Integer.toString(getPort()));
+		settings.put("commandTerminator", "\r");
+		settings.put("responseTerminator", ":");
+		settings.put("timeout", "1000");
+		settings.put("acknowledged", "true");
+		return settings;
+	}
+	/**
+	 * Reads GalilTester.json from the classpath, with connectionProperties of the given type of interface to this device
+	 * @param Connection type (tcp, tcpchannel, tcppool)
+	 * @return configuration, which may be adjusted before creating commanders from it
+	 * @throws IOException
+	 */
+	public JsonObject configuration(String type) throws IOException {
+		InputStream in = StandInDevice.class.getClassLoader().getResourceAsStream(CONFIGURATION);
+		if (in == null) {
+			throw new IOException(CONFIGURATION + " was not found in classpath");
+		}
+		Reader reader = new InputStreamReader(in, Charset.forName("UTF-8"));
+		JsonObject configuration;
+		try {
+			configuration = new JsonParser().parse(reader).getAsJsonObject();
+		} finally {
+			reader.close();
+		}
+		JsonObject properties = configuration.getAsJsonObject("connectionProperties");
+		properties.addProperty("type", type);
+		properties.addProperty("host", server.getInetAddress().getHostAddress());
+		properties.addProperty("port", getPort());
+		properties.addProperty("responseTerminator", ":");
+		return configuration;
+	}
+	/**
+	 * Writes a configuration to the file, as read by Commander and CommanderRegistry
+	 * @param Configuration
+	 * @param File to write
+	 * @throws IOException
+	 */
+	public static void write(JsonObject configuration, File file) throws IOException {
+		FileWriter writer = new FileWriter(file);
+		try {
+			new Gson().toJson(configuration, writer);
+		} finally {
+			writer.close();
+		}
+	}
+	/**
+	 * Creates Commander from a configuration, not connected yet
+	 * @param Configuration
+	 * @param File the configuration is written to
+	 * @param Log level of the Commander
+	 * @return Commander
+	 * @throws IOException
+	 * @throws InvalidConfigurationException
+	 */
+	public static Commander createCommander(JsonObject configuration, File file, String loglevel) throws IOException, InvalidConfigurationException {
+		write(configuration, file);
+		return Commander.getCommanderObject(file.getPath(), loglevel);
+	}
+	/**
+	 * Builds the reply to a command. Echoes the command in lower case by default.
+	 * @param Command without terminator
+	 * @return reply, null to leave the command unanswered
+	 */
+	protected String reply(String command) {
+		return command.toLowerCase() + "\r\n:";
+	}
+
+	/**
+	 * Stops listening and closes every connection, as a device being switched off
+	 */
+	@Override
+	public void close() throws IOException {
+		running = false;
+		server.close();
+		for (Socket socket : sessions) {
+			socket.close();
+		}
+	}
+
+	private void accept() {
+		while (running) {
+			final Socket socket;
+			try {
+				socket = server.accept();
+				socket.setTcpNoDelay(true);
+				sessions.add(socket);
+			} catch (IOException e) {
+				return;
+			}
+			Thread session = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					serve(socket);
+				}
+			}, "stand-in-session");
+			session.setDaemon(true);
+			session.start();
+		}
+	}
+
+	private void serve(Socket socket) {
+		try {
+			InputStream in = socket.getInputStream();
+			OutputStream out = socket.getOutputStream();
+			byte[] buffer = new byte[4096];
+			StringBuilder command = new StringBuilder();
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				StringBuilder replies = new StringBuilder();
+				for (int ii = 0; ii < n; ii++) {
+					char c = (char) buffer[ii];
+					if (c == '\r' || c == ';') {
+						if (command.length() > 0) {
+							String reply = reply(command.toString());
+							if (reply != null) {
+								replies.append(reply);
+							}
+							command.setLength(0);
+						}
+					} else if (c != '\n') {
+						command.append(c);
+					}
+				}
+				if (replies.length() > 0) {
+					out.write(replies.toString().getBytes(Charset.defaultCharset()));
+					out.flush();
+				}
+			}
+		} catch (IOException e) {
+			//. connection closed by the interface
+		} finally {
+			sessions.remove(socket);
+			try {
+				socket.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+}
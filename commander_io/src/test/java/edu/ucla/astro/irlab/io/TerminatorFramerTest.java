@@ -0,0 +1,88 @@
+package edu.ucla.astro.irlab.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+public class TerminatorFramerTest {
+
+	private static ByteBuffer bytes(String s) {
+		return ByteBuffer.wrap(s.getBytes(Charset.defaultCharset()));
+	}
+
+	@Test
+	public void framesResponseSplitOverFeeds() {
+		TerminatorFramer framer = new TerminatorFramer("\r\n:");
+		assertFalse(framer.feed(bytes(" 12")));
+		assertFalse(framer.feed(bytes("34\r")));
+		assertTrue(framer.feed(bytes("\n:")));
+		assertEquals(" 1234\r\n:", framer.takeResponse());
+	}
+
+	@Test
+	public void leavesFollowingResponseInBuffer() {
+		TerminatorFramer framer = new TerminatorFramer(":", false);
+		ByteBuffer buffer = bytes("1:2:");
+		assertTrue(framer.feed(buffer));
+		assertEquals("1:", framer.takeResponse());
+		assertTrue(framer.feed(buffer));
+		assertEquals("2:", framer.takeResponse());
+		assertFalse(buffer.hasRemaining());
+	}
+
+	@Test
+	public void discardsLeadingTerminatorOnlyWhenAsked() {
+		TerminatorFramer discarding = new TerminatorFramer(":", true);
+		assertTrue(discarding.feed(bytes(": 5\r\n:")));
+		assertEquals(" 5\r\n:", discarding.takeResponse());
+
+		TerminatorFramer keeping = new TerminatorFramer(":", false);
+		assertTrue(keeping.feed(bytes(": 5\r\n:")));
+		assertEquals(":", keeping.takeResponse());
+	}
+
+	@Test
+	public void errorTerminatorCompletesOneResponse() {
+		TerminatorFramer framer = new TerminatorFramer(":", "?", false);
+		ByteBuffer buffer = bytes("a\r\n:?b\r\n:");
+		assertTrue(framer.feed(buffer));
+		assertEquals("a\r\n:", framer.takeResponse());
+		assertTrue(framer.feed(buffer));
+		assertEquals("?", framer.takeResponse());
+		assertTrue(framer.feed(buffer));
+		assertEquals("b\r\n:", framer.takeResponse());
+	}
+
+	@Test
+	public void errorTerminatorInsideResponseIsText() {
+		TerminatorFramer framer = new TerminatorFramer(":", "?", true);
+		assertFalse(framer.feed(bytes("what?")));
+		assertTrue(framer.feed(bytes("\r\n:")));
+		assertEquals("what?\r\n:", framer.takeResponse());
+		//. after the acknowledge of an earlier command and some whitespace, it is still an error reply
+		assertTrue(framer.feed(bytes(":\r\n?")));
+		assertEquals("\r\n?", framer.takeResponse());
+	}
+
+	@Test
+	public void skipsRepliesOfCommandsNotRead() {
+		TerminatorFramer framer = new TerminatorFramer(":", "?", false);
+		framer.skipReply();
+		framer.skipReply();
+		framer.skipReply();
+		//. an acknowledge, a value and an error reply, whatever the command sent without reading was answered with
+		assertTrue(framer.feed(bytes(": 5\r\n:?:")));
+		assertEquals(":", framer.takeResponse());
+		assertEquals(0, framer.getRepliesToSkip());
+
+		framer.skipReply();
+		framer.reset();
+		assertTrue(framer.feed(bytes(":")));
+		assertEquals(":", framer.takeResponse());
+	}
+}
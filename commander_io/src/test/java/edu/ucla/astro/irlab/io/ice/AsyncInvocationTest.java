@@ -0,0 +1,143 @@
+package edu.ucla.astro.irlab.io.ice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.ucla.astro.irlab.io.Commander;
+/**
+ * Operations submitted asynchronously to an ice Commander overlap on its connection:
+ * 8 operations taking 200 ms each on ICEStubServant complete in about 0.2 s rather than 1.6 s.
+ */
+public class AsyncInvocationTest {
+	private static final int OPERATIONS = 8;
+	private static final int MILLIS = 200;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Ice.Communicator server;
+	private Commander commander;
+
+	/**
+	 * Operations of the stand-in server
+	 */
+	public static class Device {
+		public int add(int a, int b) {
+			return a + b;
+		}
+		public String slow(int millis) throws InterruptedException {
+			Thread.sleep(millis);
+			return "slept" + millis;
+		}
+	}
+	/**
+	 * Proxy type the commander binds its commands to, as generated by slice2java
+	 */
+	public interface DevicePrx extends Ice.ObjectPrx {
+		int add(int a, int b);
+		String slow(int millis);
+	}
+	/**
+	 * Synchronous calls of the proxy, which the asynchronous mode only takes the method types from
+	 */
+	public static class DevicePrxHelper extends Ice.ObjectPrxHelperBase implements DevicePrx {
+		private static final long serialVersionUID = 1L;
+
+		public static DevicePrx checkedCast(Ice.ObjectPrx base) {
+			if (base == null || !base.ice_isA("::Device")) {
+				return null;
+			}
+			DevicePrxHelper helper = new DevicePrxHelper();
+			helper.__copyFrom(base);
+			return helper;
+		}
+		private Object call(String operation, Class<?> returnType, Class<?>[] types, Object... arguments) {
+			Ice.OutputStream out = Ice.Util.createOutputStream(ice_getCommunicator());
+			for (int ii = 0; ii < arguments.length; ii++) {
+				IceParameterCodec.write(out, types[ii], arguments[ii]);
+			}
+			Ice.ByteSeqHolder result = new Ice.ByteSeqHolder();
+			ice_invoke(operation, Ice.OperationMode.Normal, out.finished(), result);
+			return IceParameterCodec.read(Ice.Util.createInputStream(ice_getCommunicator(), result.value), returnType);
+		}
+		@Override
+		public int add(int a, int b) {
+			return (Integer) call("add", int.class, new Class<?>[] {int.class, int.class}, a, b);
+		}
+		@Override
+		public String slow(int millis) {
+			return (String) call("slow", String.class, new Class<?>[] {int.class}, millis);
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		Ice.InitializationData id = new Ice.InitializationData();
+		id.properties = Ice.Util.createProperties();
+		id.properties.setProperty("Ice.ThreadPool.Server.Size", Integer.toString(OPERATIONS));
+		id.properties.setProperty("Ice.ThreadPool.Server.SizeMax", Integer.toString(OPERATIONS));
+		id.properties.setProperty("Ice.ThreadPool.Server.SizeWarn", "0");
+		server = Ice.Util.initialize(id);
+		Ice.ObjectPrx proxy = new ICEStubServant(new Device()).activate(server, "tcp -h 127.0.0.1 -p 0", "device");
+		Matcher port = Pattern.compile("-p (\\d+)").matcher(proxy.ice_getEndpoints()[0].toString());
+		assertTrue(port.find());
+
+		File file = new File(folder.getRoot(), "device.json");
+		FileWriter writer = new FileWriter(file);
+		try {
+			writer.write("{\"name\": \"Device\", \"connectionProperties\": {"
+					+ "\"type\": \"ice\", \"proxyClassName\": \"" + DevicePrx.class.getName() + "\", \"proxyName\": \"device:tcp\", "
+					+ "\"host\": \"127.0.0.1\", \"port\": \"" + port.group(1) + "\", \"timeout\": \"5000\", "
+					+ "\"async\": \"true\", \"pipelineDepth\": \"" + OPERATIONS + "\"}, "
+					+ "\"commandMap\": {"
+					+ "\"add\": {\"name\": \"add\", \"command\": \"add (a) (b)\", \"responseFormat\": \"(a)\"}, "
+					+ "\"slow\": {\"name\": \"slow\", \"command\": \"slow (a)\", \"responseFormat\": \"(s)\"}}, "
+					+ "\"paramDefMap\": {"
+					+ "\"a\": {\"name\": \"a\", \"type\": \"int\", \"dataRegex\": \"(\\\\d+)\"}, "
+					+ "\"b\": {\"name\": \"b\", \"type\": \"int\", \"dataRegex\": \"(\\\\d+)\"}, "
+					+ "\"s\": {\"name\": \"s\", \"type\": \"string\", \"dataRegex\": \"(.+)\"}}}");
+		} finally {
+			writer.close();
+		}
+		commander = Commander.getCommanderObject(file.getPath(), "warn");
+		commander.connect();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		commander.disconnect();
+		server.destroy();
+	}
+
+	@Test
+	public void overlappingOperations() throws Exception {
+		//. results are parsed with the response format, as for submit
+		assertEquals("[9]", String.valueOf(commander.submitAsync("add", 4, 5).get(5, TimeUnit.SECONDS)));
+
+		long start = System.nanoTime();
+		ArrayList<CompletableFuture<Object>> replies = new ArrayList<CompletableFuture<Object>>();
+		for (int ii = 0; ii < OPERATIONS; ii++) {
+			replies.add(commander.submitAsync("slow", MILLIS));
+		}
+		for (CompletableFuture<Object> reply : replies) {
+			assertEquals("slept" + MILLIS, reply.get(5, TimeUnit.SECONDS));
+		}
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue("operations took " + elapsed + " ms", elapsed < OPERATIONS * MILLIS / 2);
+	}
+}
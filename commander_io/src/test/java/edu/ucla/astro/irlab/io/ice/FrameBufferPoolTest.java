@@ -0,0 +1,117 @@
+package edu.ucla.astro.irlab.io.ice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+/**
+ * Buffers of a FrameBufferPool are allocated up to its capacity and reused once their Frame is released,
+ * and frames are dropped when none is released in time.
+ */
+public class FrameBufferPoolTest {
+	private static final int FRAME_BYTES = 64;
+	private static final int CAPACITY = 2;
+
+	private FrameBufferPool pool;
+	private ExecutorService releaser;
+
+	@Before
+	public void setUp() {
+		pool = new FrameBufferPool(FRAME_BYTES, CAPACITY, true);
+		releaser = Executors.newSingleThreadExecutor();
+	}
+
+	@After
+	public void tearDown() {
+		releaser.shutdownNow();
+	}
+
+	@Test
+	public void buffersAreAllocatedUpToCapacity() throws InterruptedException {
+		Frame first = pool.acquire(0);
+		Frame second = pool.acquire(0);
+		assertNotNull(first);
+		assertNotNull(second);
+		assertEquals(CAPACITY, pool.getAllocatedCount());
+		assertEquals(CAPACITY, pool.getInUseCount());
+		assertTrue(first.getBuffer().isDirect());
+		assertEquals(FRAME_BYTES, first.getBuffer().capacity());
+	}
+
+	@Test
+	public void frameIsDroppedWhenNoBufferIsReleased() throws InterruptedException {
+		pool.acquire(0);
+		pool.acquire(0);
+		long start = System.nanoTime();
+		assertNull(pool.acquire(50));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+		assertEquals(1, pool.getDroppedCount());
+		assertEquals(CAPACITY, pool.getReceivedCount());
+		assertEquals(CAPACITY, pool.getAllocatedCount());
+	}
+
+	@Test
+	public void releasedBufferIsReused() throws Exception {
+		final Frame first = pool.acquire(0);
+		first.getBuffer().putInt(42).flip();
+		pool.acquire(0);
+		Future<Frame> waiting = releaser.submit(new Callable<Frame>() {
+			@Override
+			public Frame call() throws Exception {
+				return pool.acquire(5000);
+			}
+		});
+		Thread.sleep(50);
+		first.release();
+		Frame next = waiting.get(5, TimeUnit.SECONDS);
+		assertSame(first, next);
+		//. reused frame is empty again
+		assertEquals(FRAME_BYTES, next.getLength());
+		assertEquals(0, next.getBuffer().position());
+		assertEquals(CAPACITY, pool.getAllocatedCount());
+		assertEquals(0, pool.getDroppedCount());
+	}
+
+	@Test
+	public void bufferComesBackWithLastReference() throws InterruptedException {
+		Frame frame = pool.acquire(0);
+		assertSame(frame, frame.retain());
+		frame.release();
+		assertEquals(1, pool.getInUseCount());
+		frame.release();
+		assertEquals(0, pool.getInUseCount());
+		assertSame(frame, pool.acquire(0));
+	}
+
+	@Test
+	public void releasedFrameCanNotBeReleasedOrRetainedAgain() throws InterruptedException {
+		Frame frame = pool.acquire(0);
+		frame.release();
+		try {
+			frame.release();
+			fail("second release was accepted");
+		} catch (IllegalStateException e) {
+		}
+		try {
+			frame.retain();
+			fail("released frame was retained");
+		} catch (IllegalStateException e) {
+		}
+		//. the buffer was given back once only
+		assertSame(frame, pool.acquire(0));
+		assertNotNull(pool.acquire(0));
+		assertNull(pool.acquire(0));
+	}
+}
@@ -0,0 +1,94 @@
+package edu.ucla.astro.irlab.io.ice;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import Ice.ByteSeqHolder;
+import Ice.Current;
+/**
+ *	Local stand-in for an Ice server, to run ICECommandInterface without the actual device.
+ *	Operations are dispatched to the public methods of a plain Java object with the same name,
+ *	arguments and return value marshalled by IceParameterCodec, like asynchronous invocations of ICECommandInterface.
+ *	ice_isA answers true, so checkedCast of any proxy type succeeds.
+ *	Methods of the target run on the server thread pool of the communicator, so slow operations overlap 
+ *	as long as "Ice.ThreadPool.Server.Size" allows it.
+ */
+public class ICEStubServant extends Ice.Blobject {
+	private static final long serialVersionUID = 1L;
+	private final Logger logger = LogManager.getLogger(ICEStubServant.class);
+	/** Object implementing the operations */
+	private final Object target;
+	/** Public methods of the target, with their name as key */
+	private final HashMap<String, Method> operations = new HashMap<String, Method>();
+
+	/**
+	 * @param Object implementing the operations. Method names must not be overloaded.
+	 */
+	public ICEStubServant(Object target) {
+		this.target = target;
+		for (Method m : target.getClass().getMethods()) {
+			if (m.getDeclaringClass() != Object.class) {
+				operations.put(m.getName(), m);
+			}
+		}
+	}
+	/**
+	 * Activates the servant on a new object adapter of the communicator.
+	 * @param Communicator of the server side
+	 * @param Endpoints of the adapter [ex: tcp -h 127.0.0.1 -p 10000]
+	 * @param Identity of the servant, the proxy name clients use
+	 * @return proxy of the servant
+	 */
+	public Ice.ObjectPrx activate(Ice.Communicator communicator, String endpoints, String identity) {
+		Ice.ObjectAdapter adapter = communicator.createObjectAdapterWithEndpoints("ICEStubServant-" + identity, endpoints);
+		Ice.ObjectPrx proxy = adapter.add(this, communicator.stringToIdentity(identity));
+		adapter.activate();
+		return proxy;
+	}
+
+	@Override
+	public boolean ice_invoke(byte[] inParams, ByteSeqHolder outParams, Current current) {
+		Ice.Communicator communicator = current.adapter.getCommunicator();
+		Ice.OutputStream out = Ice.Util.createOutputStream(communicator);
+		try {
+			if (current.operation.equals("ice_isA")) {
+				out.writeBool(true);
+			} else if (!current.operation.equals("ice_ping")) {
+				Method m = operations.get(current.operation);
+				if (m == null) {
+					throw new Ice.OperationNotExistException();
+				}
+				Class<?>[] types = m.getParameterTypes();
+				Object[] arguments = new Object[types.length];
+				Ice.InputStream in = Ice.Util.createInputStream(communicator, inParams);
+				try {
+					for (int ii = 0; ii<types.length; ii++) {
+						arguments[ii] = IceParameterCodec.read(in, types[ii]);
+					}
+				} finally {
+					in.destroy();
+				}
+				Object result;
+				try {
+					result = m.invoke(target, arguments);
+				} catch (InvocationTargetException e) {
+					logger.warn("Operation {} failed : {}", current.operation, e.getCause());
+					throw new Ice.UnknownException(String.valueOf(e.getCause()));
+				} catch (IllegalAccessException e) {
+					throw new Ice.OperationNotExistException();
+				}
+				if (m.getReturnType() != void.class) {
+					IceParameterCodec.write(out, m.getReturnType(), result);
+				}
+			}
+			outParams.value = out.finished();
+			return true;
+		} finally {
+			out.destroy();
+		}
+	}
+}
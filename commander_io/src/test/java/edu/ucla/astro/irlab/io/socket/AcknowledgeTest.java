@@ -0,0 +1,126 @@
+package edu.ucla.astro.irlab.io.socket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.ucla.astro.irlab.io.CommandInterface;
+import edu.ucla.astro.irlab.io.Parameter;
+import edu.ucla.astro.irlab.io.StandInDevice;
+/**
+ * Galil acknowledges a setting with a bare ":", and answers a query with its value followed by "\r\n:".
+ * Configured as acknowledged, every mode of the TCP interfaces takes the bare terminator as the reply of the setting, 
+ * and skips the reply of a command sent without reading it.
+ * Without it, a command sent with sendCommand is done once written, as for a device that doesn't answer it (here "SH").
+ */
+public class AcknowledgeTest {
+	private StandInDevice device;
+
+	@Before
+	public void setUp() throws IOException {
+		device = new StandInDevice() {
+			@Override
+			protected String reply(String command) {
+				if (command.startsWith("SH")) {
+					return null;
+				}
+				return command.startsWith("SP") ? ":" : super.reply(command);
+			}
+		};
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		device.close();
+	}
+
+	private void assertAcknowledges(CommandInterface ci) throws Exception {
+		ci.connect();
+		try {
+			assertEquals(":", ci.sendRequest("SPA=100", new Parameter[0]));
+			assertEquals("rpa\r\n:", ci.sendRequest("RPA", new Parameter[0]));
+			ci.sendCommand("SPA=200", new Parameter[0]);
+			ci.sendCommand("RPB", new Parameter[0]);
+			assertEquals("rpc\r\n:", ci.sendRequest("RPC", new Parameter[0]));
+			ci.sendCommand("RPD", new Parameter[0]);
+			assertEquals(Arrays.asList(":", "rpe\r\n:", ":"), ci.sendBatch("SPA=300;RPE;SPB=300", 3));
+		} finally {
+			ci.disconnect();
+		}
+	}
+
+	private void assertUnacknowledged(CommandInterface ci) throws Exception {
+		ci.connect();
+		try {
+			long start = System.nanoTime();
+			ci.sendCommand("SHA", new Parameter[0]);
+			ci.sendCommand("SHB", new Parameter[0]);
+			long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			assertTrue("commands took " + elapsed + " ms", elapsed < 500);
+			assertEquals("rpa\r\n:", ci.sendRequest("RPA", new Parameter[0]));
+			assertEquals("rpb\r\n:", ci.sendRequest("RPB", new Parameter[0]));
+		} finally {
+			ci.disconnect();
+		}
+	}
+
+	private HashMap<String, String> unacknowledged() {
+		HashMap<String, String> settings = device.settings();
+		settings.remove("acknowledged");
+		return settings;
+	}
+
+	@Test
+	public void tcp() throws Exception {
+		assertAcknowledges(new TCPCommandInterface(device.settings()));
+	}
+
+	@Test
+	public void pipelinedTcp() throws Exception {
+		HashMap<String, String> settings = device.settings();
+		settings.put("pipelineDepth", "4");
+		assertAcknowledges(new TCPCommandInterface(settings));
+	}
+
+	@Test
+	public void channel() throws Exception {
+		assertAcknowledges(new TCPChannelCommandInterface(device.settings()));
+	}
+
+	@Test
+	public void channelOnSelectorLoop() throws Exception {
+		SelectorLoop loop = new SelectorLoop("acknowledge-test");
+		try {
+			TCPChannelCommandInterface channel = new TCPChannelCommandInterface(device.settings());
+			channel.setSelectorLoop(loop);
+			assertAcknowledges(channel);
+		} finally {
+			loop.close();
+		}
+	}
+
+	@Test
+	public void unacknowledgedCommands() throws Exception {
+		HashMap<String, String> pipelined = unacknowledged();
+		pipelined.put("pipelineDepth", "4");
+		assertUnacknowledged(new TCPCommandInterface(unacknowledged()));
+		assertUnacknowledged(new TCPCommandInterface(pipelined));
+		assertUnacknowledged(new TCPChannelCommandInterface(unacknowledged()));
+		SelectorLoop loop = new SelectorLoop("acknowledge-test");
+		try {
+			TCPChannelCommandInterface channel = new TCPChannelCommandInterface(unacknowledged());
+			channel.setSelectorLoop(loop);
+			assertUnacknowledged(channel);
+		} finally {
+			loop.close();
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package edu.ucla.astro.irlab.io.socket;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.ucla.astro.irlab.io.CommandInterface;
+import edu.ucla.astro.irlab.io.Parameter;
+import edu.ucla.astro.irlab.io.StandInDevice;
+/**
+ * A device rejecting a command answers a bare "?" instead of a terminated reply, as Galil does.
+ * With errorTerminator set, the rejected command gets the "?" and every other command its own reply.
+ */
+public class ErrorTerminatorTest {
+	private static final List<String> COMMANDS = Arrays.asList("A1", "BAD", "C3", "BAD", "E5", "F6");
+
+	private StandInDevice device;
+	private ExecutorService callers;
+
+	@Before
+	public void setUp() throws IOException {
+		device = new StandInDevice() {
+			@Override
+			protected String reply(String command) {
+				return command.equals("BAD") ? "?" : super.reply(command);
+			}
+		};
+		callers = Executors.newFixedThreadPool(COMMANDS.size());
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		callers.shutdownNow();
+		device.close();
+	}
+
+	private HashMap<String, String> settings() {
+		HashMap<String, String> settings = device.settings();
+		settings.put("errorTerminator", "?");
+		return settings;
+	}
+
+	private static String expected(String command) {
+		return command.equals("BAD") ? "?" : command.toLowerCase() + "\r\n:";
+	}
+	/**
+	 * Sends every command from its own thread at once, so they are on the wire together, and checks each reply.
+	 */
+	private void assertRepliesInOrder(final CommandInterface ci) throws Exception {
+		final CountDownLatch start = new CountDownLatch(1);
+		ArrayList<Future<Object>> replies = new ArrayList<Future<Object>>();
+		for (final String command : COMMANDS) {
+			replies.add(callers.submit(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					start.await();
+					return ci.sendRequest(command, new Parameter[0]);
+				}
+			}));
+		}
+		start.countDown();
+		for (int ii = 0; ii < COMMANDS.size(); ii++) {
+			assertEquals(expected(COMMANDS.get(ii)).trim(), replies.get(ii).get(5, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	public void pipelinedTcp() throws Exception {
+		HashMap<String, String> settings = settings();
+		settings.put("pipelineDepth", "8");
+		TCPCommandInterface tcp = new TCPCommandInterface(settings);
+		tcp.connect();
+		try {
+			assertRepliesInOrder(tcp);
+		} finally {
+			tcp.disconnect();
+		}
+	}
+
+	@Test
+	public void channelOnSelectorLoop() throws Exception {
+		SelectorLoop loop = new SelectorLoop("error-terminator-test");
+		TCPChannelCommandInterface channel = new TCPChannelCommandInterface(settings());
+		channel.setSelectorLoop(loop);
+		channel.connect();
+		try {
+			assertRepliesInOrder(channel);
+		} finally {
+			channel.disconnect();
+			loop.close();
+		}
+	}
+
+	@Test
+	public void batches() throws Exception {
+		StringBuilder batch = new StringBuilder();
+		ArrayList<Object> expected = new ArrayList<Object>();
+		for (String command : COMMANDS) {
+			batch.append(batch.length() == 0 ? "" : ";").append(command);
+			expected.add(expected(command).trim());
+		}
+		CommandInterface[] interfaces = {
+				new TCPCommandInterface(settings()),
+				new TCPChannelCommandInterface(settings())
+		};
+		for (CommandInterface ci : interfaces) {
+			ci.connect();
+			try {
+				assertEquals(expected, ci.sendBatch(batch.toString(), COMMANDS.size()));
+				//. the connection is still in step afterwards
+				assertEquals("z9\r\n:", ci.sendRequest("Z9", new Parameter[0]));
+				//. reply of a command sent without reading it is not taken for a reply of the batch
+				ci.sendCommand("Y8", new Parameter[0]);
+				Thread.sleep(100);
+				assertEquals(expected, ci.sendBatch(batch.toString(), COMMANDS.size()));
+			} finally {
+				ci.disconnect();
+			}
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package edu.ucla.astro.irlab.io.socket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SelectorLoopTest {
+	private SelectorLoop loop;
+
+	@Before
+	public void setUp() throws IOException {
+		loop = new SelectorLoop("selector-loop-test");
+	}
+
+	@After
+	public void tearDown() {
+		loop.close();
+	}
+
+	@Test
+	public void timerRunsAfterDelay() throws InterruptedException {
+		final CountDownLatch ran = new CountDownLatch(1);
+		long start = System.nanoTime();
+		loop.schedule(new Runnable() {
+			@Override
+			public void run() {
+				ran.countDown();
+			}
+		}, 50);
+		assertTrue(ran.await(2, TimeUnit.SECONDS));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+	}
+
+	@Test
+	public void cancelledTimerDoesNotRun() throws InterruptedException {
+		final AtomicInteger runs = new AtomicInteger();
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				runs.incrementAndGet();
+			}
+		};
+		SelectorLoop.Timer early = loop.schedule(task, 20);
+		SelectorLoop.Timer late = loop.schedule(task, 20);
+		early.cancel();
+		//. cancelled after it was queued on the loop
+		Thread.sleep(5);
+		late.cancel();
+		final CountDownLatch after = new CountDownLatch(1);
+		loop.schedule(new Runnable() {
+			@Override
+			public void run() {
+				after.countDown();
+			}
+		}, 60);
+		assertTrue(after.await(2, TimeUnit.SECONDS));
+		assertEquals(0, runs.get());
+	}
+}
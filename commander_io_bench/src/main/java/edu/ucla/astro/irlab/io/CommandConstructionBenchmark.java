@@ -0,0 +1,65 @@
+package edu.ucla.astro.irlab.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+/**
+ * Building the string of GalilTester.json commands from their parameters.
+ * constructCommandString is measured next to the compiled template of the Command,
+ * which is what the interfaces render commands with.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandConstructionBenchmark {
+
+	@Param({"getErrorCode", "getMotorPosition", "setAbsTarget", "setMotorSmoothing"})
+	public String commandKey;
+
+	private String command;
+	private Parameter[] arguments;
+	private CompiledCommandTemplate template;
+	private byte[] terminator;
+	private ByteBuffer buffer;
+
+	@Setup
+	public void setup() throws IOException, InvalidConfigurationException, InvalidCommandException, InvalidParameterException {
+		LoopbackDevice device = new LoopbackDevice();
+		try {
+			Commander commander = device.createCommander("tcp");
+			Command cmd = commander.getCommandObject(commandKey);
+			command = cmd.getCommand();
+			arguments = commander.toParameters(cmd, LoopbackDevice.sampleArguments(cmd));
+			template = cmd.getCommandTemplate();
+		} finally {
+			device.close();
+		}
+		terminator = CompiledCommandTemplate.encodeTerminator("\r\n");
+	}
+
+	@Benchmark
+	public String constructCommandString() {
+		return PositionalSyntaxCommandConstructor.constructCommandString(command, arguments);
+	}
+
+	@Benchmark
+	public ByteBuffer renderTemplate() {
+		buffer = template.render(arguments, terminator, buffer);
+		return buffer;
+	}
+}
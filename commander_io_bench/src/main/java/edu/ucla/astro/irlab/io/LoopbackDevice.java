@@ -0,0 +1,97 @@
+package edu.ucla.astro.irlab.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+/**
+ * Stand-in for the Galil controller of GalilTester.json, listening on a loopback port as the StandInDevice of the tests.
+ * Every command is answered right away in the controller's format:
+ * values of queries followed by "\r\n:", and a bare ":" for settings, which are stored for later queries.
+ * Replies are built in memory, so benchmarks against it measure the Commander and the socket stack, not the device.
+ */
+public class LoopbackDevice extends StandInDevice {
+	private final ConcurrentHashMap<String, String> values = new ConcurrentHashMap<String, String>();
+
+	public LoopbackDevice() throws IOException {
+		super();
+	}
+
+	/**
+	 * Builds the reply of the controller to a command
+	 * @param Command without terminator
+	 * @return reply
+	 */
+	@Override
+	protected String reply(String command) {
+		if (command.equals("TC0")) {
+			return " 0\r\n:";
+		}
+		if (command.equals("TC1")) {
+			return "0 No error\r\n:";
+		}
+		if (command.startsWith("RP")) {
+			return " 1234\r\n:";
+		}
+		if (command.startsWith("TS")) {
+			return "47\r\n:";
+		}
+		if (command.length() > 3 && command.charAt(3) == '=') {
+			String key = command.substring(0, 3);
+			String value = command.substring(4);
+			if (value.equals("?")) {
+				String stored = values.get(key);
+				return (key.startsWith("LC") ? "" : " ") + ((stored == null) ? defaultValue(key) : stored) + "\r\n:";
+			}
+			values.put(key, value);
+		}
+		return ":";
+	}
+
+	private static String defaultValue(String key) {
+		if (key.startsWith("KS")) {
+			return "2.00";
+		} else if (key.startsWith("MT")) {
+			return "1.0";
+		} else if (key.startsWith("LC")) {
+			return "1";
+		}
+		return "25";
+	}
+	/**
+	 * Creates Commander from GalilTester.json, connecting to this device through the given type of interface.
+	 * @param Connection type (tcp, tcpchannel, tcppool)
+	 * @return Commander, not connected yet
+	 * @throws IOException
+	 * @throws InvalidConfigurationException
+	 */
+	public Commander createCommander(String type) throws IOException, InvalidConfigurationException {
+		File file = File.createTempFile("loopback", ".json");
+		file.deleteOnExit();
+		return createCommander(configuration(type), file, "off");
+	}
+	/**
+	 * Returns arguments of a GalilTester.json command as they would be typed in the console
+	 * @param Command of GalilTester.json
+	 * @return sample value of each of its parameters
+	 */
+	public static String[] sampleArguments(Command cmd) {
+		ArrayList<String> keys = cmd.getParamKeyList();
+		String[] arguments = new String[keys.size()];
+		for (int ii = 0; ii < arguments.length; ii++) {
+			String key = keys.get(ii);
+			if (key.equals("axis")) {
+				arguments[ii] = "A";
+			} else if (key.equals("smooth")) {
+				arguments[ii] = "2.5";
+			} else if (key.equals("mType")) {
+				arguments[ii] = "-1.5";
+			} else if (key.equals("lcParam")) {
+				arguments[ii] = "1";
+			} else {
+				arguments[ii] = "1000";
+			}
+		}
+		return arguments;
+	}
+}
@@ -0,0 +1,88 @@
+package edu.ucla.astro.irlab.io;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+/**
+ * Converting console input and Java values into Parameters, for every ParameterType.
+ * Numerical types have a range, so the range check is part of the measurement.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParameterDefinitionBenchmark {
+
+	@Param({"byte", "int", "long", "float", "double", "token", "string", "char", "boolean", "date"})
+	public String type;
+
+	private ParameterDefinition definition;
+	private String stringValue;
+	private Object objectValue;
+
+	@Setup
+	public void setup() throws InvalidParameterException, InvalidConfigurationException {
+		String range = null;
+		String format = null;
+		switch (ParameterType.fromName(type)) {
+		case BYTE:
+			range = "[0,100]";
+			stringValue = "42";
+			break;
+		case INT:
+			range = "[-100000,100000]";
+			stringValue = "1234";
+			break;
+		case LONG:
+			range = "[0,10000000000000]";
+			stringValue = "1234567890123";
+			break;
+		case FLOAT:
+			range = "[0.25,64.0]";
+			format = "%.2f";
+			stringValue = "2.5";
+			break;
+		case DOUBLE:
+			range = "1,-1,1.5,-1.5,2,-2,2.5,-2.5";
+			format = "%.1f";
+			stringValue = "-1.5";
+			break;
+		case CHAR:
+			stringValue = "A";
+			break;
+		case BOOLEAN:
+			stringValue = "true";
+			break;
+		case DATE:
+			stringValue = "2020-01-02 03:04:05";
+			break;
+		default:
+			stringValue = "No error";
+			break;
+		}
+		definition = new ParameterDefinition("value", type, range, format, "benchmark parameter of type " + type);
+		objectValue = definition.getParameterFromString(stringValue).getValue();
+	}
+
+	@Benchmark
+	public Parameter getParameterFromString() throws InvalidParameterException, InvalidConfigurationException {
+		return definition.getParameterFromString(stringValue);
+	}
+
+	@Benchmark
+	public Parameter getParameterFromObject() throws InvalidParameterException, InvalidConfigurationException {
+		return definition.getParameterFromObject(objectValue);
+	}
+}
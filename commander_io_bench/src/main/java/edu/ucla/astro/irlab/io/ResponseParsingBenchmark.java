@@ -0,0 +1,55 @@
+package edu.ucla.astro.irlab.io;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+/**
+ * Parsing device responses with the response formats of GalilTester.json.
+ * Responses are the ones LoopbackDevice answers the command with, trimmed as the interfaces return them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseParsingBenchmark {
+
+	@Param({"setAbsTarget", "getErrorCode", "getMotorPosition", "getMotorSmoothing", "getLowCurrent", "switchStatus", "getErrorDesc"})
+	public String commandKey;
+
+	private Commander commander;
+	private Command command;
+	private String response;
+
+	@Setup
+	public void setup() throws IOException, InvalidConfigurationException, InvalidCommandException, InvalidParameterException {
+		LoopbackDevice device = new LoopbackDevice();
+		try {
+			commander = device.createCommander("tcp");
+			command = commander.getCommandObject(commandKey);
+			Parameter[] arguments = commander.toParameters(command, LoopbackDevice.sampleArguments(command));
+			response = device.reply(PositionalSyntaxCommandConstructor.constructCommandString(command.getCommand(), arguments)).trim();
+		} finally {
+			device.close();
+		}
+		//. fail here rather than measuring exceptions
+		commander.formatOutputObject(command, response);
+	}
+
+	@Benchmark
+	public Object formatOutputObject() throws InvalidParameterException, InvalidCommandException, InvalidConfigurationException {
+		return commander.formatOutputObject(command, response);
+	}
+}
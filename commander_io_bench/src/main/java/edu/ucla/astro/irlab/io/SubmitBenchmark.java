@@ -0,0 +1,58 @@
+package edu.ucla.astro.irlab.io;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+/**
+ * Round trip of submit, from console style arguments to parsed response, against LoopbackDevice.
+ * Measures the whole path of a command: parameter conversion, scheduling, rendering, socket I/O and parsing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubmitBenchmark {
+
+	@Param({"tcp", "tcpchannel", "tcppool"})
+	public String type;
+
+	@Param({"getMotorPosition", "setAbsTarget"})
+	public String commandKey;
+
+	private LoopbackDevice device;
+	private Commander commander;
+	private String[] arguments;
+
+	@Setup
+	public void setup() throws IOException, InvalidConfigurationException, InvalidCommandException {
+		device = new LoopbackDevice();
+		commander = device.createCommander(type);
+		arguments = LoopbackDevice.sampleArguments(commander.getCommandObject(commandKey));
+		commander.connect();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		commander.disconnect();
+		device.close();
+	}
+
+	@Benchmark
+	public Object submit() throws InvalidParameterException, InvalidCommandException, IOException, InvalidConfigurationException {
+		return commander.submit(commandKey, arguments);
+	}
+}
@@ -9,12 +9,16 @@ object Dependencies {
   val jsscVersion = "2.8.0"
   val akkaVersion = "2.4.0"
   val cswVersion = "0.2-SNAPSHOT"
+  val junitVersion = "4.12"
+  val junitInterfaceVersion = "0.11"
 
   val gson = "com.google.code.gson" % "gson" % gsonVersion
   val log4ja = "org.apache.logging.log4j" % "log4j-api" % log4jVersion
   val log4jc = "org.apache.logging.log4j" % "log4j-core" % log4jVersion
   val jline = "jline" % "jline" % jlineVersion
   val jssc = "org.scream3r" % "jssc" % jsscVersion  
+  val junit = "junit" % "junit" % junitVersion % "test"
+  val junitInterface = "com.novocode" % "junit-interface" % junitInterfaceVersion % "test"
   val akka = "com.typesafe.akka" % "akka-actor_2.11" % akkaVersion
   val akka_remote = "com.typesafe.akka" % "akka-remote_2.11" % akkaVersion
   
@@ -30,6 +34,11 @@ object Dependencies {
     log4jc   
   )
   
+  val testDependencies: Seq[ModuleID] = Seq(
+    junit,
+    junitInterface
+  )
+
   val akkaDependencies: Seq[ModuleID] = Seq(
     akka,
     akka_remote